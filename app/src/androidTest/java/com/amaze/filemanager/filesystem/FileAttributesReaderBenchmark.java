@@ -0,0 +1,128 @@
+package com.amaze.filemanager.filesystem;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the attributes {@link FileAttributesReader} reads with a single stat per file to those
+ * of the java.io calls of {@link RootHelper#generateBaseFile(File, boolean)}, and times both on a
+ * directory of a few thousand files. The times are logged, not asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 21)
+public class FileAttributesReaderBenchmark {
+
+    private static final String TAG = "FileAttributesBenchmark";
+
+    private static final int FILES = 2000, DIRECTORIES = 200;
+    private static final int WARMUP_RUNS = 3, RUNS = 10;
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "attributes_benchmark");
+        deleteRecursively(directory);
+        directory.mkdirs();
+
+        byte[] content = new byte[4096];
+        for (int i = 0; i < FILES; i++) {
+            File file = new File(directory, "file " + i);
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try {
+                outputStream.write(content, 0, i % content.length);
+            } finally {
+                outputStream.close();
+            }
+            // a few modes, so that the cached access checks are looked up and missed
+            if (i % 3 == 0) file.setExecutable(true);
+            if (i % 5 == 0) file.setWritable(false);
+        }
+        for (int i = 0; i < DIRECTORIES; i++) {
+            new File(directory, "directory " + i).mkdir();
+        }
+    }
+
+    @After
+    public void deleteDirectory() {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void compareWithJavaIo() {
+        File[] files = directory.listFiles();
+        FileAttributesReader reader = new FileAttributesReader();
+        for (File file : files) {
+            HybridFileParcelable expected = RootHelper.generateBaseFile(file, true);
+            HybridFileParcelable actual = reader.read(file);
+
+            assertNotNull(file.getPath(), actual);
+            assertEquals(file.getPath(), expected.getPath(), actual.getPath());
+            assertEquals(file.getPath(), expected.getName(), actual.getName());
+            assertEquals(file.getPath(), expected.isDirectory(), actual.isDirectory());
+            assertEquals(file.getPath(), expected.getSize(), actual.getSize());
+            assertEquals(file.getPath(), expected.getPermission(), actual.getPermission());
+            // stat gives seconds, java.io may give milliseconds
+            assertEquals(file.getPath(), expected.getDate() / 1000, actual.getDate() / 1000);
+        }
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            readWithJavaIo(files);
+            readWithStat(files);
+        }
+
+        long javaIo = 0, stat = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            readWithJavaIo(files);
+            javaIo += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            readWithStat(files);
+            stat += System.nanoTime() - start;
+        }
+
+        Log.i(TAG, String.format("%d files: java.io %.1f ms, stat %.1f ms",
+                files.length, javaIo / 1e6 / RUNS, stat / 1e6 / RUNS));
+    }
+
+    private static int readWithJavaIo(File[] files) {
+        int count = 0;
+        for (File file : files) {
+            if (RootHelper.generateBaseFile(file, true) != null) count++;
+        }
+        return count;
+    }
+
+    private static int readWithStat(File[] files) {
+        // a reader per listing, as RootHelper does
+        FileAttributesReader reader = new FileAttributesReader();
+        int count = 0;
+        for (File file : files) {
+            if (reader.read(file) != null) count++;
+        }
+        return count;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
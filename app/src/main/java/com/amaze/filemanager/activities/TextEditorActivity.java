@@ -31,6 +31,7 @@ import android.graphics.Color;
 import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
@@ -67,17 +68,21 @@ import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.FileUtil;
 import com.amaze.filemanager.fragments.preference_fragments.PrefFrag;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
+import com.amaze.filemanager.utils.ImmutableEntry;
 import com.amaze.filemanager.utils.MapEntry;
 import com.amaze.filemanager.utils.PreferenceUtils;
 import com.amaze.filemanager.utils.RootUtils;
+import com.amaze.filemanager.utils.TextSearch;
 import com.amaze.filemanager.utils.Utils;
 import com.amaze.filemanager.utils.color.ColorUsage;
 import com.amaze.filemanager.utils.files.FileUtils;
 import com.amaze.filemanager.utils.files.GenericCopyUtil;
+import com.amaze.filemanager.utils.files.PagedTextFile;
 import com.amaze.filemanager.utils.theme.AppTheme;
 import com.readystatesoftware.systembartint.SystemBarTintManager;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -86,6 +91,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Timer;
@@ -123,10 +130,30 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
     public int mLine = 0;
 
     private SearchTextTask searchTextTask;
+
+    /*
+     * search whose results are in nodes, used to update them as the text is edited,
+     * and the line index of the text
+     */
+    private TextSearch search;
+    private TextSearch.LineIndex searchLines;
+
+    /*
+     * last change of the text, see onTextChanged(), applied to the results in afterTextChanged()
+     */
+    private int changeStart, changeBefore, changeAfter;
     private static final String KEY_MODIFIED_TEXT = "modified";
     private static final String KEY_INDEX = "index";
     private static final String KEY_ORIGINAL_TEXT = "original";
     private static final String KEY_MONOFONT = "monofont";
+    private static final String KEY_PAGE = "page";
+
+    /*
+     * large file edited a page at a time, null for the other files
+     * mInput holds the page mPage, mOriginal it's text before the edits not yet in pagedFile
+     */
+    private PagedTextFile pagedFile;
+    private int mPage;
 
     private RelativeLayout searchViewLayout;
 
@@ -258,30 +285,55 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
         mInputTypefaceDefault = mInput.getTypeface();
         mInputTypefaceMono = Typeface.MONOSPACE;
 
-        if (savedInstanceState != null) {
+        Object retained = getLastCustomNonConfigurationInstance();
+        if (savedInstanceState != null && retained instanceof PagedTextFile) {
+
+            pagedFile = (PagedTextFile) retained;
+            showPage(savedInstanceState.getInt(KEY_PAGE));
+            mInput.setScrollY(savedInstanceState.getInt(KEY_INDEX));
+        } else if (savedInstanceState != null && savedInstanceState.containsKey(KEY_MODIFIED_TEXT)) {
 
             mOriginal = savedInstanceState.getString(KEY_ORIGINAL_TEXT);
             int index = savedInstanceState.getInt(KEY_INDEX);
             mInput.setText(savedInstanceState.getString(KEY_MODIFIED_TEXT));
             mInput.setScrollY(index);
-            if (savedInstanceState.getBoolean(KEY_MONOFONT)) mInput.setTypeface(mInputTypefaceMono);
         } else {
 
             load(uri, mFile);
         }
+
+        if (savedInstanceState != null && savedInstanceState.getBoolean(KEY_MONOFONT)) {
+            mInput.setTypeface(mInputTypefaceMono);
+        }
     }
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putString(KEY_MODIFIED_TEXT, mInput.getText().toString());
         outState.putInt(KEY_INDEX, mInput.getScrollY());
-        outState.putString(KEY_ORIGINAL_TEXT, mOriginal);
         outState.putBoolean(KEY_MONOFONT, mInput.getTypeface().equals(mInputTypefaceMono));
+
+        if (pagedFile != null) {
+            // kept by onRetainCustomNonConfigurationInstance(), it's edits are lost if the process dies
+            outState.putInt(KEY_PAGE, mPage);
+        } else if (mOriginal != null && !mOriginal.equals(mInput.getText().toString())) {
+            // an unmodified file is loaded again instead of keeping two copies of it in the bundle
+            outState.putString(KEY_MODIFIED_TEXT, mInput.getText().toString());
+            outState.putString(KEY_ORIGINAL_TEXT, mOriginal);
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        if (pagedFile == null) return null;
+
+        commitPage();
+        return pagedFile;
     }
 
     private void checkUnsavedChanges() {
-        if (mOriginal != null && mInput.isShown() && !mOriginal.equals(mInput.getText().toString())) {
+        if (mOriginal != null && mInput.isShown() && (!mOriginal.equals(mInput.getText().toString())
+                || pagedFile != null && pagedFile.isModified())) {
             new MaterialDialog.Builder(this)
                     .title(R.string.unsavedchanges)
                     .content(R.string.unsavedchangesdesc)
@@ -293,7 +345,7 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
                         @Override
                         public void onPositive(MaterialDialog dialog) {
 
-                            saveFile(uri, new File(mFile.getPath()), mInput.getText().toString());
+                            save();
                             finish();
                         }
 
@@ -308,6 +360,15 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
         }
     }
 
+    private void save() {
+        if (pagedFile != null) {
+            commitPage();
+            savePagedFile(pagedFile);
+        } else {
+            saveFile(uri, new File(mFile.getPath()), mInput.getText().toString());
+        }
+    }
+
     /**
      * Method initiates a worker thread which writes the {@link #mInput} bytes to the defined
      * file/uri 's output stream
@@ -403,9 +464,10 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
 
         if (outputStream == null) throw new StreamNotFoundException();
 
-        // saving data to file
-        outputStream.write(inputText.getBytes());
-        outputStream.close();
+        // saving data to file, encoded as it's written instead of copied to an array first
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+        writer.write(inputText);
+        writer.close();
 
         mOriginal = inputText;
         mModified = false;
@@ -423,6 +485,102 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
         });
     }
 
+    /**
+     * Writes the edits of a large file on a worker thread, see {@link PagedTextFile#save()}.
+     * The page can't be edited nor changed meanwhile, that would wait for the save on the UI thread
+     */
+    private void savePagedFile(final PagedTextFile file) {
+        Toast.makeText(this, R.string.saving, Toast.LENGTH_SHORT).show();
+        mInput.setEnabled(false);
+        invalidateOptionsMenu();
+
+        new Thread(() -> {
+            try {
+                file.save();
+
+                runOnUiThread(() -> {
+                    mModified = false;
+                    Toast.makeText(getApplicationContext(), getString(R.string.done), Toast.LENGTH_SHORT).show();
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+                runOnUiThread(() -> {
+                    Toast.makeText(getApplicationContext(), R.string.error_io,
+                            Toast.LENGTH_SHORT).show();
+                });
+            } finally {
+                runOnUiThread(() -> {
+                    mInput.setEnabled(true);
+                    invalidateOptionsMenu();
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Keeps the edits of the page shown in {@link #pagedFile}
+     */
+    private void commitPage() {
+        String text = mInput.getText().toString();
+        if (mOriginal != null && !mOriginal.equals(text)) {
+            pagedFile.replacePage(mPage, text);
+            mOriginal = text;
+        }
+    }
+
+    /**
+     * Shows a page of {@link #pagedFile}, the edits of the current one have to be committed before.
+     * During a save (started before the activity was recreated) the page is read once it's done.
+     */
+    private void showPage(final int page) {
+        if (pagedFile.isSaving()) {
+            final PagedTextFile file = pagedFile;
+            mInput.setEnabled(false);
+            new Thread(() -> {
+                try {
+                    final String text = file.readPage(page);
+                    runOnUiThread(() -> {
+                        mInput.setEnabled(true);
+                        showPage(page, text);
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    runOnUiThread(() -> {
+                        Toast.makeText(getApplicationContext(), R.string.error_io,
+                                Toast.LENGTH_SHORT).show();
+                    });
+                }
+            }).start();
+            return;
+        }
+
+        try {
+            showPage(page, pagedFile.readPage(page));
+        } catch (IOException e) {
+            e.printStackTrace();
+            Toast.makeText(this, R.string.error_io, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void showPage(int page, String text) {
+        // the search results are for the previous page
+        if (searchTextTask != null) searchTextTask.cancel(true);
+        cleanSpans();
+
+        mPage = page;
+        mOriginal = text;
+        mInput.setText(text);
+        mInput.setHint(text.isEmpty() ? getString(R.string.file_empty) : null);
+        scrollView.scrollTo(0, 0);
+
+        int firstLine = pagedFile.getFirstLine(page);
+        getSupportActionBar().setSubtitle(getString(R.string.page_lines, firstLine,
+                firstLine + Math.max(0, pagedFile.getLineCount(page) - 1)));
+
+        mModified = pagedFile.isModified();
+        invalidateOptionsMenu();
+    }
+
     private void setProgress(boolean show) {
         //mInput.setVisibility(show ? View.GONE : View.VISIBLE);
         //   findViewById(R.id.progress).setVisibility(show ? View.VISIBLE : View.GONE);
@@ -440,6 +598,14 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
         this.mFile = mFile;
         mInput.setHint(R.string.loading);
         new Thread(() -> {
+            File file = new File(mFile.getPath());
+            if (uri.toString().contains("file://") && file.canRead()
+                    && (file.canWrite() || !ThemedActivity.rootMode) && PagedTextFile.isLarge(file)) {
+                // reading the whole file in the EditText would run out of memory
+                loadPaged(file);
+                return;
+            }
+
             try {
                 inputStream = getInputStream(uri, mFile);
 
@@ -485,6 +651,27 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
         }).start();
     }
 
+    /**
+     * Helper method to {@link #load(Uri, HybridFileParcelable)} for large files,
+     * indexes the file and shows it's first page
+     */
+    private void loadPaged(File file) {
+        File cacheDir = getExternalCacheDir() != null ? getExternalCacheDir() : getCacheDir();
+        try {
+            final PagedTextFile paged = new PagedTextFile(file, cacheDir);
+            runOnUiThread(() -> {
+                pagedFile = paged;
+                showPage(0);
+                setProgress(false);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            runOnUiThread(() -> {
+                mInput.setHint(R.string.error_io);
+            });
+        }
+    }
+
     @Override
     public void onBackPressed() {
         checkUnsavedChanges();
@@ -498,8 +685,14 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
 
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
-        menu.findItem(R.id.save).setVisible(mModified);
+        // nothing waiting for a save in progress
+        boolean saving = pagedFile != null && pagedFile.isSaving();
+        menu.findItem(R.id.save).setVisible(mModified && !saving);
         menu.findItem(R.id.monofont).setChecked(mInput.getTypeface().equals(mInputTypefaceMono));
+        menu.findItem(R.id.regex_search).setChecked(isSearchRegexEnabled());
+        menu.findItem(R.id.previous_page).setVisible(pagedFile != null && !saving && mPage > 0);
+        menu.findItem(R.id.next_page).setVisible(pagedFile != null && !saving
+                && mPage < pagedFile.getPageCount() - 1);
         return super.onPrepareOptionsMenu(menu);
     }
 
@@ -511,7 +704,15 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
                 break;
             case R.id.save:
                 // Make sure EditText is visible before saving!
-                saveFile(uri, new File(mFile.getPath()), mInput.getText().toString());
+                save();
+                break;
+            case R.id.previous_page:
+                commitPage();
+                showPage(mPage - 1);
+                break;
+            case R.id.next_page:
+                commitPage();
+                showPage(mPage + 1);
                 break;
             case R.id.details:
                 if (mFile.exists()) {
@@ -534,6 +735,11 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
                 item.setChecked(!item.isChecked());
                 mInput.setTypeface(item.isChecked() ? mInputTypefaceMono : mInputTypefaceDefault);
                 break;
+            case R.id.regex_search:
+                item.setChecked(!item.isChecked());
+                getPrefs().edit().putBoolean(PrefFrag.PREFERENCE_TEXTEDITOR_REGEX, item.isChecked()).apply();
+                if (searchViewLayout.isShown() && searchEditText.length() > 0) restartSearch();
+                break;
             default:
                 return false;
         }
@@ -555,6 +761,12 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
         }
 
         if (cacheFile != null && cacheFile.exists()) cacheFile.delete();
+
+        if (pagedFile != null && !isChangingConfigurations()) {
+            // waits for a save in progress
+            final PagedTextFile file = pagedFile;
+            new Thread(() -> file.close()).start();
+        }
     }
 
     @Override
@@ -583,13 +795,18 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
 
                 @Override
                 public void run() {
-                    modified = !mInput.getText().toString().equals(mOriginal);
+                    modified = !mInput.getText().toString().equals(mOriginal)
+                            || pagedFile != null && pagedFile.isModified();
                     if (mModified != modified) {
                         mModified = modified;
                         invalidateOptionsMenu();
                     }
                 }
             }, 250);
+
+            changeStart = i;
+            changeBefore = i2;
+            changeAfter = i3;
         }
     }
 
@@ -601,9 +818,137 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
             searchTextTask = new SearchTextTask(this);
             searchTextTask.execute(editable);
 
+        } else if (editable.hashCode() == mInput.getText().hashCode()) {
+            if (search != null) {
+                updateSearch(editable, changeStart, changeBefore, changeAfter);
+            } else if (searchTextTask != null && searchTextTask.getStatus() != AsyncTask.Status.FINISHED) {
+                // the results being computed are for the old text
+                restartSearch();
+            }
         }
     }
 
+    /**
+     * Search Java regular expressions instead of text, set from the menu: the file search's
+     * setting is for bash like patterns
+     */
+    public boolean isSearchRegexEnabled() {
+        return getPrefs().getBoolean(PrefFrag.PREFERENCE_TEXTEDITOR_REGEX, false);
+    }
+
+    /**
+     * Called by {@link SearchTextTask} with the search it made, to update the results when the text is edited
+     */
+    public void setSearch(TextSearch search, TextSearch.LineIndex lineIndex) {
+        this.search = search;
+        this.searchLines = lineIndex;
+    }
+
+    private void restartSearch() {
+        if (searchTextTask != null) searchTextTask.cancel(true);
+        cleanSpans();
+
+        searchTextTask = new SearchTextTask(this);
+        searchTextTask.execute(searchEditText.getText());
+    }
+
+    /**
+     * Updates the results and their highlights after a change of the text, only the occurrences
+     * touching the changed characters are searched again, the others are moved
+     */
+    private void updateSearch(Editable text, int start, int before, int after) {
+        searchLines.update(text, start, before, after);
+
+        if (search.isRegex()) {
+            // a match of an expression may span any part of the text
+            restartSearch();
+            return;
+        }
+
+        final int length = search.getLength();
+        final int changeEnd = start + after;
+        int delta = after - before;
+
+        // occurrences overlapping the replaced characters, the ones after them move by delta
+        int first = firstNodeEndingAfter(start);
+        int last = first;
+        while (last < nodes.size() && getNodeStart(last) < start + before) last++;
+
+        int from = Math.max(0, start - length + 1), to = Math.min(text.length(), changeEnd + length - 1);
+        final ArrayList<MapEntry> found = new ArrayList<>();
+        search.find(text, from, to, (matchStart, matchEnd) -> {
+            // the others were found before the change
+            if (matchStart < changeEnd && matchEnd > start) found.add(createNode(matchStart, matchEnd));
+            return true;
+        });
+
+        for (int i = last; i < nodes.size(); i++) {
+            Map.Entry<Integer, Integer> keyValue = nodes.get(i).getKey();
+            nodes.set(i, createNode(keyValue.getKey() + delta, keyValue.getValue() + delta));
+        }
+        nodes.subList(first, last).clear();
+        nodes.addAll(first, found);
+
+        if (mCurrent >= last) mCurrent += found.size() - (last - first);
+        else if (mCurrent >= first) mCurrent = first - 1;
+
+        // highlights touching the change may have been cut or stretched
+        for (BackgroundColorSpan colorSpan : text.getSpans(from, to, BackgroundColorSpan.class)) {
+            text.removeSpan(colorSpan);
+        }
+        for (int i = firstNodeEndingAfter(from - 1); i < nodes.size() && getNodeStart(i) <= to; i++) {
+            Map.Entry<Integer, Integer> keyValue = nodes.get(i).getKey();
+            highlight(keyValue.getKey(), keyValue.getValue(), i == mCurrent);
+        }
+
+        upButton.setEnabled(!nodes.isEmpty());
+        downButton.setEnabled(!nodes.isEmpty());
+    }
+
+    private MapEntry createNode(int start, int end) {
+        return new MapEntry(new ImmutableEntry<>(start, end), searchLines.getLineNumber(start));
+    }
+
+    private int getNodeStart(int index) {
+        return nodes.get(index).getKey().getKey();
+    }
+
+    /**
+     * @return the index of the first occurrence ending after the offset, the occurrences
+     * having the same length they are sorted by end as well
+     */
+    private int firstNodeEndingAfter(int offset) {
+        int low = 0, high = nodes.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (nodes.get(middle).getKey().getValue() > offset) high = middle;
+            else low = middle + 1;
+        }
+        return low;
+    }
+
+    /**
+     * Highlights an occurrence of the searched text, replacing it's previous highlight
+     *
+     * @param current whether it's the occurrence selected with the next/previous buttons
+     */
+    public void highlight(int start, int end, boolean current) {
+        Editable text = mInput.getText();
+        for (BackgroundColorSpan colorSpan : text.getSpans(start, end, BackgroundColorSpan.class)) {
+            if (text.getSpanStart(colorSpan) == start && text.getSpanEnd(colorSpan) == end) {
+                text.removeSpan(colorSpan);
+            }
+        }
+
+        int color;
+        if (current) color = Utils.getColor(this, R.color.search_text_highlight);
+        else if (getAppTheme().equals(AppTheme.LIGHT)) color = Color.YELLOW;
+        else color = Color.LTGRAY;
+
+        // exclusive so that typing next to an occurrence doesn't extend it's highlight
+        text.setSpan(new BackgroundColorSpan(color), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
     /**
      * Helper method to {@link #load(Uri, HybridFileParcelable)}
      * Tries to find an input stream associated with file/uri
@@ -804,18 +1149,10 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
 
                     // setting older span back before setting new one
                     Map.Entry keyValueOld = (Map.Entry) nodes.get(mCurrent).getKey();
-                    if (getAppTheme().equals(AppTheme.LIGHT)) {
-                        mInput.getText().setSpan(new BackgroundColorSpan(Color.YELLOW), (Integer) keyValueOld.getKey(),
-                                (Integer) keyValueOld.getValue(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
-                    } else {
-                        mInput.getText().setSpan(new BackgroundColorSpan(Color.LTGRAY), (Integer) keyValueOld.getKey(),
-                                (Integer) keyValueOld.getValue(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
-                    }
+                    highlight((Integer) keyValueOld.getKey(), (Integer) keyValueOld.getValue(), false);
                     // highlighting previous element in list
                     Map.Entry keyValueNew = (Map.Entry) nodes.get(--mCurrent).getKey();
-                    mInput.getText().setSpan(new BackgroundColorSpan(Utils.getColor(this, R.color.search_text_highlight)),
-                            (Integer) keyValueNew.getKey(),
-                            (Integer) keyValueNew.getValue(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+                    highlight((Integer) keyValueNew.getKey(), (Integer) keyValueNew.getValue(), true);
 
                     // scrolling to the highlighted element
                     scrollView.scrollTo(0, (Integer) keyValueNew.getValue()
@@ -831,19 +1168,11 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
                     if (mCurrent != -1) {
 
                         Map.Entry keyValueOld = (Map.Entry) nodes.get(mCurrent).getKey();
-                        if (getAppTheme().equals(AppTheme.LIGHT)) {
-                            mInput.getText().setSpan(new BackgroundColorSpan(Color.YELLOW), (Integer) keyValueOld.getKey(),
-                                    (Integer) keyValueOld.getValue(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
-                        } else {
-                            mInput.getText().setSpan(new BackgroundColorSpan(Color.LTGRAY), (Integer) keyValueOld.getKey(),
-                                    (Integer) keyValueOld.getValue(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
-                        }
+                        highlight((Integer) keyValueOld.getKey(), (Integer) keyValueOld.getValue(), false);
                     }
 
                     Map.Entry keyValueNew = (Map.Entry) nodes.get(++mCurrent).getKey();
-                    mInput.getText().setSpan(new BackgroundColorSpan(Utils.getColor(this, R.color.search_text_highlight)),
-                            (Integer) keyValueNew.getKey(),
-                            (Integer) keyValueNew.getValue(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+                    highlight((Integer) keyValueNew.getKey(), (Integer) keyValueNew.getValue(), true);
 
                     // scrolling to the highlighted element
                     scrollView.scrollTo(0, (Integer) keyValueNew.getValue()
@@ -864,6 +1193,8 @@ public class TextEditorActivity extends ThemedActivity implements TextWatcher, V
         nodes.clear();
         mCurrent = -1;
         mLine = 0;
+        search = null;
+        searchLines = null;
 
         // clearing textView spans
         BackgroundColorSpan[] colorSpans = mInput.getText().getSpans(0,
@@ -47,7 +47,7 @@ import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.RootHelper;
 import com.amaze.filemanager.fragments.AppsListFragment;
 import com.amaze.filemanager.utils.OpenMode;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.OperationScheduler;
 import com.amaze.filemanager.utils.Utils;
 import com.amaze.filemanager.utils.color.ColorUsage;
 import com.amaze.filemanager.utils.files.FileUtils;
@@ -241,7 +241,7 @@ public class AppsAdapter extends ArrayAdapter<AppDataParcelable> {
                         intent.putExtra(CopyService.TAG_COPY_TARGET, dst.getPath());
                         intent.putExtra(CopyService.TAG_COPY_OPEN_MODE, 0);
 
-                        ServiceWatcherUtil.runService(app.getActivity(), intent);
+                        OperationScheduler.getInstance(app.getActivity()).schedule(intent);
                         return true;
                 }
                 return false;
@@ -0,0 +1,57 @@
+package com.amaze.filemanager.asynchronous.asynctasks;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import com.afollestad.materialdialogs.MaterialDialog;
+import com.amaze.filemanager.R;
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.files.FileHasher;
+
+import java.util.ArrayList;
+
+/**
+ * Generates the MD5 and SHA-256 hashes of several files, a few at a time, and lists them
+ * in a dialog as they are done
+ */
+public class GenerateBatchHashesTask extends AsyncTask<Void, String, Void> {
+
+    private static final String[] ALGORITHMS = {FileHasher.MD5, FileHasher.SHA_256};
+
+    private Context context;
+    private ArrayList<HybridFileParcelable> files;
+    private MaterialDialog dialog;
+    private StringBuilder content = new StringBuilder();
+
+    public GenerateBatchHashesTask(Context context, ArrayList<HybridFileParcelable> files, MaterialDialog dialog) {
+        this.context = context;
+        this.files = files;
+        this.dialog = dialog;
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        final String md5 = context.getString(R.string.md5), sha256 = context.getString(R.string.hash_sha256);
+        final String error = context.getString(R.string.error);
+
+        try {
+            FileHasher.hashAll(context, files, (file, hashes) -> {
+                if (hashes == null) {
+                    publishProgress(file.getName() + "\n" + error);
+                } else {
+                    publishProgress(file.getName() + "\n" + md5 + ": " + hashes[0] + "\n" + sha256 + ": " + hashes[1]);
+                }
+            }, ALGORITHMS);
+        } catch (InterruptedException e) {
+            // cancelled
+        }
+        return null;
+    }
+
+    @Override
+    protected void onProgressUpdate(String... values) {
+        if (content.length() != 0) content.append("\n\n");
+        content.append(values[0]);
+        dialog.setContent(content);
+    }
+}
@@ -9,131 +9,125 @@ import android.widget.Toast;
 
 import com.amaze.filemanager.R;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.files.FileHasher;
 import com.amaze.filemanager.utils.files.FileUtils;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
- * Generates hashes from files (MD5 and SHA256)
+ * Generates hashes from files, MD5 and SHA-256 when the properties are shown and SHA-1, SHA-512
+ * or CRC32 when their row is tapped, see {@link FileHasher}
  *
  * Created by Vishal on 05-02-2015 edited by Emmanuel Messulam<emmanuelbendavid@gmail.com>
  */
 public class GenerateHashesTask extends AsyncTask<Void, String, String[]> {
 
+    private static final String[] ALGORITHMS = {FileHasher.MD5, FileHasher.SHA_1, FileHasher.SHA_256,
+            FileHasher.SHA_512, FileHasher.CRC_32};
+
+    // the hashes computed right away, the others cost too much on large files to compute unasked
+    private static final int[] DEFAULT_ROWS = {0, 2};
+    private static final int[] ON_DEMAND_ROWS = {1, 3, 4};
+
+    // rows of the properties dialog showing the hashes, in the order of the algorithms
+    private static final int[] LAYOUTS = {R.id.properties_dialog_md5, R.id.properties_dialog_sha1,
+            R.id.properties_dialog_sha256, R.id.properties_dialog_sha512, R.id.properties_dialog_crc32};
+    private static final int[] TEXTS = {R.id.t9, R.id.t11, R.id.t10, R.id.t12, R.id.t13};
+    private static final int[] TITLES = {R.string.md5, R.string.hash_sha1, R.string.hash_sha256,
+            R.string.hash_sha512, R.string.hash_crc32};
+
     private HybridFileParcelable file;
     private Context context;
-    private TextView md5HashText;
-    private TextView sha256Text;
-    private LinearLayout mMD5LinearLayout, mSHA256LinearLayout;
+    private View view;
+    // indexes of the algorithms computed by this task
+    private int[] rows;
+    private TextView[] hashTexts = new TextView[ALGORITHMS.length];
+    private LinearLayout[] hashLayouts = new LinearLayout[ALGORITHMS.length];
 
     public GenerateHashesTask(HybridFileParcelable f, final Context c, final View view) {
+        this(f, c, view, DEFAULT_ROWS);
+    }
+
+    private GenerateHashesTask(HybridFileParcelable f, Context c, View view, int[] rows) {
         this.context = c;
         this.file = f;
+        this.view = view;
+        this.rows = rows;
 
-        md5HashText = (TextView) view.findViewById(R.id.t9);
-        sha256Text = (TextView) view.findViewById(R.id.t10);
-
-        mMD5LinearLayout = (LinearLayout) view.findViewById(R.id.properties_dialog_md5);
-        mSHA256LinearLayout = (LinearLayout) view.findViewById(R.id.properties_dialog_sha256);
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            hashTexts[i] = (TextView) view.findViewById(TEXTS[i]);
+            hashLayouts[i] = (LinearLayout) view.findViewById(LAYOUTS[i]);
+        }
     }
 
     @Override
     protected String[] doInBackground(Void... params) {
-        String md5 = context.getString(R.string.error);
-        String sha256 = context.getString(R.string.error);
+        String[] algorithms = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            algorithms[i] = ALGORITHMS[rows[i]];
+        }
+
+        String[] hashes = new String[rows.length];
+        Arrays.fill(hashes, context.getString(R.string.error));
 
         try {
             if (!file.isDirectory(context)) {
-                md5 = getMD5Checksum();
-                sha256 = getSHA256Checksum();
+                hashes = FileHasher.hash(context, file, algorithms);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        return new String[] {md5, sha256};
+        return hashes;
     }
 
     @Override
     protected void onPostExecute(final String[] hashes) {
         super.onPostExecute(hashes);
         if (!file.isDirectory() && file.getSize() != 0) {
-            md5HashText.setText(hashes[0]);
-            sha256Text.setText(hashes[1]);
-
-            mMD5LinearLayout.setOnLongClickListener(v -> {
-                FileUtils.copyToClipboard(context, hashes[0]);
-                Toast.makeText(context, context.getResources().getString(R.string.md5).toUpperCase() + " " +
-                        context.getResources().getString(R.string.properties_copied_clipboard), Toast.LENGTH_SHORT).show();
-                return false;
-            });
-            mSHA256LinearLayout.setOnLongClickListener(v -> {
-                FileUtils.copyToClipboard(context, hashes[1]);
-                Toast.makeText(context, context.getResources().getString(R.string.hash_sha256) + " " +
-                        context.getResources().getString(R.string.properties_copied_clipboard), Toast.LENGTH_SHORT).show();
-                return false;
-            });
+            for (int i = 0; i < rows.length; i++) {
+                showHash(rows[i], hashes[i]);
+            }
+            if (rows == DEFAULT_ROWS) {
+                for (int row : ON_DEMAND_ROWS) {
+                    setOnDemand(row);
+                }
+            }
         } else {
-            mMD5LinearLayout.setVisibility(View.GONE);
-            mSHA256LinearLayout.setVisibility(View.GONE);
+            for (LinearLayout hashLayout : hashLayouts) {
+                hashLayout.setVisibility(View.GONE);
+            }
         }
     }
 
-    // see this How-to for a faster way to convert a byte array to a HEX string
-
-    private String getMD5Checksum() throws Exception {
-        byte[] b = createChecksum();
-        String result = "";
-
-        for (byte aB : b) {
-            result += Integer.toString((aB & 0xff) + 0x100, 16).substring(1);
-        }
-        return result;
+    private void showHash(int row, final String hash) {
+        final String title = context.getString(TITLES[row]);
+
+        hashTexts[row].setText(hash);
+        hashLayouts[row].setOnClickListener(null);
+        hashLayouts[row].setOnLongClickListener(v -> {
+            FileUtils.copyToClipboard(context, hash);
+            Toast.makeText(context, title + " " +
+                    context.getResources().getString(R.string.properties_copied_clipboard), Toast.LENGTH_SHORT).show();
+            return false;
+        });
     }
 
-    private String getSHA256Checksum() throws NoSuchAlgorithmException, IOException {
-        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-        byte[] input = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-        int length;
-        InputStream inputStream = file.getInputStream(context);
-        while ((length = inputStream.read(input)) != -1) {
-            if (length > 0)
-                messageDigest.update(input, 0, length);
-        }
-
-        byte[] hash = messageDigest.digest();
-
-        StringBuilder hexString = new StringBuilder();
-
-        for (byte aHash : hash) {
-            // convert hash to base 16
-            String hex = Integer.toHexString(0xff & aHash);
-            if (hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
+    /**
+     * Shows the hash if it's cached, otherwise computes it once the row is tapped
+     */
+    private void setOnDemand(final int row) {
+        String[] cached = FileHasher.getCached(file, ALGORITHMS[row]);
+        if (cached != null) {
+            showHash(row, cached[0]);
+            return;
         }
-        inputStream.close();
-        return hexString.toString();
-    }
-
-    private byte[] createChecksum() throws Exception {
-        InputStream fis = file.getInputStream(context);
-
-        byte[] buffer = new byte[8192];
-        MessageDigest complete = MessageDigest.getInstance("MD5");
-        int numRead;
-
-        do {
-            numRead = fis.read(buffer);
-            if (numRead > 0) {
-                complete.update(buffer, 0, numRead);
-            }
-        } while (numRead != -1);
 
-        fis.close();
-        return complete.digest();
+        hashLayouts[row].setOnClickListener(v -> {
+            v.setOnClickListener(null);
+            hashTexts[row].setText(R.string.calculating);
+            new GenerateHashesTask(file, context, view, new int[]{row})
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        });
     }
 }
@@ -23,6 +23,7 @@ package com.amaze.filemanager.asynchronous.asynctasks;
 import android.content.Context;
 import android.database.Cursor;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.support.v4.util.Pair;
 import android.text.format.Formatter;
@@ -45,6 +46,7 @@ import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
 import com.amaze.filemanager.utils.files.FileListSorter;
+import com.amaze.filemanager.utils.files.ListingCache;
 import com.cloudrail.si.interfaces.CloudStorage;
 
 import java.io.File;
@@ -59,7 +61,22 @@ import jcifs.smb.SmbAuthException;
 import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
 
-public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, ArrayList<LayoutElementParcelable>>> {
+/**
+ * Lists a directory for {@link MainFragment}.
+ *
+ * Listings which find their files one by one (local, root, OTG and cloud) are streamed:
+ * the files found are sorted in batches, which are merged into the list found so far, and
+ * every merged list is handed to the partial listener. The first batch is small so that
+ * the first screen shows up right away, the next ones double in size which keeps the total
+ * work at a full sort. The final list is the same as sorting the whole listing at once.
+ */
+public class LoadFilesListTask extends AsyncTask<Void, ArrayList<LayoutElementParcelable>, Pair<OpenMode, ArrayList<LayoutElementParcelable>>> {
+
+    // about a screen of items
+    private static final int FIRST_BATCH_SIZE = 64;
+
+    // a smaller batch is published anyway after this long (ms), for slow listings like cloud ones
+    private static final long BATCH_INTERVAL = 250;
 
     private String path;
     private MainFragment ma;
@@ -67,14 +84,32 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
     private OpenMode openmode;
     private DataUtils dataUtils = DataUtils.getInstance();
     private OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> listener;
+    private OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> partialListener;
+
+    private FileListSorter sorter;
+    private ArrayList<LayoutElementParcelable> sortedElements = new ArrayList<>();
+    private ArrayList<LayoutElementParcelable> batch = new ArrayList<>();
+    private int batchSize = FIRST_BATCH_SIZE;
+    private long lastPublishTime;
 
     public LoadFilesListTask(Context c, String path, MainFragment ma, OpenMode openmode,
                              OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> l) {
+        this(c, path, ma, openmode, l, null);
+    }
+
+    /**
+     * @param partialListener gets the sorted part of the listing found so far,
+     *                        for listings that can be streamed
+     */
+    public LoadFilesListTask(Context c, String path, MainFragment ma, OpenMode openmode,
+                             OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> l,
+                             OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> partialListener) {
         this.path = path;
         this.ma = ma;
         this.openmode = openmode;
         this.c = c;
         this.listener = l;
+        this.partialListener = partialListener;
     }
 
     @Override
@@ -95,9 +130,24 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
 
         if(isCancelled()) return null;
 
+        final OpenMode requestedMode = openmode;
+        ListingCache.Listing cached = ListingCache.getInstance().get(path, requestedMode, ma.dsort,
+                ma.sortby, ma.asc, ma.naturalSort, ma.SHOW_HIDDEN);
+        if (cached != null) {
+            ma.folder_count = cached.folderCount;
+            ma.file_count = cached.fileCount;
+            openmode = cached.openMode;
+            return new Pair<>(openmode, cached.getElements());
+        }
+
+        long listTime = System.currentTimeMillis();
         ma.folder_count = 0;
         ma.file_count = 0;
-        final ArrayList<LayoutElementParcelable> list;
+        ArrayList<LayoutElementParcelable> list;
+        boolean streamed = false;
+
+        sorter = new FileListSorter(ma.dsort, ma.sortby, ma.asc, ma.naturalSort);
+        lastPublishTime = SystemClock.uptimeMillis();
 
         switch (openmode) {
             case SMB:
@@ -148,40 +198,41 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
 
                 break;
             case OTG:
-                list = new ArrayList<>();
                 listOtg(path, new OnFileFound() {
                     @Override
                     public void onFileFound(HybridFileParcelable file) {
                         LayoutElementParcelable elem = createListParcelables(file);
-                        if(elem != null) list.add(elem);
+                        if(elem != null) addStreamed(elem);
                     }
                 });
                 openmode = OpenMode.OTG;
+                list = finishStreamed();
+                streamed = true;
                 break;
             case DROPBOX:
             case BOX:
             case GDRIVE:
             case ONEDRIVE:
                 CloudStorage cloudStorage = dataUtils.getAccount(openmode);
-                list = new ArrayList<>();
 
                 try {
                     listCloud(path, cloudStorage, openmode, new OnFileFound() {
                         @Override
                         public void onFileFound(HybridFileParcelable file) {
                             LayoutElementParcelable elem = createListParcelables(file);
-                            if(elem != null) list.add(elem);
+                            if(elem != null) addStreamed(elem);
                         }
                     });
                 } catch (CloudPluginException e) {
                     e.printStackTrace();
                     AppConfig.toast(c, c.getResources().getString(R.string.failed_no_connection));
-                    return new Pair<>(openmode, list);
+                    return new Pair<>(openmode, finishStreamed());
                 }
+                list = finishStreamed();
+                streamed = true;
                 break;
             default:
                 // we're neither in OTG not in SMB, load the list based on root/general filesystem
-                list = new ArrayList<>();
                 RootHelper.getFiles(path, ThemedActivity.rootMode, ma.SHOW_HIDDEN,
                         new RootHelper.GetModeCallBack() {
                             @Override
@@ -192,25 +243,75 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
                             @Override
                             public void onFileFound(HybridFileParcelable file) {
                                 LayoutElementParcelable elem = createListParcelables(file);
-                                if(elem != null) list.add(elem);
+                                if(elem != null) addStreamed(elem);
                             }
                         });
+                list = finishStreamed();
+                streamed = true;
                 break;
         }
 
-        if (list != null && !(openmode == OpenMode.CUSTOM && ((path).equals("5") || (path).equals("6")))) {
-            Collections.sort(list, new FileListSorter(ma.dsort, ma.sortby, ma.asc));
+        if (list != null && !streamed && !(openmode == OpenMode.CUSTOM && ((path).equals("5") || (path).equals("6")))) {
+            sorter.sort(list);
+        }
+
+        if (list != null && !isCancelled()) {
+            ListingCache.getInstance().put(path, requestedMode, ma.dsort, ma.sortby, ma.asc, ma.naturalSort,
+                    ma.SHOW_HIDDEN, openmode, list, ma.folder_count, ma.file_count, listTime);
         }
 
         return new Pair<>(openmode, list);
     }
 
+    @Override
+    protected void onProgressUpdate(ArrayList<LayoutElementParcelable>... partialList) {
+        if (!isCancelled() && partialListener != null) {
+            partialListener.onAsyncTaskFinished(new Pair<>(openmode, partialList[0]));
+        }
+    }
+
     @Override
     protected void onPostExecute(Pair<OpenMode, ArrayList<LayoutElementParcelable>> list) {
         super.onPostExecute(list);
         listener.onAsyncTaskFinished(list);
     }
 
+    /**
+     * Adds an element found by a streamed listing, merging and publishing the current batch
+     * once it's full or old enough
+     */
+    private void addStreamed(LayoutElementParcelable element) {
+        batch.add(element);
+
+        long now = SystemClock.uptimeMillis();
+        boolean full = batch.size() >= batchSize;
+        if (!full && now - lastPublishTime < BATCH_INTERVAL) return;
+        if (isCancelled()) return;
+
+        mergeBatch();
+        if (full) batchSize *= 2;
+        lastPublishTime = now;
+
+        // the ui adds the 'go back' item to it's list, so it gets a copy
+        publishProgress(new ArrayList<>(sortedElements));
+    }
+
+    /**
+     * @return the whole streamed listing, sorted
+     */
+    private ArrayList<LayoutElementParcelable> finishStreamed() {
+        mergeBatch();
+        return sortedElements;
+    }
+
+    private void mergeBatch() {
+        if (batch.isEmpty()) return;
+
+        sorter.sort(batch);
+        sortedElements = sortedElements.isEmpty() ? batch : sorter.merge(sortedElements, batch);
+        batch = new ArrayList<>();
+    }
+
     private LayoutElementParcelable createListParcelables(HybridFileParcelable baseFile) {
         if (!dataUtils.isFileHidden(baseFile.getPath())) {
             String size = "";
@@ -38,7 +38,7 @@ import com.amaze.filemanager.utils.files.CryptUtil;
 import com.amaze.filemanager.utils.files.FileUtils;
 import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.RootUtils;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.OperationScheduler;
 import com.cloudrail.si.interfaces.CloudStorage;
 
 import java.io.File;
@@ -195,7 +195,7 @@ public class MoveFiles extends AsyncTask<ArrayList<String>, Void, Boolean> {
                 intent.putExtra(CopyService.TAG_COPY_MOVE, true);
                 intent.putExtra(CopyService.TAG_COPY_OPEN_MODE, mode.ordinal());
 
-                ServiceWatcherUtil.runService(context, intent);
+                OperationScheduler.getInstance(context).schedule(intent);
             }
         }
     }
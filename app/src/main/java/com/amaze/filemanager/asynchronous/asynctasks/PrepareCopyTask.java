@@ -22,7 +22,7 @@ import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.MainActivityHelper;
 import com.amaze.filemanager.utils.OnFileFound;
 import com.amaze.filemanager.utils.OpenMode;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.OperationScheduler;
 import com.amaze.filemanager.utils.Utils;
 import com.amaze.filemanager.utils.color.ColorUsage;
 import com.amaze.filemanager.utils.files.FileUtils;
@@ -105,7 +105,8 @@ public class PrepareCopyTask extends AsyncTask<ArrayList<HybridFileParcelable>,
             return null;
         }
 
-        totalBytes = FileUtils.getTotalBytes(filesToCopy, context);
+        // the cached sizes of directories could let a copy which doesn't fit start
+        totalBytes = FileUtils.getExactTotalBytes(filesToCopy, context);
 
         HybridFile destination = new HybridFile(openMode, path);
         if (destination.getUsableSpace() < totalBytes) {
@@ -162,7 +163,7 @@ public class PrepareCopyTask extends AsyncTask<ArrayList<HybridFileParcelable>,
         intent.putExtra(CopyService.TAG_COPY_TARGET, target);
         intent.putExtra(CopyService.TAG_COPY_OPEN_MODE, openmode.ordinal());
         intent.putExtra(CopyService.TAG_COPY_MOVE, move);
-        ServiceWatcherUtil.runService(context, intent);
+        OperationScheduler.getInstance(context).schedule(intent);
     }
 
     private void showDialog(final String path, final ArrayList<HybridFileParcelable> filesToCopy,
@@ -2,6 +2,7 @@ package com.amaze.filemanager.asynchronous.asynctasks;
 
 import android.os.AsyncTask;
 
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex;
 import com.amaze.filemanager.filesystem.compressed.RarHelper;
 import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
 import com.amaze.filemanager.utils.OnAsyncTaskFinished;
@@ -12,7 +13,6 @@ import com.github.junrar.rarfile.FileHeader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 
 /**
  * Created by Arpit on 25-01-2015 edited by Emmanuel Messulam<emmanuelbendavid@gmail.com>
@@ -46,20 +46,7 @@ public class RarHelperTask extends AsyncTask<Void, Void, ArrayList<CompressedObj
                 elements.add(0, new CompressedObjectParcelable());
             }
 
-            Archive zipfile = new Archive(new File(fileLocation));
-            String relativeDirDiffSeparator = relativeDirectory.replace("/", "\\");
-
-            for (FileHeader header : zipfile.getFileHeaders()) {
-                String name = header.getFileNameString();//This uses \ as separator, not /
-                boolean isInBaseDir = (relativeDirDiffSeparator == null || relativeDirDiffSeparator.equals("")) && !name.contains("\\");
-                boolean isInRelativeDir = relativeDirDiffSeparator != null && name.contains("\\")
-                        && name.substring(0, name.lastIndexOf("\\")).equals(relativeDirDiffSeparator);
-
-                if (isInBaseDir || isInRelativeDir) {
-                    elements.add(new CompressedObjectParcelable(RarHelper.convertName(header), 0, header.getDataSize(), header.isDirectory()));
-                }
-            }
-            Collections.sort(elements, new CompressedObjectParcelable.Sorter());
+            elements.addAll(getIndex().list(relativeDirectory));
         } catch (RarException | IOException e) {
             e.printStackTrace();
         }
@@ -67,6 +54,31 @@ public class RarHelperTask extends AsyncTask<Void, Void, ArrayList<CompressedObj
         return elements;
     }
 
+    /**
+     * Lists the headers of the archive once, the index is cached until the archive is modified
+     */
+    private ArchiveIndex getIndex() throws RarException, IOException {
+        File file = new File(fileLocation);
+        long lastModified = file.lastModified();
+
+        ArchiveIndex index = ArchiveIndex.get(fileLocation, lastModified);
+        if (index != null) return index;
+
+        ArchiveIndex.Builder builder = new ArchiveIndex.Builder();
+        Archive zipfile = new Archive(file);
+        try {
+            for (FileHeader header : zipfile.getFileHeaders()) {
+                builder.add(RarHelper.convertName(header), 0, header.getDataSize(), header.isDirectory());
+            }
+        } finally {
+            zipfile.close();
+        }
+
+        index = builder.build();
+        ArchiveIndex.put(fileLocation, lastModified, index);
+        return index;
+    }
+
     @Override
     protected void onPostExecute(ArrayList<CompressedObjectParcelable> zipEntries) {
         super.onPostExecute(zipEntries);
@@ -4,13 +4,18 @@ import android.app.Activity;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import com.amaze.filemanager.filesystem.FileIndex;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.ParallelSearch;
 import com.amaze.filemanager.fragments.SearchWorkerFragment;
 import com.amaze.filemanager.utils.OnFileFound;
 import com.amaze.filemanager.utils.OpenMode;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -27,10 +32,20 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
     private String mInput;
     private OpenMode mOpenMode;
     private boolean mRootMode, isRegexEnabled, isMatchesEnabled;
+    private int mMaxDepth;
 
     public SearchAsyncTask(Activity a, SearchWorkerFragment.HelperCallbacks l,
                            String input, OpenMode openMode, boolean root, boolean regex,
                            boolean matches) {
+        this(a, l, input, openMode, root, regex, matches, -1);
+    }
+
+    /**
+     * @param maxDepth levels of subdirectories to search, negative for no limit
+     */
+    public SearchAsyncTask(Activity a, SearchWorkerFragment.HelperCallbacks l,
+                           String input, OpenMode openMode, boolean root, boolean regex,
+                           boolean matches, int maxDepth) {
         activity = new WeakReference<>(a);
         mCallbacks = l;
         mInput = input;
@@ -38,6 +53,7 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
         mRootMode = root;
         isRegexEnabled = regex;
         isMatchesEnabled = matches;
+        mMaxDepth = maxDepth;
     }
 
     @Override
@@ -62,16 +78,26 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
         file.generateMode(activity.get());
         if (file.isSmb()) return null;
 
+        // the index doesn't keep the depth of the files
+        if (file.isLocal() && mMaxDepth < 0 && searchIndex(path)) return null;
+
         // level 1
         // if regex or not
+        SearchFilter filter;
         if (!isRegexEnabled) {
-            search(file, mInput);
+            filter = getContainsFilter(mInput);
         } else {
             // compile the regular expression in the input
             Pattern pattern = Pattern.compile(bashRegexToJava(mInput));
             // level 2
-            if (!isMatchesEnabled) searchRegExFind(file, pattern);
-            else searchRegExMatch(file, pattern);
+            if (!isMatchesEnabled) filter = getRegExFindFilter(pattern);
+            else filter = getRegExMatchFilter(pattern);
+        }
+
+        if (canSearchInParallel(file)) {
+            searchInParallel(path, filter);
+        } else {
+            search(file, filter, 0);
         }
         return null;
     }
@@ -91,17 +117,102 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
     @Override
     public void onProgressUpdate(HybridFileParcelable... val) {
         if (!isCancelled() && mCallbacks != null) {
-            mCallbacks.onProgressUpdate(val[0], mInput);
+            for (HybridFileParcelable file : val) {
+                mCallbacks.onProgressUpdate(file, mInput);
+            }
         }
     }
 
+    /**
+     * Searches the file names in the {@link FileIndex}, if it covers the path
+     *
+     * @return false if the path has to be searched by walking it instead
+     */
+    private boolean searchIndex(String path) {
+        Activity a = activity.get();
+        if (a == null) return false;
+
+        final FileIndex.SearchFilter filter;
+        String prefix = "";
+        if (!isRegexEnabled) {
+            final String query = mInput.toLowerCase();
+            filter = (fileName, lowerCaseName) -> lowerCaseName.contains(query);
+        } else {
+            final Pattern pattern = Pattern.compile(bashRegexToJava(mInput));
+            if (!isMatchesEnabled) {
+                filter = (fileName, lowerCaseName) -> pattern.matcher(fileName).find();
+            } else {
+                filter = (fileName, lowerCaseName) -> pattern.matcher(fileName).matches();
+                // a whole name match starts with the literal start of the expression
+                prefix = getLiteralPrefix(mInput).toLowerCase();
+            }
+        }
+
+        return FileIndex.getInstance(a).search(path, filter, prefix, file -> {
+            if (isCancelled()) return false;
+            publishProgress(file);
+            return true;
+        });
+    }
+
+    /**
+     * @return the characters every whole name match starts with, empty with an alternation
+     * as it's branches needn't start alike
+     */
+    private static String getLiteralPrefix(String expression) {
+        if (expression.indexOf('|') != -1) return "";
+
+        int end = 0;
+        while (end < expression.length() && "*?.[](){}\\^$|+".indexOf(expression.charAt(end)) == -1) {
+            end++;
+        }
+
+        // a quantifier may make the character before it optional, eg. ab?c and ab{0}c match ac
+        if (end > 0 && end < expression.length() && "*?{".indexOf(expression.charAt(end)) != -1) end--;
+        return expression.substring(0, end);
+    }
+
+    /**
+     * Only paths which can be listed without a root shell are searched in parallel, root listings
+     * go through a single shell and other filesystems would be hit with concurrent requests
+     */
+    private boolean canSearchInParallel(HybridFile file) {
+        if (file.getMode() != OpenMode.FILE) return false;
+        if (!mRootMode) return true;
+
+        // see RootHelper.getFiles(), these are listed without root even in root mode
+        String path = file.getPath();
+        return path.startsWith("/storage") || path.startsWith("/sdcard");
+    }
+
+    /**
+     * Searches the subdirectories on several threads, the results are published in batches
+     */
+    private void searchInParallel(String path, SearchFilter filter) {
+        new ParallelSearch(filter, mMaxDepth, new ParallelSearch.Listener() {
+            @Override
+            public boolean onFilesFound(ArrayList<HybridFileParcelable> files) {
+                if (SearchAsyncTask.this.isCancelled()) return false;
+                publishProgress(files.toArray(new HybridFileParcelable[files.size()]));
+                return true;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return SearchAsyncTask.this.isCancelled();
+            }
+        }).run(new File(path));
+    }
+
     /**
      * Recursively search for occurrences of a given text in file names and publish the result
      *
      * @param directory the current path
+     * @param depth     levels of subdirectories between the searched path and this one
      */
-    private void search(HybridFile directory, final SearchFilter filter) {
+    private void search(HybridFile directory, final SearchFilter filter, final int depth) {
         if (directory.isDirectory(activity.get())) {// do you have permission to read this directory?
+            final boolean descend = mMaxDepth < 0 || depth < mMaxDepth;
             directory.forEachChildrenFile(activity.get(), mRootMode, new OnFileFound() {
                 @Override
                 public void onFileFound(HybridFileParcelable file) {
@@ -109,8 +220,8 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
                         if (filter.searchFilter(file.getName())) {
                             publishProgress(file);
                         }
-                        if (file.isDirectory() && !isCancelled()) {
-                            search(file, filter);
+                        if (descend && file.isDirectory() && !isCancelled()) {
+                            search(file, filter, depth + 1);
                         }
                     }
                 }
@@ -120,40 +231,64 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
         }
     }
 
-
     /**
-     * Recursively search for occurrences of a given text in file names and publish the result
+     * Matches the file names containing the text, ignoring case
      *
-     * @param file  the current path
      * @param query the searched text
      */
-    private void search(HybridFile file, final String query) {
-        search(file, fileName -> fileName.toLowerCase().contains(query.toLowerCase()));
+    private static SearchFilter getContainsFilter(final String query) {
+        return fileName -> containsIgnoreCase(fileName, query);
     }
 
     /**
-     * Recursively find a java regex pattern {@link Pattern} in the file names and publish the result
+     * Same as {@code text.toLowerCase().contains(query.toLowerCase())}, without creating
+     * a lower case copy of every file name
+     */
+    private static boolean containsIgnoreCase(String text, String query) {
+        int length = query.length();
+        if (length == 0) return true;
+
+        char first = query.charAt(0);
+        char firstLower = Character.toLowerCase(first), firstUpper = Character.toUpperCase(first);
+
+        for (int i = 0, last = text.length() - length; i <= last; i++) {
+            char c = text.charAt(i);
+            if (c != firstLower && c != firstUpper && Character.toLowerCase(c) != firstLower) continue;
+            if (text.regionMatches(true, i, query, 0, length)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds a java regex pattern {@link Pattern} in the file names
      *
-     * @param file    the current file
      * @param pattern the compiled java regex
      */
-    private void searchRegExFind(HybridFile file, final Pattern pattern) {
-        search(file, new SearchFilter() {
-            @Override
-            public boolean searchFilter(String fileName) {
-                return pattern.matcher(fileName).find();
-            }
-        });
+    private static SearchFilter getRegExFindFilter(Pattern pattern) {
+        final ThreadLocal<Matcher> matcher = getMatcher(pattern);
+        return fileName -> matcher.get().reset(fileName).find();
     }
 
     /**
-     * Recursively match a java regex pattern {@link Pattern} with the file names and publish the result
+     * Matches a java regex pattern {@link Pattern} with the file names
      *
-     * @param file    the current file
      * @param pattern the compiled java regex
      */
-    private void searchRegExMatch(HybridFile file, final Pattern pattern) {
-        search(file, fileName -> pattern.matcher(fileName).matches());
+    private static SearchFilter getRegExMatchFilter(Pattern pattern) {
+        final ThreadLocal<Matcher> matcher = getMatcher(pattern);
+        return fileName -> matcher.get().reset(fileName).matches();
+    }
+
+    /**
+     * A {@link Matcher} isn't thread safe, every thread searching reuses it's own
+     */
+    private static ThreadLocal<Matcher> getMatcher(final Pattern pattern) {
+        return new ThreadLocal<Matcher>() {
+            @Override
+            protected Matcher initialValue() {
+                return pattern.matcher("");
+            }
+        };
     }
 
     /**
@@ -1,38 +1,31 @@
 package com.amaze.filemanager.asynchronous.asynctasks;
 
-import android.graphics.Color;
 import android.os.AsyncTask;
 import android.text.Editable;
-import android.text.Spanned;
-import android.text.style.BackgroundColorSpan;
-import android.widget.EditText;
+import android.util.Log;
 import android.widget.ImageButton;
 
 import com.amaze.filemanager.activities.TextEditorActivity;
 import com.amaze.filemanager.utils.ImmutableEntry;
 import com.amaze.filemanager.utils.MapEntry;
-import com.amaze.filemanager.utils.theme.AppTheme;
+import com.amaze.filemanager.utils.TextSearch;
 
-import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Created by Vishal on 2/1/16.
  */
 public class SearchTextTask extends AsyncTask<Editable, Void, ArrayList<MapEntry>> {
 
-    private EditText searchEditText, mInput;
-    private ArrayList<MapEntry> nodes;
-    private int searchTextLength;
+    private static final String TAG = "SearchTextTask";
+
     private ImageButton upButton, downButton;
     private TextEditorActivity textEditorActivity;
-    private Editable editText;
-    private String searchSubString;
-    private StringReader stringReader;
-    private LineNumberReader lineNumberReader;
+    private String text, query;
+    private boolean regex;
+    private TextSearch search;
+    private TextSearch.LineIndex lineIndex;
 
     public SearchTextTask(TextEditorActivity textEditorActivity) {
         this.textEditorActivity = textEditorActivity;
@@ -42,40 +35,34 @@ public class SearchTextTask extends AsyncTask<Editable, Void, ArrayList<MapEntry
     protected void onPreExecute() {
         super.onPreExecute();
 
-        this.searchEditText = textEditorActivity.searchEditText;
-        this.nodes = textEditorActivity.nodes;
         this.upButton = textEditorActivity.upButton;
         this.downButton = textEditorActivity.downButton;
-        this.mInput = textEditorActivity.mInput;
-        searchTextLength = searchEditText.length();
-        editText = mInput.getText();
-        stringReader = new StringReader(editText.toString());
-        lineNumberReader = new LineNumberReader(stringReader);
+        this.regex = textEditorActivity.isSearchRegexEnabled();
+        // the editable can only be read from the main thread
+        text = textEditorActivity.mInput.getText().toString();
+        query = textEditorActivity.searchEditText.getText().toString();
     }
 
     @Override
     protected ArrayList<MapEntry> doInBackground(Editable... params) {
-        for (int i = 0; i < (editText.length() - params[0].length()); i++) {
-            if (searchTextLength == 0 || isCancelled())
-                break;
+        final ArrayList<MapEntry> nodes = new ArrayList<>();
+        if (query.length() == 0) return nodes;
+
+        try {
+            search = new TextSearch(query, regex);
+        } catch (PatternSyntaxException e) {
+            Log.d(TAG, "Invalid expression " + query, e);
+            return nodes;
+        }
 
-            searchSubString = editText.subSequence(i, i + params[0].length()).toString();
+        lineIndex = new TextSearch.LineIndex(text);
+        search.find(text, 0, text.length(), (start, end) -> {
+            if (isCancelled()) return false;
 
             // comparing and adding searched phrase to a list
-            if (searchSubString.equalsIgnoreCase(params[0].toString())) {
-
-                nodes.add(new MapEntry(new ImmutableEntry<>(i, i + params[0].length()),
-                        lineNumberReader.getLineNumber()));
-            }
-
-            // comparing and incrementing line number
-            // ended up using LineNumberReader api instead
-            try {
-                lineNumberReader.skip(params[0].length());
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+            nodes.add(new MapEntry(new ImmutableEntry<>(start, end), lineIndex.getLineNumber(start)));
+            return true;
+        });
         return nodes;
     }
 
@@ -83,18 +70,12 @@ public class SearchTextTask extends AsyncTask<Editable, Void, ArrayList<MapEntry
     protected void onPostExecute(final ArrayList<MapEntry> mapEntries) {
         super.onPostExecute(mapEntries);
 
-        for (Map.Entry mapEntry : mapEntries) {
-
-            Map.Entry keyMapEntry = (Map.Entry) mapEntry.getKey();
-            if (textEditorActivity.getAppTheme().equals(AppTheme.LIGHT)) {
-                mInput.getText().setSpan(new BackgroundColorSpan(Color.YELLOW),
-                        (Integer) keyMapEntry.getKey(), (Integer) keyMapEntry.getValue(),
-                        Spanned.SPAN_INCLUSIVE_INCLUSIVE);
-            } else {
-                mInput.getText().setSpan(new BackgroundColorSpan(Color.LTGRAY),
-                        (Integer) keyMapEntry.getKey(), (Integer) keyMapEntry.getValue(),
-                        Spanned.SPAN_INCLUSIVE_INCLUSIVE);
-            }
+        textEditorActivity.nodes.addAll(mapEntries);
+        if (search != null) textEditorActivity.setSearch(search, lineIndex);
+
+        for (MapEntry mapEntry : mapEntries) {
+            ImmutableEntry<Integer, Integer> keyMapEntry = mapEntry.getKey();
+            textEditorActivity.highlight(keyMapEntry.getKey(), keyMapEntry.getValue(), false);
         }
 
         if (mapEntries.size()!=0) {
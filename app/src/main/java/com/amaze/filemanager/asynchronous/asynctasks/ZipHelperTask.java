@@ -5,13 +5,13 @@ import android.net.Uri;
 import android.os.AsyncTask;
 
 import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex;
 import com.amaze.filemanager.utils.OnAsyncTaskFinished;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -51,74 +51,49 @@ public class ZipHelperTask extends AsyncTask<Void, Void, ArrayList<CompressedObj
         }
 
         try {
-            ArrayList<CompressedObjectParcelable> wholelist = new ArrayList<>();
-            if (new File(fileLocation.getPath()).canRead()) {
-                ZipFile zipfile = new ZipFile(fileLocation.getPath());
+            elements.addAll(getIndex().list(relativeDirectory));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return elements;
+    }
+
+    /**
+     * Lists the entries of the zip once, the index is cached until the zip is modified
+     */
+    private ArchiveIndex getIndex() throws IOException {
+        File file = new File(fileLocation.getPath());
+        long lastModified = file.canRead() ? file.lastModified() : 0;
+
+        ArchiveIndex index = ArchiveIndex.get(fileLocation.toString(), lastModified);
+        if (index != null) return index;
+
+        ArchiveIndex.Builder builder = new ArchiveIndex.Builder();
+        if (file.canRead()) {
+            ZipFile zipfile = new ZipFile(file);
+            try {
                 for (Enumeration e = zipfile.entries(); e.hasMoreElements(); ) {
                     ZipEntry entry = (ZipEntry) e.nextElement();
-                    wholelist.add(new CompressedObjectParcelable(entry.getName(), entry.getTime(), entry.getSize(), entry.isDirectory()));
-                }
-            } else {
-                ZipInputStream zipfile1 = new ZipInputStream(context.get().getContentResolver().openInputStream(fileLocation));
-                for (ZipEntry entry = zipfile1.getNextEntry(); entry != null; entry = zipfile1.getNextEntry()) {
-                    wholelist.add(new CompressedObjectParcelable(entry.getName(), entry.getTime(), entry.getSize(), entry.isDirectory()));
+                    builder.add(entry.getName(), entry.getTime(), entry.getSize(), entry.isDirectory());
                 }
+            } finally {
+                zipfile.close();
             }
-
-            ArrayList<String> strings = new ArrayList<>();
-
-            for (CompressedObjectParcelable entry : wholelist) {
-                File file = new File(entry.name);
-                if (relativeDirectory == null || relativeDirectory.trim().length() == 0) {
-                    String y = entry.name;
-                    if (y.startsWith("/"))
-                        y = y.substring(1, y.length());
-                    if (file.getParent() == null || file.getParent().length() == 0 || file.getParent().equals("/")) {
-                        if (!strings.contains(y)) {
-                            elements.add(new CompressedObjectParcelable(y, entry.date, entry.size, entry.directory));
-                            strings.add(y);
-                        }
-                    } else {
-                        String path = y.substring(0, y.indexOf("/") + 1);
-                        if (!strings.contains(path)) {
-                            CompressedObjectParcelable zipObj = new CompressedObjectParcelable(path, entry.date, entry.size, true);
-                            strings.add(path);
-                            elements.add(zipObj);
-                        }
-                    }
-                } else {
-                    String y = entry.name;
-                    if (entry.name.startsWith("/"))
-                        y = y.substring(1, y.length());
-
-                    if (file.getParent() != null && (file.getParent().equals(relativeDirectory) || file.getParent().equals("/" + relativeDirectory))) {
-                        if (!strings.contains(y)) {
-                            elements.add(new CompressedObjectParcelable(y, entry.date, entry.size, entry.directory));
-                            strings.add(y);
-                        }
-                    } else {
-                        if (y.startsWith(relativeDirectory + "/") && y.length() > relativeDirectory.length() + 1) {
-                            String path1 = y.substring(relativeDirectory.length() + 1, y.length());
-
-                            int index = relativeDirectory.length() + 1 + path1.indexOf("/");
-                            String path = y.substring(0, index + 1);
-                            if (!strings.contains(path)) {
-                                CompressedObjectParcelable zipObj = new CompressedObjectParcelable(y.substring(0, index + 1), entry.date, entry.size, true);
-                                strings.add(path);
-                                elements.add(zipObj);
-                            }
-                        }
-                    }
-
+        } else {
+            ZipInputStream zipfile1 = new ZipInputStream(context.get().getContentResolver().openInputStream(fileLocation));
+            try {
+                for (ZipEntry entry = zipfile1.getNextEntry(); entry != null; entry = zipfile1.getNextEntry()) {
+                    builder.add(entry.getName(), entry.getTime(), entry.getSize(), entry.isDirectory());
                 }
+            } finally {
+                zipfile1.close();
             }
-
-            Collections.sort(elements, new CompressedObjectParcelable.Sorter());
-        } catch (IOException e) {
-            e.printStackTrace();
         }
 
-        return elements;
+        index = builder.build();
+        ArchiveIndex.put(fileLocation.toString(), lastModified, index);
+        return index;
     }
 
     @Override
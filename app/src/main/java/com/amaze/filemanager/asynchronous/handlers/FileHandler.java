@@ -8,8 +8,11 @@ import android.view.View;
 
 import com.amaze.filemanager.adapters.RecyclerAdapter;
 import com.amaze.filemanager.filesystem.CustomFileObserver;
+import com.amaze.filemanager.filesystem.FileIndex;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.fragments.MainFragment;
+import com.amaze.filemanager.utils.files.FolderSizeCalculator;
+import com.amaze.filemanager.utils.files.ListingCache;
 import com.amaze.filemanager.utils.provider.UtilitiesProviderInterface;
 
 import java.io.File;
@@ -39,17 +42,23 @@ public class FileHandler extends Handler {
 
         String path = (String) msg.obj;
 
+        // the listing of the directory has changed, don't reuse it next time
+        ListingCache.getInstance().invalidate(main.getCurrentPath());
+        FolderSizeCalculator.invalidate(main.getCurrentPath());
+
         switch (msg.what) {
             case CustomFileObserver.GOBACK:
                 main.goBack();
                 break;
             case CustomFileObserver.NEW_ITEM:
+                FileIndex.getInstance(main.getContext()).onFileCreated(main.getCurrentPath() + "/" + path);
                 HybridFile fileCreated = new HybridFile(main.openMode,
                         main.getCurrentPath() + "/" + path);
                 main.getElementsList().add(fileCreated.generateLayoutElement(main,
                         utilsProvider));
                 break;
             case CustomFileObserver.DELETED_ITEM:
+                FileIndex.getInstance(main.getContext()).onFileDeleted(main.getCurrentPath() + "/" + path);
                 for (int i = 0; i < main.getElementsList().size(); i++) {
                     File currentFile = new File(main.getElementsList().get(i).desc);
 
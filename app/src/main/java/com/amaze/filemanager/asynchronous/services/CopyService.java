@@ -39,7 +39,9 @@ import com.amaze.filemanager.R;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.activities.superclasses.ThemedActivity;
 import com.amaze.filemanager.asynchronous.asynctasks.DeleteTask;
+import com.amaze.filemanager.database.CopyJournalHandler;
 import com.amaze.filemanager.database.CryptHandler;
+import com.amaze.filemanager.database.models.CopyJob;
 import com.amaze.filemanager.database.models.EncryptedEntry;
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
@@ -53,15 +55,21 @@ import com.amaze.filemanager.utils.files.CryptUtil;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.CopyDataParcelable;
 import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.OperationScheduler;
 import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.RootUtils;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.files.CopyEngine;
 import com.amaze.filemanager.utils.files.FileUtils;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
 
 import java.io.IOException;
 import java.util.ArrayList;
 
+/**
+ * Runs the copies and moves, several at once when the scheduler starts them side by side, see
+ * {@link OperationScheduler}: every one has it's own progress and notification. The process
+ * viewer gets the progress of all of them, and cancelling there cancels them all.
+ */
 public class CopyService extends Service {
 
     public static final String TAG_COPY_TARGET = "COPY_DIRECTORY";
@@ -75,34 +83,53 @@ public class CopyService extends Service {
     // list of data packages, to initiate chart in process viewer fragment
     private ArrayList<CopyDataParcelable> dataPackages = new ArrayList<>();
     private NotificationManager mNotifyManager;
-    private NotificationCompat.Builder mBuilder;
     private Context c;
 
     private ProgressListener progressListener;
     private final IBinder mBinder = new LocalBinder();
-    private ProgressHandler progressHandler;
-    private ServiceWatcherUtil watcherUtil;
 
-    private long totalSize = 0L;
-    private int totalSourceFiles = 0;
-    private int sourceProgress = 0;
+    // copies running, only used on the main thread
+    private final ArrayList<DoInBackground> runningCopies = new ArrayList<>();
+    private int lastStartId;
 
     @Override
     public void onCreate() {
         super.onCreate();
         c = getApplicationContext();
+        mNotifyManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         registerReceiver(receiver3, new IntentFilter(TAG_BROADCAST_COPY_CANCEL));
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, final int startId) {
+        if (intent == null) {
+            // restarted by the system after being killed: the interrupted jobs are scheduled again,
+            // coming back here like any other copy so that the scheduler knows they're running
+            OperationScheduler scheduler = OperationScheduler.getInstance(this);
+            scheduler.onOperationFinished(CopyService.class);
+
+            for (CopyJob job : new CopyJournalHandler(c).getUnfinishedJobs()) {
+                Intent resumeIntent = new Intent(this, CopyService.class);
+                resumeIntent.putParcelableArrayListExtra(TAG_COPY_SOURCES, job.getSources());
+                resumeIntent.putExtra(TAG_COPY_TARGET, job.getTargetPath());
+                resumeIntent.putExtra(TAG_COPY_OPEN_MODE, job.getOpenMode().ordinal());
+                resumeIntent.putExtra(TAG_COPY_MOVE, job.isMove());
+                scheduler.schedule(resumeIntent, OperationScheduler.PRIORITY_HIGH);
+            }
+
+            // doesn't stop the service if the scheduler already started it again
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+
+        lastStartId = startId;
+
         Bundle b = new Bundle();
         ArrayList<HybridFileParcelable> files = intent.getParcelableArrayListExtra(TAG_COPY_SOURCES);
         String targetPath = intent.getStringExtra(TAG_COPY_TARGET);
         int mode = intent.getIntExtra(TAG_COPY_OPEN_MODE, OpenMode.UNKNOWN.ordinal());
-        final boolean move = intent.getBooleanExtra(TAG_COPY_MOVE, false);
+        boolean move = intent.getBooleanExtra(TAG_COPY_MOVE, false);
 
-        mNotifyManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         b.putInt(TAG_COPY_START_ID, startId);
 
         Intent notificationIntent = new Intent(this, MainActivity.class);
@@ -111,7 +138,7 @@ public class CopyService extends Service {
         notificationIntent.putExtra(MainActivity.KEY_INTENT_PROCESS_VIEWER, true);
         PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, notificationIntent, 0);
 
-        mBuilder = new NotificationCompat.Builder(c, NotificationConstants.CHANNEL_NORMAL_ID)
+        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(c, NotificationConstants.CHANNEL_NORMAL_ID)
                 .setContentIntent(pendingIntent)
                 .setContentTitle(getResources().getString(R.string.copying))
                 .setSmallIcon(R.drawable.ic_content_copy_white_36dp);
@@ -126,7 +153,10 @@ public class CopyService extends Service {
         b.putParcelableArrayList(TAG_COPY_SOURCES, files);
 
         //going async
-        new DoInBackground().execute(b);
+        DoInBackground copyTask = new DoInBackground(mBuilder, startId,
+                intent.getIntExtra(OperationScheduler.KEY_OPERATION_ID, -1));
+        runningCopies.add(copyTask);
+        copyTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, b);
 
         // If we get killed, after returning from here, restart
         return START_STICKY;
@@ -134,6 +164,7 @@ public class CopyService extends Service {
 
     public void onDestroy() {
         this.unregisterReceiver(receiver3);
+        OperationScheduler.getInstance(this).onOperationFinished(CopyService.class);
     }
 
     private class DoInBackground extends AsyncTask<Bundle, Void, Integer> {
@@ -142,6 +173,25 @@ public class CopyService extends Service {
         Copy copy;
         private String targetPath;
         private OpenMode openMode;
+        private CopyJournalHandler journal;
+        private long jobId;
+
+        private final NotificationCompat.Builder mBuilder;
+        private final int notificationId;
+        private final int operationId;
+        private volatile ProgressHandler progressHandler;
+        private volatile boolean cancelled = false;
+        private ServiceWatcherUtil watcherUtil;
+
+        private long totalSize = 0L;
+        private int totalSourceFiles = 0;
+        private int sourceProgress = 0;
+
+        DoInBackground(NotificationCompat.Builder mBuilder, int startId, int operationId) {
+            this.mBuilder = mBuilder;
+            this.notificationId = Integer.parseInt("456" + startId);
+            this.operationId = operationId;
+        }
 
         protected Integer doInBackground(Bundle... p1) {
 
@@ -153,6 +203,7 @@ public class CopyService extends Service {
             totalSize = FileUtils.getTotalBytes(sourceFiles, c);
             totalSourceFiles = sourceFiles.size();
             progressHandler = new ProgressHandler(totalSourceFiles, totalSize);
+            if (cancelled) progressHandler.setCancelled(true);
 
             progressHandler.setProgressListener((fileName, sourceFiles1, sourceProgress1, totalSize1, writtenSize, speed) -> {
                 publishResults(id, fileName, sourceFiles1, sourceProgress1, totalSize1, writtenSize, speed, false, move);
@@ -167,9 +218,16 @@ public class CopyService extends Service {
             targetPath = p1[0].getString(TAG_COPY_TARGET);
             move = p1[0].getBoolean(TAG_COPY_MOVE);
             openMode = OpenMode.getOpenMode(p1[0].getInt(TAG_COPY_OPEN_MODE));
+            journal = new CopyJournalHandler(c);
+            CopyJob job = journal.findJob(sourceFiles, targetPath, move);
+            jobId = job != null ? job.getId() : journal.addJob(sourceFiles, targetPath, openMode, move);
+
             copy = new Copy();
             copy.execute(sourceFiles, targetPath, move, openMode);
 
+            // only a job interrupted by the system is kept to be resumed
+            journal.removeJob(jobId);
+
             if (copy.failedFOps.size() == 0) {
 
                 // adding/updating new encrypted db entry if any encrypted file was copied/moved
@@ -187,12 +245,32 @@ public class CopyService extends Service {
             //  publishResults(b, "", totalSourceFiles, totalSourceFiles, totalSize, totalSize, 0, true, move);
             // stopping watcher if not yet finished
             watcherUtil.stopWatch();
+
+            runningCopies.remove(this);
+            OperationScheduler.getInstance(c).onOperationFinished(operationId);
+            if (!runningCopies.isEmpty()) {
+                // the service stays in the foreground for the copies still running
+                DoInBackground running = runningCopies.get(runningCopies.size() - 1);
+                startForeground(running.notificationId, running.mBuilder.build());
+            }
+            publishCompletedResult(notificationId);
             generateNotification(copy.failedFOps, move);
 
             Intent intent = new Intent(MainActivity.KEY_INTENT_LOAD_LIST);
             intent.putExtra(MainActivity.KEY_INTENT_LOAD_LIST_FILE, targetPath);
             sendBroadcast(intent);
-            stopSelf();
+
+            // a copy started since is the last one to stop the service
+            if (runningCopies.isEmpty()) stopSelf(lastStartId);
+        }
+
+        /**
+         * Cancels the copy, even if it didn't start yet
+         */
+        void cancel() {
+            cancelled = true;
+            ProgressHandler handler = progressHandler;
+            if (handler != null) handler.setCancelled(true);
         }
 
         /**
@@ -242,10 +320,108 @@ public class CopyService extends Service {
             }
         }
 
+        /**
+         * Displays a notification, sends intent and cancels progress if there were some failures
+         * in copy progress
+         *
+         * @param failedOps
+         * @param move
+         */
+        void generateNotification(ArrayList<HybridFile> failedOps, boolean move) {
+
+            if(failedOps.size()==0) return;
+
+            String error = move? c.getString(R.string.moved):c.getString(R.string.copied);
+
+            NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(c, NotificationConstants.CHANNEL_NORMAL_ID)
+                .setContentTitle(c.getString(R.string.operationunsuccesful))
+                .setContentText(c.getString(R.string.copy_error, error))
+                .setAutoCancel(true);
+
+            progressHandler.setCancelled(true);
+
+            Intent intent= new Intent(CopyService.this, MainActivity.class);
+            intent.putExtra(MainActivity.TAG_INTENT_FILTER_FAILED_OPS, failedOps);
+            intent.putExtra("move", move);
+
+            PendingIntent pIntent = PendingIntent.getActivity(CopyService.this, 101, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+            mBuilder.setContentIntent(pIntent);
+            mBuilder.setSmallIcon(R.drawable.ic_content_copy_white_36dp);
+
+            mNotifyManager.notify(741, mBuilder.build());
+
+            intent=new Intent(MainActivity.TAG_INTENT_FILTER_GENERAL);
+            intent.putExtra(MainActivity.TAG_INTENT_FILTER_FAILED_OPS, failedOps);
+            intent.putExtra(TAG_COPY_MOVE, move);
+
+            sendBroadcast(intent);
+        }
+
+        /**
+         * Publish the results of the progress to notification and {@link CopyDataParcelable}
+         * and eventually to {@link ProcessViewerFragment}
+         *
+         * @param id             id of current service
+         * @param fileName       file name of current file being copied
+         * @param sourceFiles    total number of files selected by user for copy
+         * @param sourceProgress files been copied out of them
+         * @param totalSize      total size of selected items to copy
+         * @param writtenSize    bytes successfully copied
+         * @param speed          number of bytes being copied per sec
+         * @param isComplete     whether operation completed or ongoing (not supported at the moment)
+         * @param move           if the files are to be moved
+         */
+        private void publishResults(int id, String fileName, int sourceFiles, int sourceProgress,
+                                    long totalSize, long writtenSize, int speed, boolean isComplete,
+                                    boolean move) {
+            if (!progressHandler.getCancelled()) {
+
+                //notification
+                float progressPercent = ((float) writtenSize / totalSize) * 100;
+                mBuilder.setProgress(100, Math.round(progressPercent), false);
+                mBuilder.setOngoing(true);
+                int title = R.string.copying;
+                if (move) title = R.string.moving;
+                mBuilder.setContentTitle(c.getResources().getString(title));
+                mBuilder.setContentText(fileName + " " + Formatter.formatFileSize(c, writtenSize) + "/" +
+                        Formatter.formatFileSize(c, totalSize));
+                int id1 = Integer.parseInt("456" + id);
+                mNotifyManager.notify(id1, mBuilder.build());
+                if (writtenSize == totalSize || totalSize == 0) {
+                    if (move) {
+
+                        //mBuilder.setContentTitle(getString(R.string.move_complete));
+                        // set progress to indeterminate as deletion might still be going on from source
+                        mBuilder.setProgress(0, 0, true);
+                    } else {
+
+                        mBuilder.setContentTitle(getString(R.string.copy_complete));
+                        mBuilder.setProgress(0, 0, false);
+                    }
+                    mBuilder.setContentText("");
+                    mBuilder.setOngoing(false);
+                    mBuilder.setAutoCancel(true);
+                    mNotifyManager.notify(id1, mBuilder.build());
+                    publishCompletedResult(id1);
+                }
+
+                //for processviewer
+                CopyDataParcelable intent = new CopyDataParcelable(fileName, sourceFiles, sourceProgress,
+                        totalSize, writtenSize, speed, move, isComplete);
+                putDataPackage(intent);
+                if (progressListener != null) {
+                    progressListener.onUpdate(intent);
+                    if (isComplete) progressListener.refresh();
+                }
+            } else publishCompletedResult(Integer.parseInt("456" + id));
+        }
+
         class Copy {
 
             ArrayList<HybridFile> failedFOps;
             ArrayList<HybridFileParcelable> toDelete;
+            CopyEngine copyEngine;
 
             Copy() {
                 failedFOps = new ArrayList<>();
@@ -267,6 +443,9 @@ public class CopyService extends Service {
                 watcherUtil.watch();
 
                 if (FileUtil.checkFolder((targetPath), c) == 1) {
+                    copyEngine = new CopyEngine(c, CopyEngine.Config.forModes(c,
+                            sourceFiles.get(0).getMode(), mode), progressHandler, journal, jobId);
+
                     for (int i = 0; i < sourceFiles.size(); i++) {
                         sourceProgress = i;
                         HybridFileParcelable f1 = (sourceFiles.get(i));
@@ -297,7 +476,7 @@ public class CopyService extends Service {
                                     continue;
                                 }
                                 progressHandler.setSourceFilesProcessed(++sourceProgress);
-                                copyFiles((f1), hFile, progressHandler);
+                                copyFiles(f1, hFile, f1, progressHandler);
                             } else {
                                 break;
                             }
@@ -312,6 +491,12 @@ public class CopyService extends Service {
                         }
                     }
 
+                    // wait for the workers to finish with the queued files
+                    copyEngine.awaitCompletion();
+                    copyEngine.shutdown();
+                    for (HybridFileParcelable failedFile : copyEngine.getFailedFiles()) {
+                        if (!failedFOps.contains(failedFile)) failedFOps.add(failedFile);
+                    }
                 } else if (ThemedActivity.rootMode) {
                     for (int i = 0; i < sourceFiles.size(); i++) {
                         if (!progressHandler.getCancelled()) {
@@ -351,7 +536,7 @@ public class CopyService extends Service {
                 try {
                     if (!move) RootUtils.copy(sourceFile.getPath(), targetFile.getPath());
                     else if (move) RootUtils.move(sourceFile.getPath(), targetFile.getPath());
-                    ServiceWatcherUtil.POSITION += sourceFile.getSize();
+                    progressHandler.addWrittenLength(sourceFile.getSize());
                 } catch (ShellNotRunningException e) {
                     failedFOps.add(sourceFile);
                     e.printStackTrace();
@@ -359,7 +544,15 @@ public class CopyService extends Service {
                 FileUtils.scanFile(targetFile.getPath(), c);
             }
 
+            /**
+             * Walks the source tree, creating directories on this thread and queuing the files
+             * in {@link #copyEngine}
+             *
+             * @param topLevelFile the file selected by the user which contains the source file,
+             *                     reported as failed if any of it's children fails
+             */
             private void copyFiles(final HybridFileParcelable sourceFile, final HybridFile targetFile,
+                                   final HybridFileParcelable topLevelFile,
                                    final ProgressHandler progressHandler) throws IOException {
 
                 if (sourceFile.isDirectory()) {
@@ -384,7 +577,7 @@ public class CopyService extends Service {
                             HybridFile destFile = new HybridFile(targetFile.getMode(), targetFile.getPath(),
                                     file.getName(), file.isDirectory());
                             try {
-                                copyFiles(file, destFile, progressHandler);
+                                copyFiles(file, destFile, topLevelFile, progressHandler);
                             } catch (IOException e) {
                                 throw new IllegalStateException(e);//throw unchecked exception, no throws needed
                             }
@@ -397,114 +590,12 @@ public class CopyService extends Service {
                         return;
                     }
 
-                    GenericCopyUtil copyUtil = new GenericCopyUtil(c);
-
-                    progressHandler.setFileName(sourceFile.getName());
-                    copyUtil.copy(sourceFile, targetFile);
+                    copyEngine.submit(sourceFile, targetFile, topLevelFile);
                 }
             }
         }
     }
 
-    /**
-     * Displays a notification, sends intent and cancels progress if there were some failures
-     * in copy progress
-     *
-     * @param failedOps
-     * @param move
-     */
-    void generateNotification(ArrayList<HybridFile> failedOps, boolean move) {
-
-        mNotifyManager.cancelAll();
-
-        if(failedOps.size()==0) return;
-
-        String error = move? c.getString(R.string.moved):c.getString(R.string.copied);
-
-        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(c, NotificationConstants.CHANNEL_NORMAL_ID)
-            .setContentTitle(c.getString(R.string.operationunsuccesful))
-            .setContentText(c.getString(R.string.copy_error, error))
-            .setAutoCancel(true);
-
-        progressHandler.setCancelled(true);
-
-        Intent intent= new Intent(this, MainActivity.class);
-        intent.putExtra(MainActivity.TAG_INTENT_FILTER_FAILED_OPS, failedOps);
-        intent.putExtra("move", move);
-
-        PendingIntent pIntent = PendingIntent.getActivity(this, 101, intent, PendingIntent.FLAG_UPDATE_CURRENT);
-
-        mBuilder.setContentIntent(pIntent);
-        mBuilder.setSmallIcon(R.drawable.ic_content_copy_white_36dp);
-
-        mNotifyManager.notify(741, mBuilder.build());
-
-        intent=new Intent(MainActivity.TAG_INTENT_FILTER_GENERAL);
-        intent.putExtra(MainActivity.TAG_INTENT_FILTER_FAILED_OPS, failedOps);
-        intent.putExtra(TAG_COPY_MOVE, move);
-
-        sendBroadcast(intent);
-    }
-
-    /**
-     * Publish the results of the progress to notification and {@link CopyDataParcelable}
-     * and eventually to {@link ProcessViewerFragment}
-     *
-     * @param id             id of current service
-     * @param fileName       file name of current file being copied
-     * @param sourceFiles    total number of files selected by user for copy
-     * @param sourceProgress files been copied out of them
-     * @param totalSize      total size of selected items to copy
-     * @param writtenSize    bytes successfully copied
-     * @param speed          number of bytes being copied per sec
-     * @param isComplete     whether operation completed or ongoing (not supported at the moment)
-     * @param move           if the files are to be moved
-     */
-    private void publishResults(int id, String fileName, int sourceFiles, int sourceProgress,
-                                long totalSize, long writtenSize, int speed, boolean isComplete,
-                                boolean move) {
-        if (!progressHandler.getCancelled()) {
-
-            //notification
-            float progressPercent = ((float) writtenSize / totalSize) * 100;
-            mBuilder.setProgress(100, Math.round(progressPercent), false);
-            mBuilder.setOngoing(true);
-            int title = R.string.copying;
-            if (move) title = R.string.moving;
-            mBuilder.setContentTitle(c.getResources().getString(title));
-            mBuilder.setContentText(fileName + " " + Formatter.formatFileSize(c, writtenSize) + "/" +
-                    Formatter.formatFileSize(c, totalSize));
-            int id1 = Integer.parseInt("456" + id);
-            mNotifyManager.notify(id1, mBuilder.build());
-            if (writtenSize == totalSize || totalSize == 0) {
-                if (move) {
-
-                    //mBuilder.setContentTitle(getString(R.string.move_complete));
-                    // set progress to indeterminate as deletion might still be going on from source
-                    mBuilder.setProgress(0, 0, true);
-                } else {
-
-                    mBuilder.setContentTitle(getString(R.string.copy_complete));
-                    mBuilder.setProgress(0, 0, false);
-                }
-                mBuilder.setContentText("");
-                mBuilder.setOngoing(false);
-                mBuilder.setAutoCancel(true);
-                mNotifyManager.notify(id1, mBuilder.build());
-                publishCompletedResult(id1);
-            }
-
-            //for processviewer
-            CopyDataParcelable intent = new CopyDataParcelable(fileName, sourceFiles, sourceProgress,
-                    totalSize, writtenSize, speed, move, isComplete);
-            putDataPackage(intent);
-            if (progressListener != null) {
-                progressListener.onUpdate(intent);
-                if (isComplete) progressListener.refresh();
-            }
-        } else publishCompletedResult(Integer.parseInt("456" + id));
-    }
-
     public void publishCompletedResult(int id1) {
         try {
             mNotifyManager.cancel(id1);
@@ -560,7 +651,7 @@ public class CopyService extends Service {
         @Override
         public void onReceive(Context context, Intent intent) {
             //cancel operation
-            progressHandler.setCancelled(true);
+            for (DoInBackground copyTask : runningCopies) copyTask.cancel();
         }
     };
 
@@ -591,7 +682,7 @@ public class CopyService extends Service {
      * Returns the {@link #dataPackages} list which contains
      * data to be transferred to {@link ProcessViewerFragment}
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by the watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @return
@@ -607,7 +698,7 @@ public class CopyService extends Service {
     /**
      * Puts a {@link CopyDataParcelable} into a list
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by the watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @param dataPackage
@@ -23,6 +23,7 @@ import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.files.CryptUtil;
 import com.amaze.filemanager.utils.CopyDataParcelable;
 import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.OperationScheduler;
 import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
 import com.amaze.filemanager.utils.files.EncryptDecryptUtils;
@@ -73,6 +74,12 @@ public class EncryptService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            // restarted by the system after being killed, the operation is lost with it's intent
+            OperationScheduler.getInstance(this).onOperationFinished(EncryptService.class);
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
 
         baseFile = intent.getParcelableExtra(TAG_SOURCE);
         cryptEnum = CryptEnum.values()[intent.getIntExtra(TAG_CRYPT_MODE, CryptEnum.ENCRYPT.ordinal())];
@@ -104,7 +111,7 @@ public class EncryptService extends Service {
 
         startForeground(ID_NOTIFICATION, notificationBuilder.build());
 
-        new BackgroundTask().execute();
+        new BackgroundTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
 
         return START_STICKY;
@@ -237,6 +244,7 @@ public class EncryptService extends Service {
     public void onDestroy() {
         super.onDestroy();
         this.unregisterReceiver(cancelReceiver);
+        OperationScheduler.getInstance(this).onOperationFinished(EncryptService.class);
     }
 
     /**
@@ -311,7 +319,7 @@ public class EncryptService extends Service {
      * Returns the {@link #dataPackages} list which contains
      * data to be transferred to {@link ProcessViewerFragment}
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by the watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      * @return
      */
@@ -326,7 +334,7 @@ public class EncryptService extends Service {
     /**
      * Puts a {@link CopyDataParcelable} into a list
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by the watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      * @param dataPackage
      */
@@ -37,28 +37,44 @@ import android.util.Log;
 import com.amaze.filemanager.R;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.filesystem.FileUtil;
+import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
 import com.amaze.filemanager.fragments.ProcessViewerFragment;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.CopyDataParcelable;
+import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.OperationScheduler;
 import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
 import com.amaze.filemanager.utils.application.AppConfig;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
+import com.amaze.filemanager.utils.files.BufferPool;
+import com.amaze.filemanager.utils.files.BufferStrategy;
+import com.amaze.filemanager.utils.files.ProgressInputStream;
 import com.github.junrar.Archive;
 import com.github.junrar.exception.RarException;
 import com.github.junrar.rarfile.FileHeader;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -86,6 +102,13 @@ public class ExtractService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, final int startId) {
+        if (intent == null) {
+            // restarted by the system after being killed, the operation is lost with it's intent
+            OperationScheduler.getInstance(this).onOperationFinished(ExtractService.class);
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+
         String file = intent.getStringExtra(KEY_PATH_ZIP);
         String extractPath = intent.getStringExtra(KEY_PATH_EXTRACT);
         String[] entries = intent.getStringArrayExtra(KEY_ENTRIES_ZIP);
@@ -112,7 +135,7 @@ public class ExtractService extends Service {
         NotificationConstants.setMetadata(getApplicationContext(), mBuilder);
         startForeground(Integer.parseInt("123" + startId), mBuilder.build());
 
-        new DoWork(this, progressHandler, file, extractPath, entries).execute();
+        new DoWork(this, progressHandler, file, extractPath, entries).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         return START_STICKY;
     }
 
@@ -197,6 +220,11 @@ public class ExtractService extends Service {
         private long totalBytes = 0L;
         private ServiceWatcherUtil watcherUtil;
 
+        private static final int BUFFER_SIZE = BufferStrategy.forModes(OpenMode.FILE, OpenMode.FILE).getBufferSize();
+
+        // zip entries inflated at the same time
+        private static final int EXTRACT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
 
         private DoWork(ExtractService extractService, ProgressHandler progressHandler, String cpath, String epath,
                        String[] entries) {
@@ -223,7 +251,7 @@ public class ExtractService extends Service {
             try {
                 String path = f.getPath().toLowerCase();
                 boolean isZip = path.endsWith(".zip") || path.endsWith(".jar") || path.endsWith(".apk");
-                boolean isTar = path.endsWith(".tar") || path.endsWith(".tar.gz");
+                boolean isTar = CompressedHelper.isTar(path);
                 boolean isRar = path.endsWith(".rar");
 
                 if (entriesToExtract != null && entriesToExtract.length != 0) {
@@ -269,17 +297,19 @@ public class ExtractService extends Service {
                     zipFile.getInputStream(entry));
             BufferedOutputStream outputStream = new BufferedOutputStream(
                     FileUtil.getOutputStream(outputFile, context, 0));
+            ByteBuffer buffer = BufferPool.acquireHeap(BUFFER_SIZE);
             try {
                 int len;
-                byte buf[] = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+                byte buf[] = buffer.array();
                 while ((len = inputStream.read(buf)) > 0) {
 
                     outputStream.write(buf, 0, len);
-                    ServiceWatcherUtil.POSITION += len;
+                    progressHandler.addWrittenLength(len);
                 }
             } finally {
                 outputStream.close();
                 inputStream.close();
+                BufferPool.release(buffer);
             }
         }
 
@@ -300,17 +330,19 @@ public class ExtractService extends Service {
                     zipFile.getInputStream(entry));
             BufferedOutputStream outputStream = new BufferedOutputStream(
                     FileUtil.getOutputStream(outputFile, context, entry.getFullUnpackSize()));
+            ByteBuffer buffer = BufferPool.acquireHeap(BUFFER_SIZE);
             try {
                 int len;
-                byte buf[] = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+                byte buf[] = buffer.array();
                 while ((len = inputStream.read(buf)) > 0) {
 
                     outputStream.write(buf, 0, len);
-                    ServiceWatcherUtil.POSITION += len;
+                    progressHandler.addWrittenLength(len);
                 }
             } finally {
                 outputStream.close();
                 inputStream.close();
+                BufferPool.release(buffer);
             }
         }
 
@@ -328,16 +360,17 @@ public class ExtractService extends Service {
 
             BufferedOutputStream outputStream = new BufferedOutputStream(
                     FileUtil.getOutputStream(outputFile, context, entry.getRealSize()));
+            ByteBuffer buffer = BufferPool.acquireHeap(BUFFER_SIZE);
             try {
                 int len;
-                byte buf[] = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+                byte buf[] = buffer.array();
                 while ((len = zipFileStream.read(buf)) > 0) {
 
                     outputStream.write(buf, 0, len);
-                    ServiceWatcherUtil.POSITION += len;
                 }
             } finally {
                 outputStream.close();
+                BufferPool.release(buffer);
             }
         }
 
@@ -382,14 +415,10 @@ public class ExtractService extends Service {
             watcherUtil = new ServiceWatcherUtil(progressHandler, totalBytes);
             watcherUtil.watch();
 
-            int i = 0;
-            for (ZipEntry entry : entry1) {
-                if (!progressHandler.getCancelled()) {
-
-                    progressHandler.setFileName(entry.getName());
-                    unzipEntry(context, zipfile, entry, destinationPath);
-                    progressHandler.setSourceFilesProcessed(++i);
-                }
+            try {
+                unzipEntries(context, archive, zipfile, entry1, destinationPath, true);
+            } finally {
+                zipfile.close();
             }
         }
 
@@ -416,63 +445,154 @@ public class ExtractService extends Service {
             watcherUtil = new ServiceWatcherUtil(progressHandler, totalBytes);
             watcherUtil.watch();
 
-            for (ZipEntry entry : arrayList) {
-                if (!progressHandler.getCancelled()) {
-
-                    progressHandler.setFileName(entry.getName());
-                    unzipEntry(context, zipfile, entry, destinationPath);
-                }
+            try {
+                unzipEntries(context, archive, zipfile, arrayList, destinationPath, false);
+            } finally {
+                zipfile.close();
             }
             progressHandler.setSourceFilesProcessed(1);
         }
 
-        private void extractTar(@NonNull final Context context, File archive, String destinationPath) throws IOException {
-            ArrayList<TarArchiveEntry> archiveEntries = new ArrayList<>();
+        /**
+         * Extracts the entries of a zip file, the files on several threads at once: entries are
+         * compressed independently, each thread reads them through a {@link ZipFile} of it's own.
+         * Every directory is created before any file is extracted.
+         *
+         * @param zipFile       the archive, opened, used when extracting on a single thread
+         * @param countEntries  whether each entry extracted counts as a source file processed
+         */
+        private void unzipEntries(@NonNull final Context context, final File archive, ZipFile zipFile,
+                                  ArrayList<ZipEntry> entries, final String outputDir,
+                                  final boolean countEntries) throws IOException {
+            final ArrayList<ZipEntry> files = new ArrayList<>();
+            HashSet<String> directories = new HashSet<>();
+            for (ZipEntry entry : entries) {
+                if (entry.isDirectory()) {
+                    directories.add(entry.getName());
+                } else {
+                    files.add(entry);
+                    String parent = new File(entry.getName()).getParent();
+                    if (parent != null) directories.add(parent);
+                }
+            }
 
-            TarArchiveInputStream inputStream = createTarInputStream(archive);
+            for (String directory : directories) {
+                if (progressHandler.getCancelled()) return;
+                FileUtil.mkdir(new File(outputDir, directory), context);
+            }
+
+            // directories count as processed once they're all created
+            final AtomicInteger processed = new AtomicInteger(entries.size() - files.size());
+            if (countEntries) progressHandler.setSourceFilesProcessed(processed.get());
 
-            TarArchiveEntry tarArchiveEntry = inputStream.getNextTarEntry();
+            int workers = Math.min(EXTRACT_THREADS, files.size());
+            if (workers <= 1) {
+                for (ZipEntry entry : files) {
+                    if (progressHandler.getCancelled()) return;
 
-            while (tarArchiveEntry != null) {
-                archiveEntries.add(tarArchiveEntry);
-                tarArchiveEntry = inputStream.getNextTarEntry();
+                    progressHandler.setFileName(entry.getName());
+                    unzipEntry(context, zipFile, entry, outputDir);
+                    if (countEntries) progressHandler.setSourceFilesProcessed(processed.incrementAndGet());
+                }
+                return;
             }
 
-            for (TarArchiveEntry entry : archiveEntries) {
-                totalBytes += entry.getSize();
+            final AtomicInteger next = new AtomicInteger();
+            // stops the other threads once one failed
+            final AtomicBoolean failed = new AtomicBoolean();
+
+            ExecutorService executor = Executors.newFixedThreadPool(workers,
+                    runnable -> new Thread(runnable, "zip_extract"));
+            ArrayList<Future<Void>> futures = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    ZipFile workerZipFile = new ZipFile(archive);
+                    try {
+                        int index;
+                        while (!progressHandler.getCancelled() && !failed.get()
+                                && (index = next.getAndIncrement()) < files.size()) {
+                            ZipEntry entry = files.get(index);
+                            progressHandler.setFileName(entry.getName());
+                            unzipEntry(context, workerZipFile, entry, outputDir);
+                            if (countEntries) progressHandler.setSourceFilesProcessed(processed.incrementAndGet());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        workerZipFile.close();
+                    }
+                    return null;
+                }));
             }
+            executor.shutdown();
 
-            // setting total bytes calculated from zip entries
+            try {
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                progressHandler.setCancelled(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        /**
+         * Extracts the entries as they're read, the archive is decompressed once. The uncompressed
+         * size isn't known before the end, progress is measured in bytes of the archive read.
+         */
+        private void extractTar(@NonNull final Context context, File archive, String destinationPath) throws IOException {
+            totalBytes = archive.length();
+
+            // setting total bytes to the size of the archive, see ProgressInputStream
             progressHandler.setTotalSize(totalBytes);
 
-            setInitDataPackage(totalBytes, archiveEntries.get(0).getName(), 1);
+            setInitDataPackage(totalBytes, archive.getName(), 1);
 
             watcherUtil = new ServiceWatcherUtil(progressHandler, totalBytes);
             watcherUtil.watch();
 
-            inputStream = createTarInputStream(archive);
-
-            for (TarArchiveEntry entry : archiveEntries) {
-
-                if (!progressHandler.getCancelled()) {
-
-                    inputStream.getNextTarEntry();
+            TarArchiveInputStream inputStream = createTarInputStream(archive);
+            try {
+                TarArchiveEntry entry;
+                while (!progressHandler.getCancelled() && (entry = inputStream.getNextTarEntry()) != null) {
                     progressHandler.setFileName(entry.getName());
                     unzipTAREntry(context, inputStream, entry, destinationPath);
                 }
+            } finally {
+                // operating finished
+                inputStream.close();
             }
-            progressHandler.setSourceFilesProcessed(1);
 
-            // operating finished
-            inputStream.close();
+            if (!progressHandler.getCancelled()) {
+                // the padding at the end of the archive is never read
+                progressHandler.addWrittenLength(totalBytes - progressHandler.getWrittenSize());
+            }
+            progressHandler.setSourceFilesProcessed(1);
         }
 
         private TarArchiveInputStream createTarInputStream(File archive) throws IOException {
-            if (archive.getName().endsWith(".tar")) {
-                return new TarArchiveInputStream(new BufferedInputStream(new FileInputStream(archive)));
-            } else {
-                return new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(archive)));
+            String name = archive.getName().toLowerCase();
+            InputStream inputStream = new BufferedInputStream(
+                    new ProgressInputStream(new FileInputStream(archive), progressHandler), BUFFER_SIZE);
+
+            try {
+                if (name.endsWith(".tar.gz")) {
+                    inputStream = new GZIPInputStream(inputStream, BUFFER_SIZE);
+                } else if (name.endsWith(".tar.bz2")) {
+                    inputStream = new BZip2CompressorInputStream(inputStream, true);
+                } else if (name.endsWith(".tar.xz")) {
+                    inputStream = new XZCompressorInputStream(inputStream, true);
+                }
+            } catch (IOException e) {
+                inputStream.close();
+                throw e;
             }
+
+            return new TarArchiveInputStream(inputStream);
         }
 
         private void extractRar(@NonNull final Context context, File archive, String destinationPath) throws IOException, RarException {
@@ -581,6 +701,7 @@ public class ExtractService extends Service {
     @Override
     public void onDestroy() {
         unregisterReceiver(receiver1);
+        OperationScheduler.getInstance(this).onOperationFinished(ExtractService.class);
     }
 
     /**
@@ -605,7 +726,7 @@ public class ExtractService extends Service {
      * Returns the {@link #dataPackages} list which contains
      * data to be transferred to {@link ProcessViewerFragment}
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by the watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @return
@@ -621,7 +742,7 @@ public class ExtractService extends Service {
     /**
      * Puts a {@link CopyDataParcelable} into a list
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by the watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @param dataPackage
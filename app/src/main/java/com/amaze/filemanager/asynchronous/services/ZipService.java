@@ -41,11 +41,22 @@ import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.fragments.ProcessViewerFragment;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.CopyDataParcelable;
+import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.OperationScheduler;
 import com.amaze.filemanager.utils.PreferenceUtils;
 import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.files.BufferPool;
+import com.amaze.filemanager.utils.files.BufferStrategy;
 import com.amaze.filemanager.utils.files.FileUtils;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
+import com.amaze.filemanager.utils.files.ParallelZipCreator;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -53,9 +64,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 public class ZipService extends Service {
 
@@ -73,6 +84,16 @@ public class ZipService extends Service {
     public static final String KEY_COMPRESS_FILES = "zip_files";
     public static final String KEY_COMPRESS_BROADCAST_CANCEL = "zip_cancel";
 
+    // threads deflating the files of a zip
+    private static final int COMPRESS_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // levels of each compression, by index in R.array.compression_levels
+    private static final int[] ZIP_LEVELS = {ParallelZipCreator.STORED, Deflater.BEST_SPEED,
+            Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION};
+    private static final int[] GZIP_LEVELS = {Deflater.NO_COMPRESSION, Deflater.BEST_SPEED,
+            Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION};
+    private static final int[] XZ_PRESETS = {0, 1, 6, 9};
+
     @Override
     public void onCreate() {
         c = getApplicationContext();
@@ -81,6 +102,13 @@ public class ZipService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, final int startId) {
+        if (intent == null) {
+            // restarted by the system after being killed, the operation is lost with it's intent
+            OperationScheduler.getInstance(this).onOperationFinished(ZipService.class);
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+
         Bundle b = new Bundle();
         String path = intent.getStringExtra(KEY_COMPRESS_PATH);
 
@@ -116,7 +144,7 @@ public class ZipService extends Service {
         b.putInt("id", startId);
         b.putParcelableArrayList(KEY_COMPRESS_FILES, baseFiles);
         b.putString(KEY_COMPRESS_PATH, mZipPath);
-        new DoWork().execute(b);
+        new DoWork().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, b);
         // If we get killed, after returning from here, restart
         return START_STICKY;
     }
@@ -140,7 +168,7 @@ public class ZipService extends Service {
 
     public class DoWork extends AsyncTask<Bundle, Void, Integer> {
 
-        ZipOutputStream zos;
+        private final int bufferSize = BufferStrategy.forModes(OpenMode.FILE, OpenMode.FILE).getBufferSize();
 
         String zipPath;
         ServiceWatcherUtil watcherUtil;
@@ -189,60 +217,116 @@ public class ZipService extends Service {
 
         public void execute(ArrayList<File> baseFiles, String zipPath) {
 
-            OutputStream out;
             File zipDirectory = new File(zipPath);
             watcherUtil = new ServiceWatcherUtil(progressHandler, totalBytes);
             watcherUtil.watch();
 
-            try {
-                out = FileUtil.getOutputStream(zipDirectory, c, totalBytes);
-                zos = new ZipOutputStream(new BufferedOutputStream(out));
+            // every file to be compressed and it's name in the archive
+            ArrayList<File> files = new ArrayList<>();
+            ArrayList<String> names = new ArrayList<>();
+            for (File file : baseFiles) {
+                listFiles(file, "", files, names);
+            }
 
-                int fileProgress = 0;
-                for (File file : baseFiles) {
-                    if (!progressHandler.getCancelled()) {
+            String name = zipDirectory.getName().toLowerCase();
+            int level = Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(c)
+                    .getString(PreferenceUtils.KEY_COMPRESSION_LEVEL, "" + PreferenceUtils.DEFAULT_COMPRESSION_LEVEL));
 
-                        progressHandler.setFileName(file.getName());
-                        progressHandler.setSourceFilesProcessed(++fileProgress);
-                        compressFile(file, "");
-                    } else return;
+            try {
+                OutputStream out = new BufferedOutputStream(
+                        FileUtil.getOutputStream(zipDirectory, c, totalBytes), bufferSize);
+                if (name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tar.xz")) {
+                    compressTar(files, names, out, name, level);
+                } else {
+                    compressZip(files, names, out, level);
                 }
+                progressHandler.setSourceFilesProcessed(baseFiles.size());
             } catch (IOException e) {
                 e.printStackTrace();
-            } finally {
-                try {
-                    zos.flush();
-                    zos.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
             }
         }
 
-        private void compressFile(File file, String path) throws IOException, NullPointerException {
+        /**
+         * Deflates the files on all the cores, see {@link ParallelZipCreator}
+         */
+        private void compressZip(ArrayList<File> files, ArrayList<String> names, OutputStream out,
+                                 int level) throws IOException {
+            ZipArchiveOutputStream zos = new ZipArchiveOutputStream(out);
+            File tempDirectory = c.getExternalCacheDir() != null ? c.getExternalCacheDir() : c.getCacheDir();
+            ParallelZipCreator creator = new ParallelZipCreator(zos, COMPRESS_THREADS, ZIP_LEVELS[level],
+                    tempDirectory, progressHandler);
+            try {
+                for (int i = 0; i < files.size() && !progressHandler.getCancelled(); i++) {
+                    creator.addFile(files.get(i), names.get(i));
+                }
+                creator.writeQueued();
+            } finally {
+                creator.close();
+                zos.close();
+            }
+        }
 
-            if (!file.isDirectory()) {
-                if (progressHandler.getCancelled()) return;
+        /**
+         * Writes a tar, gzip or xz compressed according to the name, the compression
+         * being a single stream it runs on this thread
+         */
+        private void compressTar(ArrayList<File> files, ArrayList<String> names, OutputStream out,
+                                 String name, int level) throws IOException {
+            if (name.endsWith(".tar.gz")) {
+                GzipParameters parameters = new GzipParameters();
+                parameters.setCompressionLevel(GZIP_LEVELS[level]);
+                out = new GzipCompressorOutputStream(out, parameters);
+            } else if (name.endsWith(".tar.xz")) {
+                out = new XZCompressorOutputStream(out, XZ_PRESETS[level]);
+            }
 
-                byte[] buf = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-                int len;
-                BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
-                zos.putNextEntry(new ZipEntry(path + "/" + file.getName()));
-                while ((len = in.read(buf)) > 0) {
+            TarArchiveOutputStream tos = new TarArchiveOutputStream(out);
+            tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
 
-                    zos.write(buf, 0, len);
-                    ServiceWatcherUtil.POSITION += len;
+            ByteBuffer buffer = BufferPool.acquireHeap(bufferSize);
+            byte[] buf = buffer.array();
+            try {
+                for (int i = 0; i < files.size() && !progressHandler.getCancelled(); i++) {
+                    File file = files.get(i);
+                    progressHandler.setFileName(file.getName());
+
+                    BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+                    tos.putArchiveEntry(new TarArchiveEntry(file, names.get(i)));
+                    try {
+                        int len;
+                        while ((len = in.read(buf)) > 0) {
+                            tos.write(buf, 0, len);
+                            progressHandler.addWrittenLength(len);
+                        }
+                    } finally {
+                        in.close();
+                        tos.closeArchiveEntry();
+                    }
                 }
-                in.close();
-                return;
+            } finally {
+                BufferPool.release(buffer);
+                tos.close();
             }
-            if (file.list() == null) {
+        }
+
+        /**
+         * Adds the file, or the files in the directory, to the files to be compressed
+         *
+         * @param path path in the archive of the directory containing the file, "" for the root
+         */
+        private void listFiles(File file, String path, ArrayList<File> files, ArrayList<String> names) {
+            String name = path + file.getName();
+            if (!file.isDirectory()) {
+                files.add(file);
+                names.add(name);
                 return;
             }
-            for (File currentFile : file.listFiles()) {
-
-                compressFile(currentFile, path + File.separator + file.getName());
 
+            File[] children = file.listFiles();
+            if (children == null) return;
+            for (File child : children) {
+                listFiles(child, name + "/", files, names);
             }
         }
     }
@@ -312,13 +396,14 @@ public class ZipService extends Service {
     @Override
     public void onDestroy() {
         this.unregisterReceiver(receiver1);
+        OperationScheduler.getInstance(this).onOperationFinished(ZipService.class);
     }
 
     /**
      * Returns the {@link #dataPackages} list which contains
      * data to be transferred to {@link ProcessViewerFragment}
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by the watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @return
@@ -334,7 +419,7 @@ public class ZipService extends Service {
     /**
      * Puts a {@link CopyDataParcelable} into a list
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by the watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @param dataPackage
@@ -0,0 +1,303 @@
+package com.amaze.filemanager.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.amaze.filemanager.database.models.CopyJob;
+import com.amaze.filemanager.database.models.CopyJournalEntry;
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.OpenMode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Journal of the copy and move operations which haven't finished yet, so that an operation
+ * interrupted by the system (service killed, device rebooted) can be resumed where it stopped.
+ *
+ * For every job it keeps the files selected by the user, and for every target file
+ * whether it was completed or how many bytes at it's start are known to be copied.
+ *
+ * Try to use these functions from a background thread
+ */
+public class CopyJournalHandler extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "copy_journal.db";
+    private static final int DATABASE_VERSION = 2;  // increment only when making change in schema
+
+    private static final String TABLE_JOBS = "jobs";
+    private static final String TABLE_SOURCES = "sources";
+    private static final String TABLE_FILES = "files";
+
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_JOB_ID = "job_id";
+    private static final String COLUMN_PATH = "path";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_MODE = "mode";
+    private static final String COLUMN_MOVE = "move";
+    private static final String COLUMN_SIZE = "size";
+    private static final String COLUMN_DATE = "date";
+    private static final String COLUMN_DIRECTORY = "directory";
+    private static final String COLUMN_OFFSET = "offset";
+    private static final String COLUMN_COMPLETED = "completed";
+    private static final String COLUMN_CHUNK_SIZE = "chunk_size";
+    private static final String COLUMN_CHUNK_HASHES = "chunk_hashes";
+
+    public CopyJournalHandler(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        String queryJobs = "CREATE TABLE IF NOT EXISTS " + TABLE_JOBS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY,"
+                + COLUMN_PATH + " TEXT,"
+                + COLUMN_MODE + " INTEGER,"
+                + COLUMN_MOVE + " INTEGER"
+                + ")";
+        String querySources = "CREATE TABLE IF NOT EXISTS " + TABLE_SOURCES + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY,"
+                + COLUMN_JOB_ID + " INTEGER,"
+                + COLUMN_PATH + " TEXT,"
+                + COLUMN_NAME + " TEXT,"
+                + COLUMN_MODE + " INTEGER,"
+                + COLUMN_SIZE + " INTEGER,"
+                + COLUMN_DATE + " INTEGER,"
+                + COLUMN_DIRECTORY + " INTEGER"
+                + ")";
+        String queryFiles = "CREATE TABLE IF NOT EXISTS " + TABLE_FILES + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY,"
+                + COLUMN_JOB_ID + " INTEGER,"
+                + COLUMN_PATH + " TEXT,"
+                + COLUMN_SIZE + " INTEGER,"
+                + COLUMN_DATE + " INTEGER,"
+                + COLUMN_OFFSET + " INTEGER,"
+                + COLUMN_COMPLETED + " INTEGER,"
+                + COLUMN_CHUNK_SIZE + " INTEGER,"
+                + COLUMN_CHUNK_HASHES + " TEXT,"
+                + "UNIQUE (" + COLUMN_JOB_ID + ", " + COLUMN_PATH + ")"
+                + ")";
+
+        db.execSQL(queryJobs);
+        db.execSQL(querySources);
+        db.execSQL(queryFiles);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // the journal only matters until the jobs in it finish
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_JOBS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SOURCES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILES);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Records a new job
+     *
+     * @return id of the job
+     */
+    public long addJob(ArrayList<HybridFileParcelable> sources, String targetPath, OpenMode openMode,
+                       boolean move) {
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            ContentValues jobValues = new ContentValues();
+            jobValues.put(COLUMN_PATH, targetPath);
+            jobValues.put(COLUMN_MODE, openMode.ordinal());
+            jobValues.put(COLUMN_MOVE, move ? 1 : 0);
+            long jobId = database.insert(TABLE_JOBS, null, jobValues);
+
+            for (HybridFileParcelable source : sources) {
+                ContentValues sourceValues = new ContentValues();
+                sourceValues.put(COLUMN_JOB_ID, jobId);
+                sourceValues.put(COLUMN_PATH, source.getPath());
+                sourceValues.put(COLUMN_NAME, source.getName());
+                sourceValues.put(COLUMN_MODE, source.getMode().ordinal());
+                sourceValues.put(COLUMN_SIZE, source.getSize());
+                sourceValues.put(COLUMN_DATE, source.getDate());
+                sourceValues.put(COLUMN_DIRECTORY, source.isDirectory() ? 1 : 0);
+                database.insert(TABLE_SOURCES, null, sourceValues);
+            }
+
+            database.setTransactionSuccessful();
+            return jobId;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Finds an unfinished job copying exactly the same files to the same directory,
+     * eg. the user starting again an operation which was interrupted
+     *
+     * @return the job, or null if there is none
+     */
+    public CopyJob findJob(ArrayList<HybridFileParcelable> sources, String targetPath, boolean move) {
+        for (CopyJob job : getAllJobs()) {
+            if (job.isMove() != move || !job.getTargetPath().equals(targetPath)
+                    || job.getSources().size() != sources.size()) continue;
+
+            boolean same = true;
+            for (int i = 0; i < sources.size() && same; i++) {
+                same = sources.get(i).getPath().equals(job.getSources().get(i).getPath());
+            }
+            if (same) return job;
+        }
+        return null;
+    }
+
+    /**
+     * @return the unfinished jobs, oldest first
+     */
+    public List<CopyJob> getUnfinishedJobs() {
+        return getAllJobs();
+    }
+
+    private List<CopyJob> getAllJobs() {
+        SQLiteDatabase database = getReadableDatabase();
+        ArrayList<CopyJob> jobs = new ArrayList<>();
+
+        Cursor cursor = database.query(TABLE_JOBS, null, null, null, null, null, COLUMN_ID);
+        try {
+            while (cursor.moveToNext()) {
+                long jobId = cursor.getLong(cursor.getColumnIndex(COLUMN_ID));
+                jobs.add(new CopyJob(jobId,
+                        cursor.getString(cursor.getColumnIndex(COLUMN_PATH)),
+                        OpenMode.getOpenMode(cursor.getInt(cursor.getColumnIndex(COLUMN_MODE))),
+                        cursor.getInt(cursor.getColumnIndex(COLUMN_MOVE)) == 1,
+                        getSources(database, jobId)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return jobs;
+    }
+
+    private ArrayList<HybridFileParcelable> getSources(SQLiteDatabase database, long jobId) {
+        ArrayList<HybridFileParcelable> sources = new ArrayList<>();
+
+        Cursor cursor = database.query(TABLE_SOURCES, null, COLUMN_JOB_ID + " = ?",
+                new String[]{String.valueOf(jobId)}, null, null, COLUMN_ID);
+        try {
+            while (cursor.moveToNext()) {
+                HybridFileParcelable source = new HybridFileParcelable(
+                        cursor.getString(cursor.getColumnIndex(COLUMN_PATH)), "",
+                        cursor.getLong(cursor.getColumnIndex(COLUMN_DATE)),
+                        cursor.getLong(cursor.getColumnIndex(COLUMN_SIZE)),
+                        cursor.getInt(cursor.getColumnIndex(COLUMN_DIRECTORY)) == 1);
+                source.setName(cursor.getString(cursor.getColumnIndex(COLUMN_NAME)));
+                source.setMode(OpenMode.getOpenMode(cursor.getInt(cursor.getColumnIndex(COLUMN_MODE))));
+                sources.add(source);
+            }
+        } finally {
+            cursor.close();
+        }
+        return sources;
+    }
+
+    /**
+     * @return the state of every target file of the job recorded so far, by target path
+     */
+    public HashMap<String, CopyJournalEntry> getEntries(long jobId) {
+        SQLiteDatabase database = getReadableDatabase();
+        HashMap<String, CopyJournalEntry> entries = new HashMap<>();
+
+        Cursor cursor = database.query(TABLE_FILES, null, COLUMN_JOB_ID + " = ?",
+                new String[]{String.valueOf(jobId)}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                CopyJournalEntry entry = new CopyJournalEntry(
+                        cursor.getString(cursor.getColumnIndex(COLUMN_PATH)),
+                        cursor.getLong(cursor.getColumnIndex(COLUMN_SIZE)),
+                        cursor.getLong(cursor.getColumnIndex(COLUMN_DATE)),
+                        cursor.getLong(cursor.getColumnIndex(COLUMN_OFFSET)),
+                        cursor.getInt(cursor.getColumnIndex(COLUMN_COMPLETED)) == 1,
+                        cursor.getLong(cursor.getColumnIndex(COLUMN_CHUNK_SIZE)),
+                        parseHashes(cursor.getString(cursor.getColumnIndex(COLUMN_CHUNK_HASHES))));
+                entries.put(entry.getTargetPath(), entry);
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Records the state of target files, replacing any previous state of the same files.
+     * All the entries are written in a single transaction.
+     */
+    public void putEntries(long jobId, List<CopyJournalEntry> entries) {
+        if (entries.isEmpty()) return;
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (CopyJournalEntry entry : entries) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_JOB_ID, jobId);
+                values.put(COLUMN_PATH, entry.getTargetPath());
+                values.put(COLUMN_SIZE, entry.getSize());
+                values.put(COLUMN_DATE, entry.getDate());
+                values.put(COLUMN_OFFSET, entry.getOffset());
+                values.put(COLUMN_COMPLETED, entry.isCompleted() ? 1 : 0);
+                values.put(COLUMN_CHUNK_SIZE, entry.getChunkSize());
+                values.put(COLUMN_CHUNK_HASHES, formatHashes(entry.getChunkHashes()));
+                database.insertWithOnConflict(TABLE_FILES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static String formatHashes(long[] hashes) {
+        StringBuilder builder = new StringBuilder(hashes.length * 9);
+        for (int i = 0; i < hashes.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(Long.toHexString(hashes[i]));
+        }
+        return builder.toString();
+    }
+
+    private static long[] parseHashes(String hashes) {
+        if (hashes == null || hashes.isEmpty()) return new long[0];
+
+        String[] values = hashes.split(",");
+        long[] parsed = new long[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) parsed[i] = Long.parseLong(values[i], 16);
+        } catch (NumberFormatException e) {
+            // nothing can be checked, the file is copied again
+            return new long[0];
+        }
+        return parsed;
+    }
+
+    /**
+     * Forgets the job, once it has finished or was cancelled by the user
+     */
+    public void removeJob(long jobId) {
+        String[] args = new String[]{String.valueOf(jobId)};
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.delete(TABLE_FILES, COLUMN_JOB_ID + " = ?", args);
+            database.delete(TABLE_SOURCES, COLUMN_JOB_ID + " = ?", args);
+            database.delete(TABLE_JOBS, COLUMN_ID + " = ?", args);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.amaze.filemanager.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Collection;
+
+/**
+ * Database keeping the filename index of {@link com.amaze.filemanager.filesystem.FileIndex}
+ * between runs: every indexed directory with it's modification time, and every file in them.
+ *
+ * Try to use these functions from a background thread
+ */
+public class FileIndexHandler extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "file_index.db";
+    private static final int DATABASE_VERSION = 1;  // increment only when making change in schema
+
+    private static final String TABLE_DIRECTORIES = "directories";
+    private static final String TABLE_FILES = "files";
+
+    private static final String COLUMN_PATH = "path";
+    private static final String COLUMN_PARENT = "parent";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_DIRECTORY = "directory";
+    private static final String COLUMN_SIZE = "size";
+    private static final String COLUMN_DATE = "date";
+
+    public FileIndexHandler(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        String queryDirectories = "CREATE TABLE IF NOT EXISTS " + TABLE_DIRECTORIES + " ("
+                + COLUMN_PATH + " TEXT PRIMARY KEY,"
+                + COLUMN_DATE + " INTEGER"
+                + ")";
+        String queryFiles = "CREATE TABLE IF NOT EXISTS " + TABLE_FILES + " ("
+                + COLUMN_PARENT + " TEXT,"
+                + COLUMN_NAME + " TEXT,"
+                + COLUMN_DIRECTORY + " INTEGER,"
+                + COLUMN_SIZE + " INTEGER,"
+                + COLUMN_DATE + " INTEGER"
+                + ")";
+        String queryFilesIndex = "CREATE INDEX IF NOT EXISTS files_parent ON "
+                + TABLE_FILES + " (" + COLUMN_PARENT + ")";
+
+        db.execSQL(queryDirectories);
+        db.execSQL(queryFiles);
+        db.execSQL(queryFilesIndex);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // the index can always be built again from the filesystem
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_DIRECTORIES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILES);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Receives the rows of the index as they are read
+     */
+    public interface IndexReader {
+        void onDirectory(String path, long date);
+
+        void onFile(String parent, String name, boolean isDirectory, long size, long date);
+    }
+
+    /**
+     * Reads the whole index, every directory is given before any of it's files
+     */
+    public void read(IndexReader reader) {
+        SQLiteDatabase database = getReadableDatabase();
+
+        Cursor cursor = database.query(TABLE_DIRECTORIES, new String[]{COLUMN_PATH, COLUMN_DATE},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                reader.onDirectory(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = database.query(TABLE_FILES,
+                new String[]{COLUMN_PARENT, COLUMN_NAME, COLUMN_DIRECTORY, COLUMN_SIZE, COLUMN_DATE},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                reader.onFile(cursor.getString(0), cursor.getString(1), cursor.getInt(2) == 1,
+                        cursor.getLong(3), cursor.getLong(4));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The content of a directory to be written, see {@link #write(Collection, Collection)}
+     */
+    public interface DirectoryContent {
+        String getPath();
+
+        long getDate();
+
+        int getFileCount();
+
+        String getName(int file);
+
+        boolean isDirectory(int file);
+
+        long getSize(int file);
+
+        long getDate(int file);
+    }
+
+    /**
+     * Replaces the content of the changed directories and removes the deleted ones,
+     * in a single transaction
+     */
+    public void write(Collection<? extends DirectoryContent> changed, Collection<String> removed) {
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (String path : removed) {
+                database.delete(TABLE_DIRECTORIES, COLUMN_PATH + " = ?", new String[]{path});
+                database.delete(TABLE_FILES, COLUMN_PARENT + " = ?", new String[]{path});
+            }
+
+            SQLiteStatement insertFile = database.compileStatement("INSERT INTO " + TABLE_FILES + " ("
+                    + COLUMN_PARENT + ", " + COLUMN_NAME + ", " + COLUMN_DIRECTORY + ", "
+                    + COLUMN_SIZE + ", " + COLUMN_DATE + ") VALUES (?, ?, ?, ?, ?)");
+
+            for (DirectoryContent directory : changed) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PATH, directory.getPath());
+                values.put(COLUMN_DATE, directory.getDate());
+                database.insertWithOnConflict(TABLE_DIRECTORIES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+                database.delete(TABLE_FILES, COLUMN_PARENT + " = ?", new String[]{directory.getPath()});
+                for (int i = 0; i < directory.getFileCount(); i++) {
+                    insertFile.bindString(1, directory.getPath());
+                    insertFile.bindString(2, directory.getName(i));
+                    insertFile.bindLong(3, directory.isDirectory(i) ? 1 : 0);
+                    insertFile.bindLong(4, directory.getSize(i));
+                    insertFile.bindLong(5, directory.getDate(i));
+                    insertFile.executeInsert();
+                }
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.amaze.filemanager.database.models;
+
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.OpenMode;
+
+import java.util.ArrayList;
+
+/**
+ * A copy or move operation recorded in the copy journal, with the files selected by the user
+ */
+public class CopyJob {
+
+    private long _id;
+    private String targetPath;
+    private OpenMode openMode;
+    private boolean move;
+    private ArrayList<HybridFileParcelable> sources;
+
+    public CopyJob(long _id, String targetPath, OpenMode openMode, boolean move,
+                   ArrayList<HybridFileParcelable> sources) {
+        this._id = _id;
+        this.targetPath = targetPath;
+        this.openMode = openMode;
+        this.move = move;
+        this.sources = sources;
+    }
+
+    public long getId() {
+        return _id;
+    }
+
+    public String getTargetPath() {
+        return targetPath;
+    }
+
+    public OpenMode getOpenMode() {
+        return openMode;
+    }
+
+    public boolean isMove() {
+        return move;
+    }
+
+    public ArrayList<HybridFileParcelable> getSources() {
+        return sources;
+    }
+}
@@ -0,0 +1,64 @@
+package com.amaze.filemanager.database.models;
+
+/**
+ * State of a single target file of a {@link CopyJob}
+ */
+public class CopyJournalEntry {
+
+    private String targetPath;
+
+    // size and modification time of the source when the entry was written,
+    // a source that changed since can't be resumed
+    private long size, date;
+
+    // bytes at the start of the target known to be copied
+    private long offset;
+    private boolean completed;
+
+    // CRC32 of every chunk of chunkSize bytes in the copied start, to check it before resuming
+    private long chunkSize;
+    private long[] chunkHashes;
+
+    public CopyJournalEntry(String targetPath, long size, long date, long offset, boolean completed) {
+        this(targetPath, size, date, offset, completed, 0, new long[0]);
+    }
+
+    public CopyJournalEntry(String targetPath, long size, long date, long offset, boolean completed,
+                            long chunkSize, long[] chunkHashes) {
+        this.targetPath = targetPath;
+        this.size = size;
+        this.date = date;
+        this.offset = offset;
+        this.completed = completed;
+        this.chunkSize = chunkSize;
+        this.chunkHashes = chunkHashes;
+    }
+
+    public String getTargetPath() {
+        return targetPath;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getDate() {
+        return date;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public long[] getChunkHashes() {
+        return chunkHashes;
+    }
+}
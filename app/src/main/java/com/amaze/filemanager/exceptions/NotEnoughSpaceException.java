@@ -0,0 +1,14 @@
+package com.amaze.filemanager.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when a file can't be written for lack of space on it's storage
+ */
+
+public class NotEnoughSpaceException extends IOException {
+    private static final String MESSAGE = "Not enough space";
+
+    public NotEnoughSpaceException() { super(MESSAGE); }
+    public NotEnoughSpaceException(String message) { super(message); }
+}
@@ -0,0 +1,73 @@
+package com.amaze.filemanager.filesystem;
+
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import com.amaze.filemanager.utils.OpenMode;
+
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * Reads the attributes of the files of a directory listing with a single stat(2) per file,
+ * instead of the separate calls behind {@link File#isDirectory()}, {@link File#length()},
+ * {@link File#lastModified()} and the access checks of {@link RootHelper#parseFilePermission(File)}.
+ *
+ * The access checks can't be computed from the mode alone (supplementary groups, read only
+ * mounts, SELinux), so they are made once for each owner, group, file type and mode found in the
+ * directory and the result is reused for the other files having the same ones.
+ *
+ * A reader is meant for the listing of a single directory, on a single thread.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+class FileAttributesReader {
+
+    // (uid << 32 | gid) -> (st_mode -> permission)
+    private final HashMap<Long, HashMap<Integer, String>> permissions = new HashMap<>();
+
+    static boolean isAvailable() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * @return the file, or null if it couldn't be stat'ed (eg. a broken link)
+     */
+    HybridFileParcelable read(File file) {
+        StructStat stat;
+        try {
+            stat = Os.stat(file.getPath());
+        } catch (ErrnoException e) {
+            return null;
+        }
+
+        boolean isDirectory = OsConstants.S_ISDIR(stat.st_mode);
+        HybridFileParcelable baseFile = new HybridFileParcelable(file.getPath(), getPermission(file, stat),
+                stat.st_mtime * 1000, isDirectory ? 0 : stat.st_size, isDirectory);
+        baseFile.setName(file.getName());
+        baseFile.setMode(OpenMode.FILE);
+        return baseFile;
+    }
+
+    private String getPermission(File file, StructStat stat) {
+        long owner = ((long) stat.st_uid << 32) | (stat.st_gid & 0xffffffffL);
+        // with the file type, the access checks of a directory and a file differ
+        int mode = stat.st_mode;
+
+        HashMap<Integer, String> byMode = permissions.get(owner);
+        if (byMode == null) {
+            byMode = new HashMap<>();
+            permissions.put(owner, byMode);
+        }
+
+        String permission = byMode.get(mode);
+        if (permission == null) {
+            permission = RootHelper.parseFilePermission(file);
+            byMode.put(mode, permission);
+        }
+        return permission;
+    }
+}
@@ -0,0 +1,456 @@
+package com.amaze.filemanager.filesystem;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+
+import com.amaze.filemanager.database.FileIndexHandler;
+import com.amaze.filemanager.utils.OpenMode;
+import com.googlecode.concurrenttrees.common.KeyValuePair;
+import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
+import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persistent index of the names of the files in the internal storage, so that searching
+ * for a file doesn't have to walk the whole storage.
+ *
+ * The index is kept in a {@link FileIndexHandler} database, loaded in memory in the background
+ * on first use, and brought up to date before every search by comparing the modification time
+ * of every indexed directory (only the directories that changed are listed again). The
+ * {@link CustomFileObserver} of the current directory reports changes as they happen,
+ * see {@link #onFileCreated(String)} and {@link #onFileDeleted(String)}.
+ *
+ * File names are kept in a {@link ConcurrentRadixTree} by lower case name, so that searches
+ * can run while the index is updated, and queries with a known name prefix only go through
+ * the matching part of the tree.
+ */
+public class FileIndex {
+
+    private static final String TAG = "FileIndex";
+
+    // a search doesn't check the directories again if all were checked this recently (ms)
+    private static final long REFRESH_INTERVAL = 30 * 1000;
+
+    private static FileIndex instance;
+
+    private final FileIndexHandler database;
+    private final String rootPath;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // lower case name -> files with that name
+    private final ConcurrentRadixTree<Entry[]> names = new ConcurrentRadixTree<>(new DefaultCharArrayNodeFactory());
+
+    // path -> directory, guarded by this
+    private final HashMap<String, Directory> directories = new HashMap<>();
+
+    // changes not yet written to the database, guarded by this
+    private final HashSet<Directory> changedDirectories = new HashSet<>();
+    private final HashSet<String> removedDirectories = new HashSet<>();
+
+    // only one thread updates the index from the filesystem at a time
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private volatile boolean loaded = false;
+    private boolean loading = false;
+    private volatile long lastRefreshTime = 0;
+
+    private FileIndex(Context context) {
+        database = new FileIndexHandler(context.getApplicationContext());
+        rootPath = Environment.getExternalStorageDirectory().getPath();
+    }
+
+    public static synchronized FileIndex getInstance(Context context) {
+        if (instance == null) instance = new FileIndex(context);
+        return instance;
+    }
+
+    /**
+     * Receives the files found by {@link #search(String, SearchFilter, String, SearchCallback)}
+     */
+    public interface SearchCallback {
+        /**
+         * @return false to stop the search
+         */
+        boolean onFileFound(HybridFileParcelable file);
+    }
+
+    public interface SearchFilter {
+        /**
+         * @param lowerCaseName the name in lower case, as kept in the index
+         */
+        boolean matches(String fileName, String lowerCaseName);
+    }
+
+    /**
+     * Searches the indexed files in a directory and all it's subdirectories. Directories which
+     * changed since they were indexed are listed again first, unless that was done very recently.
+     *
+     * If the index isn't loaded yet, loading starts in the background and nothing is searched.
+     *
+     * @param directory the directory to search in
+     * @param filter matches the names of the files to find
+     * @param lowerCasePrefix known start of the lower case names matching the filter, or ""
+     * @return false if the index doesn't cover the directory (yet), and it must be searched
+     *         in another way
+     */
+    public boolean search(String directory, SearchFilter filter, String lowerCasePrefix,
+                          SearchCallback callback) {
+        if (!covers(directory)) return false;
+
+        if (!loaded) {
+            loadAsync();
+            return false;
+        }
+
+        boolean recentlyRefreshed = System.currentTimeMillis() - lastRefreshTime < REFRESH_INTERVAL;
+        if (!recentlyRefreshed && refreshLock.tryLock()) {
+            // otherwise a refresh is already running, search what's already indexed
+            try {
+                refresh(new File(directory));
+                flush();
+            } finally {
+                refreshLock.unlock();
+            }
+        }
+
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        for (KeyValuePair<Entry[]> pair : names.getKeyValuePairsForKeysStartingWith(lowerCasePrefix)) {
+            String lowerCaseName = pair.getKey().toString();
+            for (Entry entry : pair.getValue()) {
+                if (!filter.matches(entry.name, lowerCaseName)) continue;
+
+                String path = entry.getPath();
+                if (!path.startsWith(prefix)) continue;
+
+                if (!callback.onFileFound(entry.toFile(path))) return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the files of the directory are indexed
+     */
+    public boolean covers(String directory) {
+        return directory != null && (directory.equals(rootPath) || directory.startsWith(rootPath + "/"));
+    }
+
+    /**
+     * Reports a file created in an indexed directory
+     */
+    public void onFileCreated(final String path) {
+        if (!loaded || !covers(path)) return;
+
+        executor.execute(() -> {
+            File file = new File(path);
+            HybridFileParcelable baseFile = RootHelper.generateBaseFile(file, true);
+
+            synchronized (FileIndex.this) {
+                Directory parent = directories.get(file.getParent());
+                if (parent == null || baseFile == null) return;
+
+                parent.put(new Entry(parent, file.getName(), baseFile.isDirectory(),
+                        baseFile.getSize(), baseFile.getDate()));
+                changedDirectories.add(parent);
+            }
+        });
+    }
+
+    /**
+     * Reports a file deleted from an indexed directory
+     */
+    public void onFileDeleted(final String path) {
+        if (!loaded || !covers(path)) return;
+
+        executor.execute(() -> {
+            File file = new File(path);
+
+            synchronized (FileIndex.this) {
+                Directory parent = directories.get(file.getParent());
+                if (parent == null) return;
+
+                parent.remove(file.getName());
+                changedDirectories.add(parent);
+            }
+        });
+    }
+
+    /**
+     * Loads the index from the database and brings it up to date, in the background
+     */
+    private synchronized void loadAsync() {
+        if (loaded || loading) return;
+        loading = true;
+
+        executor.execute(() -> {
+            refreshLock.lock();
+            try {
+                load();
+                refresh(new File(rootPath));
+                flush();
+
+                // searches before this walk the storage, instead of finding half the files
+                loaded = true;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to build file index", e);
+            } finally {
+                refreshLock.unlock();
+                synchronized (FileIndex.this) {
+                    loading = false;
+                }
+            }
+        });
+    }
+
+    private void load() {
+        database.read(new FileIndexHandler.IndexReader() {
+            @Override
+            public void onDirectory(String path, long date) {
+                synchronized (FileIndex.this) {
+                    directories.put(path, new Directory(path, date));
+                }
+            }
+
+            @Override
+            public void onFile(String parent, String name, boolean isDirectory, long size, long date) {
+                synchronized (FileIndex.this) {
+                    Directory directory = directories.get(parent);
+                    if (directory != null) directory.put(new Entry(directory, name, isDirectory, size, date));
+                }
+            }
+        });
+    }
+
+    /**
+     * Lists again the directory if it changed since it was indexed, then does the same with all
+     * it's subdirectories. Must hold {@link #refreshLock}.
+     */
+    private void refresh(File file) {
+        ArrayList<File> pending = new ArrayList<>();
+        pending.add(file);
+
+        while (!pending.isEmpty()) {
+            File current = pending.remove(pending.size() - 1);
+            String path = current.getPath();
+            long date = current.lastModified();
+
+            Directory directory;
+            synchronized (this) {
+                directory = directories.get(path);
+            }
+
+            if (directory == null || directory.date != date) {
+                final ArrayList<HybridFileParcelable> children = RootHelper.getFilesList(path, true, file1 -> {});
+
+                synchronized (this) {
+                    if (directory == null) {
+                        directory = new Directory(path, date);
+                        directories.put(path, directory);
+                    }
+                    update(directory, children);
+                    directory.date = date;
+                    changedDirectories.add(directory);
+                }
+            }
+
+            synchronized (this) {
+                for (Entry entry : directory.children.values()) {
+                    if (entry.isDirectory) pending.add(new File(path, entry.name));
+                }
+            }
+        }
+
+        if (file.getPath().equals(rootPath)) lastRefreshTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Replaces the entries of the directory with the files listed in it
+     */
+    private void update(Directory directory, ArrayList<HybridFileParcelable> files) {
+        HashSet<String> listed = new HashSet<>();
+        for (HybridFileParcelable file : files) {
+            listed.add(file.getName());
+            directory.put(new Entry(directory, file.getName(), file.isDirectory(), file.getSize(),
+                    file.getDate()));
+        }
+
+        for (String name : new ArrayList<>(directory.children.keySet())) {
+            if (!listed.contains(name)) directory.remove(name);
+        }
+    }
+
+    /**
+     * Forgets a directory and everything under it
+     */
+    private void removeDirectory(String path) {
+        Directory directory = directories.remove(path);
+        if (directory == null) return;
+
+        for (String name : new ArrayList<>(directory.children.keySet())) {
+            directory.remove(name);
+        }
+        changedDirectories.remove(directory);
+        removedDirectories.add(path);
+    }
+
+    /**
+     * Writes the changes to the database
+     */
+    private void flush() {
+        ArrayList<Directory> changed;
+        ArrayList<String> removed;
+        synchronized (this) {
+            changed = new ArrayList<>(changedDirectories);
+            removed = new ArrayList<>(removedDirectories);
+            changedDirectories.clear();
+            removedDirectories.clear();
+        }
+
+        try {
+            // snapshots, directories may change while they are written
+            ArrayList<DirectorySnapshot> snapshots = new ArrayList<>(changed.size());
+            synchronized (this) {
+                for (Directory directory : changed) snapshots.add(new DirectorySnapshot(directory));
+            }
+            database.write(snapshots, removed);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to save file index", e);
+        }
+    }
+
+    private void addName(Entry entry) {
+        String key = entry.name.toLowerCase();
+        Entry[] entries = names.getValueForExactKey(key);
+        if (entries == null) {
+            names.put(key, new Entry[]{entry});
+        } else {
+            Entry[] added = Arrays.copyOf(entries, entries.length + 1);
+            added[entries.length] = entry;
+            names.put(key, added);
+        }
+    }
+
+    private void removeName(Entry entry) {
+        String key = entry.name.toLowerCase();
+        Entry[] entries = names.getValueForExactKey(key);
+        if (entries == null) return;
+
+        ArrayList<Entry> remaining = new ArrayList<>(Arrays.asList(entries));
+        remaining.remove(entry);
+        if (remaining.isEmpty()) names.remove(key);
+        else names.put(key, remaining.toArray(new Entry[remaining.size()]));
+    }
+
+    /**
+     * An indexed directory, modified only while holding the lock of the index
+     */
+    private class Directory {
+        final String path;
+        long date;
+        final HashMap<String, Entry> children = new HashMap<>();
+
+        Directory(String path, long date) {
+            this.path = path;
+            this.date = date;
+        }
+
+        void put(Entry entry) {
+            Entry previous = children.put(entry.name, entry);
+            if (previous != null) {
+                removeName(previous);
+                if (previous.isDirectory && !entry.isDirectory) removeDirectory(previous.getPath());
+            }
+            addName(entry);
+        }
+
+        void remove(String name) {
+            Entry entry = children.remove(name);
+            if (entry == null) return;
+
+            removeName(entry);
+            if (entry.isDirectory) removeDirectory(entry.getPath());
+        }
+    }
+
+    private static class DirectorySnapshot implements FileIndexHandler.DirectoryContent {
+        private final String path;
+        private final long date;
+        private final Entry[] entries;
+
+        DirectorySnapshot(Directory directory) {
+            path = directory.path;
+            date = directory.date;
+            entries = directory.children.values().toArray(new Entry[directory.children.size()]);
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public long getDate() {
+            return date;
+        }
+
+        @Override
+        public int getFileCount() {
+            return entries.length;
+        }
+
+        @Override
+        public String getName(int file) {
+            return entries[file].name;
+        }
+
+        @Override
+        public boolean isDirectory(int file) {
+            return entries[file].isDirectory;
+        }
+
+        @Override
+        public long getSize(int file) {
+            return entries[file].size;
+        }
+
+        @Override
+        public long getDate(int file) {
+            return entries[file].date;
+        }
+    }
+
+    private static class Entry {
+        final Directory parent;
+        final String name;
+        final boolean isDirectory;
+        final long size, date;
+
+        Entry(Directory parent, String name, boolean isDirectory, long size, long date) {
+            this.parent = parent;
+            this.name = name;
+            this.isDirectory = isDirectory;
+            this.size = size;
+            this.date = date;
+        }
+
+        String getPath() {
+            return parent.path + "/" + name;
+        }
+
+        HybridFileParcelable toFile(String path) {
+            HybridFileParcelable file = new HybridFileParcelable(path, "", date, size, isDirectory);
+            file.setName(name);
+            file.setMode(OpenMode.FILE);
+            return file;
+        }
+    }
+}
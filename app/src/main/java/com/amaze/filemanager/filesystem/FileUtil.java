@@ -26,6 +26,8 @@ import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.RootUtils;
 import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
+import com.amaze.filemanager.utils.files.BufferPool;
+import com.amaze.filemanager.utils.files.BufferStrategy;
 import com.amaze.filemanager.utils.files.GenericCopyUtil;
 import com.cloudrail.si.interfaces.CloudStorage;
 
@@ -41,6 +43,7 @@ import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
@@ -243,17 +246,23 @@ public abstract class FileUtil {
                         }
 
                         int count = 0;
-                        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+                        ByteBuffer pooledBuffer = BufferPool.acquireHeap(BufferStrategy
+                                .forModes(OpenMode.FILE, hFile.getMode()).getBufferSize());
+                        byte[] buffer = pooledBuffer.array();
 
-                        while (count != -1) {
+                        try {
+                            while (count != -1) {
 
-                            count = bufferedInputStream.read(buffer);
-                            if (count != -1) {
+                                count = bufferedInputStream.read(buffer);
+                                if (count != -1) {
 
-                                bufferedOutputStream.write(buffer, 0, count);
+                                    bufferedOutputStream.write(buffer, 0, count);
+                                }
                             }
+                            bufferedOutputStream.flush();
+                        } finally {
+                            BufferPool.release(pooledBuffer);
                         }
-                        bufferedOutputStream.flush();
 
                     } catch (FileNotFoundException e) {
                         e.printStackTrace();
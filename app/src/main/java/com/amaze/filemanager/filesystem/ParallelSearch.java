@@ -0,0 +1,162 @@
+package com.amaze.filemanager.filesystem;
+
+import android.util.Log;
+
+import com.amaze.filemanager.asynchronous.asynctasks.SearchAsyncTask;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches the file names of a local directory tree on several threads, every directory
+ * being listed by a task of it's own so that the workers share the subtrees between them.
+ *
+ * Matches are collected by the workers and handed over in batches to the thread
+ * which called {@link #run(File)}, which is the only one calling the {@link Listener}.
+ */
+public class ParallelSearch {
+
+    private static final String TAG = "ParallelSearch";
+
+    // matches handed over at once, and the longest a match waits to be handed over (ms)
+    private static final int BATCH_SIZE = 32;
+    private static final long BATCH_INTERVAL = 100;
+
+    public interface Listener {
+        /**
+         * @return false to cancel the search
+         */
+        boolean onFilesFound(ArrayList<HybridFileParcelable> files);
+
+        boolean isCancelled();
+    }
+
+    private final SearchAsyncTask.SearchFilter filter;
+    private final int maxDepth;
+    private final Listener listener;
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentLinkedQueue<HybridFileParcelable> found = new ConcurrentLinkedQueue<>();
+
+    // directories queued or being listed
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object pendingLock = new Object();
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param filter matches the names of the files to find, must be safe to call from several threads
+     * @param maxDepth levels of subdirectories to search, negative for no limit
+     */
+    public ParallelSearch(SearchAsyncTask.SearchFilter filter, int maxDepth, Listener listener) {
+        this.filter = filter;
+        this.maxDepth = maxDepth;
+        this.listener = listener;
+
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        executor = new ThreadPoolExecutor(workers, workers, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "search_worker");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Searches the directory and it's subdirectories, blocks until done or cancelled
+     */
+    public void run(File directory) {
+        submit(directory, 0);
+
+        try {
+            ArrayList<HybridFileParcelable> batch = new ArrayList<>();
+            while (true) {
+                boolean done;
+                synchronized (pendingLock) {
+                    done = pending.get() == 0;
+                    if (!done) pendingLock.wait(BATCH_INTERVAL);
+                }
+
+                if (listener.isCancelled()) {
+                    cancelled = true;
+                    return;
+                }
+
+                HybridFileParcelable file;
+                while ((file = found.poll()) != null) {
+                    batch.add(file);
+                    if (batch.size() >= BATCH_SIZE) batch = publish(batch);
+                    if (batch == null) return;
+                }
+                if (!batch.isEmpty() && (batch = publish(batch)) == null) return;
+
+                if (done) return;
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return a new batch, or null if the search was cancelled
+     */
+    private ArrayList<HybridFileParcelable> publish(ArrayList<HybridFileParcelable> batch) {
+        if (!listener.onFilesFound(batch)) {
+            cancelled = true;
+            return null;
+        }
+        return new ArrayList<>();
+    }
+
+    private void submit(final File directory, final int depth) {
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                if (!cancelled) search(directory, depth);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to search " + directory.getPath(), e);
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    synchronized (pendingLock) {
+                        pendingLock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private void search(File directory, int depth) {
+        String[] names = directory.list();
+        if (names == null) {
+            Log.d(TAG, "Cannot search " + directory.getPath() + ": Permission Denied");
+            return;
+        }
+
+        FileAttributesReader reader = FileAttributesReader.isAvailable() ? new FileAttributesReader() : null;
+        boolean descend = maxDepth < 0 || depth < maxDepth;
+
+        for (String name : names) {
+            if (cancelled) return;
+
+            boolean matches = filter.searchFilter(name);
+            if (!matches && !descend) continue;
+
+            File child = new File(directory, name);
+            HybridFileParcelable file = reader != null ? reader.read(child) : null;
+            if (file == null) file = RootHelper.generateBaseFile(child, true);
+            if (file == null) continue;
+
+            if (matches) found.add(file);
+            if (descend && file.isDirectory()) submit(child, depth + 1);
+        }
+    }
+}
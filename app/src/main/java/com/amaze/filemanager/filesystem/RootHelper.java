@@ -29,33 +29,37 @@ import com.amaze.filemanager.utils.files.FileUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import eu.chainfire.libsuperuser.Shell;
 
 public class RootHelper {
 
+    // how often a command waiting for it's output checks the shell is still alive (ms)
+    private static final long SHELL_CHECK_INTERVAL = 500;
+
     /**
      * Runs the command and stores output in a list. The listener is set on the handler
      * thread {@link MainActivity#handlerThread} thus any code run in callback must be thread safe.
      * Command is run from the root context (u:r:SuperSU0)
      *
+     * Only this command is waited for: other threads can have commands queued on the shell at the
+     * same time, each getting it's own output back.
+     *
      * @param cmd the command
      * @return a list of results. Null only if the command passed is a blocking call or no output is
      * there for the command passed
      */
     public static ArrayList<String> runShellCommand(String cmd) throws ShellNotRunningException {
-        if (MainActivity.shellInteractive == null || !MainActivity.shellInteractive.isRunning())
-            throw new ShellNotRunningException();
         final ArrayList<String> result = new ArrayList<>();
 
         // callback being called on a background handler thread
-        MainActivity.shellInteractive.addCommand(cmd, 0, (commandCode, exitCode, output) -> {
-            for (String line : output) {
-                result.add(line);
-            }
+        runShellCommand(cmd, (commandCode, exitCode, output) -> {
+            if (output != null) result.addAll(output);
         });
-        MainActivity.shellInteractive.waitForIdle();
         return result;
     }
 
@@ -65,17 +69,37 @@ public class RootHelper {
      * should be thread safe.
      * Command is run from superuser context (u:r:SuperSU0)
      *
+     * Returns once the callback of this command has run, without waiting for the commands queued
+     * by other threads. A thread interrupted while waiting gets a {@link ShellNotRunningException}
+     * rather than an output the callback may still be adding to.
+     *
      * @param cmd      the command
      * @param callback
-     * @return a list of results. Null only if the command passed is a blocking call or no output is
-     * there for the command passed
      */
-    public static void runShellCommand(String cmd, Shell.OnCommandResultListener callback)
+    public static void runShellCommand(String cmd, final Shell.OnCommandResultListener callback)
             throws ShellNotRunningException {
-        if (MainActivity.shellInteractive == null || !MainActivity.shellInteractive.isRunning())
+        final Shell.Interactive shell = MainActivity.shellInteractive;
+        if (shell == null || !shell.isRunning())
+            throw new ShellNotRunningException();
+
+        final CountDownLatch done = new CountDownLatch(1);
+        shell.addCommand(cmd, 0, (commandCode, exitCode, output) -> {
+            try {
+                callback.onCommandResult(commandCode, exitCode, output);
+            } finally {
+                done.countDown();
+            }
+        });
+
+        try {
+            while (!done.await(SHELL_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                // a shell which died doesn't call back for the commands still queued
+                if (!shell.isRunning()) throw new ShellNotRunningException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new ShellNotRunningException();
-        MainActivity.shellInteractive.addCommand(cmd, 0, callback);
-        MainActivity.shellInteractive.waitForIdle();
+        }
     }
 
     /**
@@ -100,6 +124,13 @@ public class RootHelper {
 
     private static final String UNIX_ESCAPE_EXPRESSION = "(\\(|\\)|\\[|\\]|\\s|\'|\"|`|\\{|\\}|&|\\\\|\\?)";
 
+    /**
+     * Quotes the string as a single shell word, whatever the characters in it
+     */
+    private static String quote(String input) {
+        return "'" + input.replace("'", "'\\''") + "'";
+    }
+
     /**
      * Loads files in a path using basic filesystem callbacks
      *
@@ -112,22 +143,18 @@ public class RootHelper {
         ArrayList<HybridFileParcelable> files = new ArrayList<>();
         try {
             if (f.exists() && f.isDirectory()) {
+                // a single stat per file where possible
+                FileAttributesReader reader = FileAttributesReader.isAvailable() ? new FileAttributesReader() : null;
+
                 for (File x : f.listFiles()) {
-                    long size = 0;
-                    if (!x.isDirectory()) size = x.length();
-                    HybridFileParcelable baseFile = new HybridFileParcelable(x.getPath(), parseFilePermission(x),
-                            x.lastModified(), size, x.isDirectory());
-                    baseFile.setName(x.getName());
-                    baseFile.setMode(OpenMode.FILE);
-                    if (showHidden) {
-                        files.add(baseFile);
-                        listener.onFileFound(baseFile);
-                    } else {
-                        if (!x.isHidden()) {
-                            files.add(baseFile);
-                            listener.onFileFound(baseFile);
-                        }
-                    }
+                    // hidden files are known by their name, no need to stat them
+                    if (!showHidden && x.isHidden()) continue;
+
+                    HybridFileParcelable baseFile = reader != null ? reader.read(x) : null;
+                    if (baseFile == null) baseFile = generateBaseFile(x, true);
+
+                    files.add(baseFile);
+                    listener.onFileFound(baseFile);
                 }
             }
         } catch (Exception e) {
@@ -136,10 +163,11 @@ public class RootHelper {
     }
 
     public static HybridFileParcelable generateBaseFile(File x, boolean showHidden) {
+        boolean isDirectory = x.isDirectory();
         long size = 0;
-        if (!x.isDirectory())
+        if (!isDirectory)
             size = x.length();
-        HybridFileParcelable baseFile = new HybridFileParcelable(x.getPath(), parseFilePermission(x), x.lastModified(), size, x.isDirectory());
+        HybridFileParcelable baseFile = new HybridFileParcelable(x.getPath(), parseFilePermission(x), x.lastModified(), size, isDirectory);
         baseFile.setName(x.getName());
         baseFile.setMode(OpenMode.FILE);
         if (showHidden) {
@@ -162,18 +190,21 @@ public class RootHelper {
         return baseFile;
     }
 
+    // permission strings by (read << 2 | write << 1 | execute), so that they aren't built for every file
+    private static final String[] PERMISSIONS = {"", "x", "w", "wx", "r", "rx", "rw", "rwx"};
+
     public static String parseFilePermission(File f) {
-        String per = "";
+        int per = 0;
         if (f.canRead()) {
-            per = per + "r";
+            per |= 4;
         }
         if (f.canWrite()) {
-            per = per + "w";
+            per |= 2;
         }
         if (f.canExecute()) {
-            per = per + "x";
+            per |= 1;
         }
-        return per;
+        return PERMISSIONS[per];
     }
 
     public static String parseDocumentFilePermission(DocumentFile file) {
@@ -232,6 +263,17 @@ public class RootHelper {
     public static boolean isDirectory(String toTest, boolean root, int count)
             throws ShellNotRunningException {
         File f = new File(toTest);
+
+        // stat follows the links itself
+        ArrayList<String> type = runShellCommand("stat -L -c %f -- " + quote(toTest) + " 2>/dev/null");
+        if (type.size() == 1) {
+            try {
+                return isDirectoryMode(Integer.parseInt(type.get(0).trim(), 16));
+            } catch (NumberFormatException e) {
+                // not the stat we expected, parse ls
+            }
+        }
+
         String name = f.getName();
         String p = f.getParent();
         if (p != null && p.length() > 0) {
@@ -262,6 +304,125 @@ public class RootHelper {
         return path.getPermission().startsWith("d") || new File(path.getPath()).isDirectory();
     }
 
+    // file type bits of st_mode
+    private static final int S_IFMT = 0xF000, S_IFDIR = 0x4000, S_IFLNK = 0xA000;
+
+    // raw mode (hex) / size / mtime (s) / permissions / name / quoted name and link target
+    private static final String STAT_FORMAT = "%f/%s/%Y/%A/%n/%N";
+    // raw mode (hex) / name, of what the link points to
+    private static final String STAT_RESOLVED_FORMAT = "%f/%n";
+    private static final String STAT_SEPARATOR = "--resolved--";
+
+    private static boolean isDirectoryMode(int mode) {
+        return (mode & S_IFMT) == S_IFDIR;
+    }
+
+    /**
+     * Lists a directory with a single shell command: a stat of every child, followed by a stat of
+     * every child following links, so that the type of the links' targets is known without a
+     * command per link.
+     *
+     * Toybox has no find -printf, but it's stat takes a format, as does the one of busybox and
+     * coreutils. The "." of the directory is always stat'ed, telling an empty directory from a
+     * device without stat.
+     *
+     * @return the files, null if there's no stat with formats on the device
+     */
+    private static ArrayList<HybridFileParcelable> statFiles(String path, boolean showHidden)
+            throws ShellNotRunningException {
+        String children = showHidden ? ". * .*" : ". *";
+        // in a subshell, not to change the directory of the shell
+        ArrayList<String> output = runShellCommand("(cd " + quote(path) + " && "
+                + "stat -c '" + STAT_FORMAT + "' -- " + children + " 2>/dev/null; "
+                + "echo " + STAT_SEPARATOR + "; "
+                + "stat -L -c '" + STAT_RESOLVED_FORMAT + "' -- " + children + " 2>/dev/null)");
+
+        int separator = output.indexOf(STAT_SEPARATOR);
+        if (separator == -1) return null;
+
+        HashMap<String, Integer> resolved = new HashMap<>();
+        for (int i = separator + 1; i < output.size(); i++) {
+            String line = output.get(i);
+            int slash = line.indexOf('/');
+            if (slash <= 0) continue;
+            try {
+                resolved.put(line.substring(slash + 1), Integer.parseInt(line.substring(0, slash), 16));
+            } catch (NumberFormatException e) {
+                // not a line of ours
+            }
+        }
+
+        boolean statWorks = false;
+        String parent = path.endsWith("/") ? path : path + "/";
+        ArrayList<HybridFileParcelable> files = new ArrayList<>(separator);
+        for (int i = 0; i < separator; i++) {
+            String line = output.get(i);
+
+            // names can't contain '/', so the five first ones separate the fields
+            int modeEnd = line.indexOf('/');
+            int sizeEnd = line.indexOf('/', modeEnd + 1);
+            int dateEnd = sizeEnd == -1 ? -1 : line.indexOf('/', sizeEnd + 1);
+            int permissionEnd = dateEnd == -1 ? -1 : line.indexOf('/', dateEnd + 1);
+            int nameEnd = permissionEnd == -1 ? -1 : line.indexOf('/', permissionEnd + 1);
+            if (modeEnd <= 0 || nameEnd == -1) continue;
+
+            int mode;
+            long size, date;
+            try {
+                mode = Integer.parseInt(line.substring(0, modeEnd), 16);
+                size = Long.parseLong(line.substring(modeEnd + 1, sizeEnd));
+                date = Long.parseLong(line.substring(sizeEnd + 1, dateEnd)) * 1000;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            String name = line.substring(permissionEnd + 1, nameEnd);
+            if (name.equals(".") || name.equals("..")) {
+                statWorks = true;
+                continue;
+            }
+
+            boolean link = (mode & S_IFMT) == S_IFLNK;
+            boolean directory;
+            if (link) {
+                Integer target = resolved.get(name);
+                directory = target != null && isDirectoryMode(target);
+            } else {
+                directory = isDirectoryMode(mode);
+                if (directory) size = 0;
+            }
+
+            HybridFileParcelable file = new HybridFileParcelable(parent + name,
+                    line.substring(dateEnd + 1, permissionEnd), date, size, directory);
+            file.setMode(OpenMode.ROOT);
+            file.setName(name);
+            if (link) file.setLink(parseLinkTarget(line, nameEnd + 1, name));
+            files.add(file);
+        }
+
+        return statWorks ? files : null;
+    }
+
+    /**
+     * @param start where the %N of the line starts: the name, quoted or not, then " -> " and
+     *              the target, quoted or not
+     * @return the target of the link, "" if the line doesn't have it
+     */
+    private static String parseLinkTarget(String line, int start, String name) {
+        int arrow = line.indexOf(" -> ", start + name.length());
+        if (arrow == -1) return "";
+
+        int targetStart = arrow + 4, targetEnd = line.length();
+        if (targetEnd - targetStart >= 2) {
+            char quote = line.charAt(targetStart);
+            if ((quote == '\'' || quote == '"' || quote == '`') && line.charAt(targetEnd - 1) == (quote == '`' ? '\'' : quote)) {
+                targetStart++;
+                targetEnd--;
+            }
+        }
+        return line.substring(targetStart, targetEnd);
+    }
+
     /**
      * Callback to setting type of file to handle, while loading list of files
      */
@@ -308,30 +469,39 @@ public class RootHelper {
             try {
                 // we're rooted and we're trying to load file with superuser
                 // we're at the root directories, superuser is required!
-                ArrayList<String> ls;
-                String cpath = getCommandLineString(path);
-                //ls = Shell.SU.run("ls -l " + cpath);
-                ls = runShellCommand("ls -l " + (showHidden ? "-a " : "") + "\"" + cpath + "\"");
-                if (ls != null) {
-                    for (int i = 0; i < ls.size(); i++) {
-                        String file = ls.get(i);
-                        if (!file.contains("Permission denied")) {
-                            HybridFileParcelable array = FileUtils.parseName(file);
-                            if (array != null) {
-                                array.setMode(OpenMode.ROOT);
-                                array.setName(array.getPath());
-                                array.setPath(path + "/" + array.getPath());
-                                if (array.getLink().trim().length() > 0) {
-                                    boolean isdirectory = isDirectory(array.getLink(), root, 0);
-                                    array.setDirectory(isdirectory);
-                                } else array.setDirectory(isDirectory(array));
-                                files.add(array);
-                                fileCallback.onFileFound(array);
+                ArrayList<HybridFileParcelable> listed = statFiles(path, showHidden);
+                if (listed != null) {
+                    for (HybridFileParcelable file : listed) {
+                        files.add(file);
+                        fileCallback.onFileFound(file);
+                    }
+                    mode = OpenMode.ROOT;
+                } else {
+                    // no stat on this device, parse ls
+                    ArrayList<String> ls;
+                    String cpath = getCommandLineString(path);
+                    ls = runShellCommand("ls -l " + (showHidden ? "-a " : "") + "\"" + cpath + "\"");
+                    if (ls != null) {
+                        for (int i = 0; i < ls.size(); i++) {
+                            String file = ls.get(i);
+                            if (!file.contains("Permission denied")) {
+                                HybridFileParcelable array = FileUtils.parseName(file);
+                                if (array != null) {
+                                    array.setMode(OpenMode.ROOT);
+                                    array.setName(array.getPath());
+                                    array.setPath(path + "/" + array.getPath());
+                                    if (array.getLink().trim().length() > 0) {
+                                        boolean isdirectory = isDirectory(array.getLink(), root, 0);
+                                        array.setDirectory(isdirectory);
+                                    } else array.setDirectory(isDirectory(array));
+                                    files.add(array);
+                                    fileCallback.onFileFound(array);
+                                }
                             }
-                        }
 
+                        }
+                        mode = OpenMode.ROOT;
                     }
-                    mode = OpenMode.ROOT;
                 }
 
                 if (getModeCallBack != null) getModeCallBack.getMode(mode);
@@ -0,0 +1,161 @@
+package com.amaze.filemanager.filesystem.compressed;
+
+import android.support.v4.util.LruCache;
+
+import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * The entries of an archive grouped by directory, so that listing a directory of the archive
+ * only costs it's number of children.
+ *
+ * Archives only list their entries, directories often implicitly as part of the path of their
+ * files: the index is built once from all the entries, creating the missing directories, and
+ * kept by archive path and modification time until the archive changes.
+ *
+ * Entry names use '/' as separator and directories end with '/', as shown by
+ * {@link com.amaze.filemanager.fragments.CompressedExplorerFragment}.
+ */
+public class ArchiveIndex {
+
+    // entries of all the archives kept
+    private static final int CACHE_SIZE = 200000;
+
+    private static final LruCache<String, ArchiveIndex> cache = new LruCache<String, ArchiveIndex>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, ArchiveIndex value) {
+            return Math.max(1, value.size);
+        }
+    };
+
+    // children of every directory by it's path, without the trailing '/', sorted
+    private final HashMap<String, ArrayList<CompressedObjectParcelable>> directories;
+    private final int size;
+
+    private ArchiveIndex(HashMap<String, ArrayList<CompressedObjectParcelable>> directories, int size) {
+        this.directories = directories;
+        this.size = size;
+    }
+
+    /**
+     * @param lastModified modification time of the archive, 0 if unknown
+     * @return the index of the archive, null if it isn't cached or the archive changed
+     */
+    public static ArchiveIndex get(String path, long lastModified) {
+        if (lastModified == 0) return null;
+        return cache.get(getKey(path, lastModified));
+    }
+
+    /**
+     * Keeps the index until the archive changes, unless it's modification time is unknown
+     */
+    public static void put(String path, long lastModified, ArchiveIndex index) {
+        if (lastModified == 0) return;
+        cache.put(getKey(path, lastModified), index);
+    }
+
+    /**
+     * @param directory path of the directory in the archive, "" or null for the root
+     * @return a new list of the children of the directory, empty if there's no such directory
+     */
+    public ArrayList<CompressedObjectParcelable> list(String directory) {
+        if (directory == null) directory = "";
+        if (directory.startsWith("/")) directory = directory.substring(1);
+        if (directory.endsWith("/")) directory = directory.substring(0, directory.length() - 1);
+
+        ArrayList<CompressedObjectParcelable> children = directories.get(directory);
+        return children != null ? new ArrayList<>(children) : new ArrayList<>();
+    }
+
+    private static String getKey(String path, long lastModified) {
+        return lastModified + "|" + path;
+    }
+
+    public static class Builder {
+
+        // every entry by it's path, without the trailing '/'
+        private final HashMap<String, CompressedObjectParcelable> entries = new HashMap<>();
+        private final HashMap<String, ArrayList<String>> children = new HashMap<>();
+        // directories which have no entry of their own (yet)
+        private final HashSet<String> implicit = new HashSet<>();
+
+        public Builder() {
+            children.put("", new ArrayList<>());
+        }
+
+        /**
+         * Adds an entry, the first of several with the same name is kept
+         *
+         * @param name path of the entry in the archive, using '/' as separator
+         */
+        public Builder add(String name, long date, long size, boolean directory) {
+            int start = name.startsWith("/") ? 1 : 0;
+            int end = name.endsWith("/") ? name.length() - 1 : name.length();
+            if (end <= start) return this;
+
+            String path = name.substring(start, end);
+            directory |= end < name.length();
+
+            CompressedObjectParcelable existing = entries.get(path);
+            if (existing != null) {
+                // a directory created for the entries in it, now with it's own date
+                if (directory && implicit.remove(path)) {
+                    entries.put(path, new CompressedObjectParcelable(path + "/", date, 0, true));
+                }
+                return this;
+            }
+
+            String parent = addParents(path, date);
+            entries.put(path, new CompressedObjectParcelable(directory ? path + "/" : path, date, size, directory));
+            children.get(parent).add(path);
+            if (directory) children.put(path, new ArrayList<>());
+            return this;
+        }
+
+        public ArchiveIndex build() {
+            CompressedObjectParcelable.Sorter sorter = new CompressedObjectParcelable.Sorter();
+            HashMap<String, ArrayList<CompressedObjectParcelable>> directories = new HashMap<>(children.size() * 4 / 3 + 1);
+
+            for (Map.Entry<String, ArrayList<String>> directory : children.entrySet()) {
+                ArrayList<CompressedObjectParcelable> list = new ArrayList<>(directory.getValue().size());
+                for (String path : directory.getValue()) {
+                    list.add(entries.get(path));
+                }
+                Collections.sort(list, sorter);
+                directories.put(directory.getKey(), list);
+            }
+
+            return new ArchiveIndex(directories, entries.size());
+        }
+
+        /**
+         * Creates the directories containing the path which weren't seen yet
+         *
+         * @return the path of the parent
+         */
+        private String addParents(String path, long date) {
+            int separator = path.lastIndexOf('/');
+            if (separator == -1) return "";
+
+            String parent = path.substring(0, separator);
+            CompressedObjectParcelable existing = entries.get(parent);
+            if (existing == null) {
+                String grandparent = addParents(parent, date);
+                entries.put(parent, new CompressedObjectParcelable(parent + "/", date, 0, true));
+                implicit.add(parent);
+                children.get(grandparent).add(parent);
+                children.put(parent, new ArrayList<>());
+            } else if (!existing.directory) {
+                // a file and a directory with the same name, the directory wins
+                entries.put(parent, new CompressedObjectParcelable(parent + "/", existing.date, 0, true));
+                children.put(parent, new ArrayList<>());
+            }
+            return parent;
+        }
+    }
+}
@@ -19,7 +19,7 @@ public class CompressedHelper {
 
         String path = file.getPath().toLowerCase();
         boolean isZip = path.endsWith(".zip") || path.endsWith(".jar") || path.endsWith(".apk");
-        boolean isTar = path.endsWith(".tar") || path.endsWith(".tar.gz");
+        boolean isTar = isTar(path);
         boolean isRar = path.endsWith(".rar");
 
         if (isZip || isTar) {
@@ -34,4 +34,13 @@ public class CompressedHelper {
         return compressedInterface;
     }
 
+    /**
+     * @param path lower case path of the file
+     * @return whether the file is a tar archive, compressed with gzip, bzip2 or xz or not at all
+     */
+    public static boolean isTar(String path) {
+        return path.endsWith(".tar") || path.endsWith(".tar.gz") || path.endsWith(".tar.bz2")
+                || path.endsWith(".tar.xz");
+    }
+
 }
@@ -7,7 +7,7 @@ import com.amaze.filemanager.asynchronous.asynctasks.ZipHelperTask;
 import com.amaze.filemanager.asynchronous.services.ExtractService;
 import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
 import com.amaze.filemanager.utils.OnAsyncTaskFinished;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.OperationScheduler;
 
 import java.util.ArrayList;
 
@@ -41,7 +41,7 @@ public class ZipHelper implements CompressedInterface {
         intent.putExtra(ExtractService.KEY_PATH_ZIP, filePath);
         intent.putExtra(ExtractService.KEY_ENTRIES_ZIP, new String[0]);
         intent.putExtra(ExtractService.KEY_PATH_EXTRACT, whereToDecompress);
-        ServiceWatcherUtil.runService(context, intent);
+        OperationScheduler.getInstance(context).schedule(intent);
     }
 
     @Override
@@ -50,7 +50,7 @@ public class ZipHelper implements CompressedInterface {
         intent.putExtra(ExtractService.KEY_PATH_ZIP, filePath);
         intent.putExtra(ExtractService.KEY_ENTRIES_ZIP, subDirectories);
         intent.putExtra(ExtractService.KEY_PATH_EXTRACT, whereToDecompress);
-        ServiceWatcherUtil.runService(context, intent);
+        OperationScheduler.getInstance(context).schedule(intent);
     }
 
 }
@@ -91,6 +91,7 @@ import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.MainActivityHelper;
 import com.amaze.filemanager.utils.OTGUtil;
 import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.SmbStreamer.BlockCache;
 import com.amaze.filemanager.utils.SmbStreamer.Streamer;
 import com.amaze.filemanager.utils.Utils;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
@@ -99,13 +100,14 @@ import com.amaze.filemanager.utils.files.CryptUtil;
 import com.amaze.filemanager.utils.files.EncryptDecryptUtils;
 import com.amaze.filemanager.utils.files.FileListSorter;
 import com.amaze.filemanager.utils.files.FileUtils;
+import com.amaze.filemanager.utils.files.FolderSizeCalculator;
+import com.amaze.filemanager.utils.files.ListingCache;
 import com.amaze.filemanager.utils.provider.UtilitiesProviderInterface;
 import com.amaze.filemanager.utils.theme.AppTheme;
 
 import java.io.File;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -116,6 +118,8 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
 
     public ActionMode mActionMode;
     public int sortby, dsort, asc;
+    // whether names are sorted in natural order, see FileListSorter
+    public boolean naturalSort;
     public String home;
     public boolean selection, results = false, SHOW_HIDDEN, CIRCULAR_IMAGES, SHOW_PERMISSIONS,
             SHOW_SIZE, SHOW_LAST_MODIFIED;
@@ -248,7 +252,7 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
 
         mSwipeRefreshLayout = (SwipeRefreshLayout) rootView.findViewById(R.id.activity_main_swipe_refresh_layout);
 
-        mSwipeRefreshLayout.setOnRefreshListener(() -> loadlist((CURRENT_PATH), false, openMode));
+        mSwipeRefreshLayout.setOnRefreshListener(() -> refreshList(false));
 
         SHOW_THUMBS = sharedPref.getBoolean("showThumbs", true);
         //String itemsstring = res.getString(R.string.items);// TODO: 23/5/2017 use or delete
@@ -646,6 +650,11 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
                             utilsProvider.getAppTheme());
                     mode.finish();
                     return true;
+                case R.id.hashes:
+                    GeneralDialogCreation.showHashesDialog(checkedItems, (ThemedActivity) getActivity(),
+                            utilsProvider.getAppTheme());
+                    mode.finish();
+                    return true;
                 case R.id.delete:
                     GeneralDialogCreation.deleteFilesDialog(getContext(), LIST_ELEMENTS,
                             getMainActivity(), checkedItems, utilsProvider.getAppTheme());
@@ -999,6 +1008,9 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
 
     LoadFilesListTask loadFilesListTask;
 
+    // path of the listing partially shown while LoadFilesListTask streams it, null if none
+    private String partialListPath;
+
     /**
      * This loads a path into the MainFragment.
      * @param path the path to be loaded
@@ -1014,12 +1026,13 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
             loadFilesListTask.cancel(true);
         }
 
+        partialListPath = null;
         loadFilesListTask = new LoadFilesListTask(ma.getActivity(), path, ma, openMode, (data) -> {
             if (data != null && data.second != null) {
                 setListElements(data.second, back, path, data.first, false, checkPathIsGrid(path));
                 mSwipeRefreshLayout.setRefreshing(false);
             }
-        });
+        }, (data) -> setPartialListElements(data.second, path, data.first, checkPathIsGrid(path)));
         loadFilesListTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
     }
@@ -1028,7 +1041,7 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
         nofilesview = (SwipeRefreshLayout) rootView.findViewById(R.id.nofilelayout);
         nofilesview.setColorSchemeColors(accentColor);
         nofilesview.setOnRefreshListener(() -> {
-            loadlist((CURRENT_PATH), false, openMode);
+            refreshList(false);
             nofilesview.setRefreshing(false);
         });
         if (utilsProvider.getAppTheme().equals(AppTheme.LIGHT)) {
@@ -1101,38 +1114,39 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
         }
     }
 
-    public void reloadListElements(boolean back, boolean results, boolean grid) {
-        if (isAdded()) {
-            boolean isOtg = CURRENT_PATH.equals(OTGUtil.PREFIX_OTG + "/"),
-                    isOnTheCloud = CURRENT_PATH.equals(CloudHandler.CLOUD_PREFIX_GOOGLE_DRIVE + "/")
-                            || CURRENT_PATH.equals(CloudHandler.CLOUD_PREFIX_ONE_DRIVE + "/")
-                            || CURRENT_PATH.equals(CloudHandler.CLOUD_PREFIX_BOX + "/")
-                            || CURRENT_PATH.equals(CloudHandler.CLOUD_PREFIX_DROPBOX + "/");
+    /**
+     * Shows the part of a directory listed so far, while {@link LoadFilesListTask} still lists it.
+     * The complete listing is then set as usual with {@link #setListElements}.
+     *
+     * @param elements the sorted elements found so far
+     * @param path     the path being listed
+     * @param openMode the type of file being listed
+     * @param grid     whether to set grid view or list view
+     */
+    public void setPartialListElements(ArrayList<LayoutElementParcelable> elements, String path,
+                                       OpenMode openMode, boolean grid) {
+        if (!isAdded()) return;
 
-            if (GO_BACK_ITEM && !CURRENT_PATH.equals("/")
-                    && (openMode == OpenMode.FILE || openMode == OpenMode.ROOT) && !isOtg && !isOnTheCloud
-                    && (LIST_ELEMENTS.size() == 0 || !LIST_ELEMENTS.get(0).size.equals(getString(R.string.goback)))) {
-                LIST_ELEMENTS.add(0, getBackElement());
-            }
+        LIST_ELEMENTS = elements;
+        CURRENT_PATH = path;
+        this.openMode = openMode;
 
-            if (LIST_ELEMENTS.size() == 0 && !results) {
-                nofilesview.setVisibility(View.VISIBLE);
-                listView.setVisibility(View.GONE);
-                mSwipeRefreshLayout.setEnabled(false);
-            } else {
-                mSwipeRefreshLayout.setEnabled(true);
-                nofilesview.setVisibility(View.GONE);
-                listView.setVisibility(View.VISIBLE);
-            }
+        if (path.equals(partialListPath) && listView.getAdapter() == adapter) {
+            addBackElement();
+            adapter.setItems(listView, new ArrayList<>(LIST_ELEMENTS));
+        } else {
+            partialListPath = path;
+            showListElements(false, grid, true);
+        }
+    }
 
-            if (grid && IS_LIST) switchToGrid();
-            else if (!grid && !IS_LIST) switchToList();
+    public void reloadListElements(boolean back, boolean results, boolean grid) {
+        if (isAdded()) {
+            // keep the adapter (and the scroll) of a listing partially shown already
+            boolean shownPartially = CURRENT_PATH.equals(partialListPath) && listView.getAdapter() == adapter;
+            partialListPath = null;
 
-            if (adapter == null) {
-                adapter = new RecyclerAdapter(ma, utilsProvider, sharedPref, listView, LIST_ELEMENTS, ma.getActivity(), SHOW_HEADERS);
-            } else {
-                adapter.setItems(listView, new ArrayList<>(LIST_ELEMENTS));
-            }
+            showListElements(results, grid, !shownPartially);
 
             stopAnims = true;
 
@@ -1140,19 +1154,6 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
                 dataUtils.addHistoryFile(CURRENT_PATH);
             }
 
-            listView.setAdapter(adapter);
-
-            if (!addheader) {
-                listView.removeItemDecoration(dividerItemDecoration);
-                addheader = true;
-            }
-
-            if (addheader && IS_LIST) {
-                dividerItemDecoration = new DividerItemDecoration(getActivity(), true, SHOW_DIVIDERS);
-                listView.addItemDecoration(dividerItemDecoration);
-                addheader = false;
-            }
-
             if (!results) {
                 this.results = false;
             }
@@ -1188,6 +1189,63 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
         }
     }
 
+    /**
+     * Puts {@link #LIST_ELEMENTS} in the adapter and shows either the list or the 'no files' view
+     *
+     * @param attachAdapter whether to set the adapter to the list again, which resets the scroll
+     */
+    private void showListElements(boolean results, boolean grid, boolean attachAdapter) {
+        addBackElement();
+
+        if (LIST_ELEMENTS.size() == 0 && !results) {
+            nofilesview.setVisibility(View.VISIBLE);
+            listView.setVisibility(View.GONE);
+            mSwipeRefreshLayout.setEnabled(false);
+        } else {
+            mSwipeRefreshLayout.setEnabled(true);
+            nofilesview.setVisibility(View.GONE);
+            listView.setVisibility(View.VISIBLE);
+        }
+
+        if (grid && IS_LIST) switchToGrid();
+        else if (!grid && !IS_LIST) switchToList();
+
+        if (adapter == null) {
+            adapter = new RecyclerAdapter(ma, utilsProvider, sharedPref, listView, LIST_ELEMENTS, ma.getActivity(), SHOW_HEADERS);
+        } else {
+            adapter.setItems(listView, new ArrayList<>(LIST_ELEMENTS));
+        }
+
+        if (attachAdapter || listView.getAdapter() != adapter) {
+            listView.setAdapter(adapter);
+        }
+
+        if (!addheader) {
+            listView.removeItemDecoration(dividerItemDecoration);
+            addheader = true;
+        }
+
+        if (addheader && IS_LIST) {
+            dividerItemDecoration = new DividerItemDecoration(getActivity(), true, SHOW_DIVIDERS);
+            listView.addItemDecoration(dividerItemDecoration);
+            addheader = false;
+        }
+    }
+
+    private void addBackElement() {
+        boolean isOtg = CURRENT_PATH.equals(OTGUtil.PREFIX_OTG + "/"),
+                isOnTheCloud = CURRENT_PATH.equals(CloudHandler.CLOUD_PREFIX_GOOGLE_DRIVE + "/")
+                        || CURRENT_PATH.equals(CloudHandler.CLOUD_PREFIX_ONE_DRIVE + "/")
+                        || CURRENT_PATH.equals(CloudHandler.CLOUD_PREFIX_BOX + "/")
+                        || CURRENT_PATH.equals(CloudHandler.CLOUD_PREFIX_DROPBOX + "/");
+
+        if (GO_BACK_ITEM && !CURRENT_PATH.equals("/")
+                && (openMode == OpenMode.FILE || openMode == OpenMode.ROOT) && !isOtg && !isOnTheCloud
+                && (LIST_ELEMENTS.size() == 0 || !LIST_ELEMENTS.get(0).size.equals(getString(R.string.goback)))) {
+            LIST_ELEMENTS.add(0, getBackElement());
+        }
+    }
+
     private LayoutElementParcelable getBackElement() {
         if (back == null) {
             back = new LayoutElementParcelable("..", "", "",
@@ -1404,7 +1462,17 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
 
     public void updateList() {
         computeScroll();
-        loadlist((CURRENT_PATH), true, openMode);
+        refreshList(true);
+    }
+
+    /**
+     * Lists the current directory again, instead of reusing it's listing from {@link ListingCache}
+     * or the size of it's files from {@link FolderSizeCalculator}
+     */
+    private void refreshList(boolean back) {
+        ListingCache.getInstance().invalidate(CURRENT_PATH);
+        FolderSizeCalculator.invalidate(CURRENT_PATH);
+        loadlist(CURRENT_PATH, back, openMode);
     }
 
     /**
@@ -1425,6 +1493,7 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
         }
 
         dsort = Integer.parseInt(sharedPref.getString("dirontop", "0"));
+        naturalSort = sharedPref.getBoolean(PrefFrag.PREFERENCE_NATURAL_SORT, false);
     }
 
     @Override
@@ -1639,7 +1708,7 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
-                Collections.sort(LIST_ELEMENTS, new FileListSorter(dsort, sortby, asc));
+                new FileListSorter(dsort, sortby, asc, naturalSort).sort(LIST_ELEMENTS);
                 return null;
             }
 
@@ -1667,6 +1736,7 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
                     }
                     */
 
+                    BlockCache.setSpillDirectory(new File(activity.getCacheDir(), BlockCache.SPILL_DIRECTORY));
                     s.setStreamSrc(smbFile, si);
                     activity.runOnUiThread(() -> {
                         try {
@@ -22,6 +22,7 @@ public class SearchWorkerFragment extends Fragment {
     public static final String KEY_ROOT_MODE = "root_mode";
     public static final String KEY_REGEX = "regex";
     public static final String KEY_REGEX_MATCHES = "matches";
+    public static final String KEY_MAX_DEPTH = "max_depth";
 
     public SearchAsyncTask mSearchAsyncTask;
 
@@ -56,9 +57,11 @@ public class SearchWorkerFragment extends Fragment {
         boolean mRootMode = getArguments().getBoolean(KEY_ROOT_MODE);
         boolean isRegexEnabled = getArguments().getBoolean(KEY_REGEX);
         boolean isMatchesEnabled = getArguments().getBoolean(KEY_REGEX_MATCHES);
+        // levels of subdirectories to search, no limit by default
+        int mMaxDepth = getArguments().getInt(KEY_MAX_DEPTH, -1);
 
         mSearchAsyncTask = new SearchAsyncTask(getActivity(), mCallbacks, mInput, mOpenMode,
-                mRootMode, isRegexEnabled, isMatchesEnabled);
+                mRootMode, isRegexEnabled, isMatchesEnabled, mMaxDepth);
         mSearchAsyncTask.execute(mPath);
     }
 
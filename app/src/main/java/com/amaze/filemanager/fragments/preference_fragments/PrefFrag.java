@@ -66,15 +66,19 @@ public class PrefFrag extends PreferenceFragment implements Preference.OnPrefere
     private static final String PREFERENCE_KEY_ABOUT = "about";
     private static final String[] PREFERENCE_KEYS =
             {"columns", "theme", "rootmode", "showHidden", "feedback", PREFERENCE_KEY_ABOUT,
-                    "colors", "sidebar_folders", "sidebar_quickaccess", "advancedsearch"};
+                    "colors", "sidebar_folders", "sidebar_quickaccess", "advancedsearch",
+                    PreferenceUtils.KEY_COMPRESSION_LEVEL};
 
     public static final String PREFERENCE_SHOW_SIDEBAR_FOLDERS = "sidebar_folders_enable";
     public static final String PREFERENCE_SHOW_SIDEBAR_QUICKACCESSES = "sidebar_quickaccess_enable";
 
     public static final String PREFERENCE_TEXTEDITOR_NEWSTACK = "texteditor_newstack";
+    public static final String PREFERENCE_TEXTEDITOR_REGEX = "texteditor_regex";
 
     public static final String PREFERENCE_SHOW_HIDDENFILES = "showHidden";
 
+    public static final String PREFERENCE_NATURAL_SORT = "natural_sort";
+
     public static final String PREFERENCE_ROOTMODE = "rootmode";
 
     public static final String PREFERENCE_CHANGEPATHS = "typeablepaths";
@@ -212,6 +216,20 @@ public class PrefFrag extends PreferenceFragment implements Preference.OnPrefere
                 builder.title(R.string.theme);
                 builder.build().show();
                 return true;
+            case PreferenceUtils.KEY_COMPRESSION_LEVEL:
+                sort = getResources().getStringArray(R.array.compression_levels);
+                current = Integer.parseInt(sharedPref.getString(PreferenceUtils.KEY_COMPRESSION_LEVEL,
+                        "" + PreferenceUtils.DEFAULT_COMPRESSION_LEVEL));
+                builder = new MaterialDialog.Builder(getActivity());
+                builder.theme(utilsProvider.getAppTheme().getMaterialDialogTheme());
+                builder.title(R.string.compression_level);
+                builder.items(sort).itemsCallbackSingleChoice(current, (dialog, view, which, text) -> {
+                    sharedPref.edit().putString(PreferenceUtils.KEY_COMPRESSION_LEVEL, "" + which).commit();
+                    dialog.dismiss();
+                    return true;
+                });
+                builder.build().show();
+                return true;
             case "feedback":
                 Intent emailIntent = new Intent(Intent.ACTION_SENDTO, Uri.fromParts(
                         "mailto", "vishalmeham2@gmail.com", null));
@@ -33,6 +33,7 @@ import com.amaze.filemanager.activities.superclasses.BasicActivity;
 import com.amaze.filemanager.activities.superclasses.ThemedActivity;
 import com.amaze.filemanager.adapters.HiddenAdapter;
 import com.amaze.filemanager.asynchronous.asynctasks.CountItemsOrAndSizeTask;
+import com.amaze.filemanager.asynchronous.asynctasks.GenerateBatchHashesTask;
 import com.amaze.filemanager.asynchronous.asynctasks.GenerateHashesTask;
 import com.amaze.filemanager.asynchronous.asynctasks.LoadFolderSpaceDataTask;
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
@@ -491,6 +492,31 @@ public class GeneralDialogCreation {
         */
     }
 
+    /**
+     * Shows the hashes of several files, directories are skipped
+     */
+    public static void showHashesDialog(ArrayList<LayoutElementParcelable> elements, ThemedActivity activity,
+                                        AppTheme appTheme) {
+        ArrayList<HybridFileParcelable> files = new ArrayList<>();
+        for (LayoutElementParcelable element : elements) {
+            if (!element.isDirectory) files.add(element.generateBaseFile());
+        }
+
+        int accentColor = activity.getColorPreference().getColor(ColorUsage.ACCENT);
+        MaterialDialog dialog = new MaterialDialog.Builder(activity)
+                .title(R.string.checksums)
+                .content(R.string.calculating)
+                .theme(appTheme.getMaterialDialogTheme())
+                .positiveText(R.string.ok)
+                .positiveColor(accentColor)
+                .build();
+
+        final GenerateBatchHashesTask task = new GenerateBatchHashesTask(activity, files, dialog);
+        dialog.setOnDismissListener(d -> task.cancel(true));
+        dialog.show();
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
     public static class SizeFormatter implements IValueFormatter {
 
         private Context context;
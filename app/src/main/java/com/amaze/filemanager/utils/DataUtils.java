@@ -2,6 +2,7 @@ package com.amaze.filemanager.utils;
 
 import com.amaze.filemanager.adapters.data.DrawerItem;
 import com.amaze.filemanager.utils.application.AppConfig;
+import com.amaze.filemanager.utils.files.ListingCache;
 import com.cloudrail.si.interfaces.CloudStorage;
 import com.cloudrail.si.services.Box;
 import com.cloudrail.si.services.Dropbox;
@@ -11,6 +12,7 @@ import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
 import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
 import com.googlecode.concurrenttrees.radix.node.concrete.voidvalue.VoidValue;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -232,6 +234,8 @@ public class DataUtils {
 
             hiddenfiles.put(i, VoidValue.SINGLETON);
         }
+        // listings of the parent were made with the previous hidden files
+        ListingCache.getInstance().invalidate(new File(i).getParent());
         if (dataChangeListener != null) {
             AppConfig.runInBackground(() -> dataChangeListener.onHiddenFileAdded(i));
         }
@@ -243,6 +247,8 @@ public class DataUtils {
 
             hiddenfiles.remove(i);
         }
+        // listings of the parent were made with the previous hidden files
+        ListingCache.getInstance().invalidate(new File(i).getParent());
         if (dataChangeListener != null) {
             AppConfig.runInBackground(() -> dataChangeListener.onHiddenFileRemoved(i));
         }
@@ -358,7 +358,7 @@ public class MainActivityHelper {
             Intent intent2 = new Intent(mainActivity, ZipService.class);
             intent2.putExtra(ZipService.KEY_COMPRESS_PATH, file.getPath());
             intent2.putExtra(ZipService.KEY_COMPRESS_FILES, baseFiles);
-            ServiceWatcherUtil.runService(mainActivity, intent2);
+            OperationScheduler.getInstance(mainActivity).schedule(intent2);
         } else Toast.makeText(mainActivity, R.string.not_allowed, Toast.LENGTH_SHORT).show();
     }
 
@@ -0,0 +1,288 @@
+package com.amaze.filemanager.utils;
+
+import android.app.NotificationManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Environment;
+import android.support.v4.app.NotificationCompat;
+
+import com.amaze.filemanager.R;
+import com.amaze.filemanager.asynchronous.services.CopyService;
+import com.amaze.filemanager.asynchronous.services.EncryptService;
+import com.amaze.filemanager.asynchronous.services.ExtractService;
+import com.amaze.filemanager.asynchronous.services.ZipService;
+import com.amaze.filemanager.database.CloudHandler;
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.ui.notifications.NotificationConstants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Schedules the long running operations (copy, move, compress, extract, encrypt and decrypt),
+ * which are all run by their respective service.
+ *
+ * An operation starts as soon as nothing else is running on the devices it touches
+ * (internal storage, a particular SD card or OTG device, an SMB host, a cloud account),
+ * so an SD card copy and an SMB upload or extraction can run side by side.
+ *
+ * {@link CopyService} runs any number of operations at once, the other services track only one
+ * operation at a time (notification, process viewer): their operations are serialized, eg. two
+ * extractions run one after the other even on different devices.
+ *
+ * Pending operations are ordered by priority, then by the time they were scheduled. The intent
+ * starting an operation holds it's id in {@link #KEY_OPERATION_ID}: services must call
+ * {@link #onOperationFinished(int)} when it's done, or {@link #onOperationFinished(Class)}
+ * when they stop, which immediately starts the next operations that can run.
+ */
+public class OperationScheduler {
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+
+    // user is waiting for the result, eg. decrypting a file to open it
+    public static final int PRIORITY_HIGH = 2;
+
+    public static final int ID_NOTIFICATION_WAIT =  9248;
+
+    // extra of the intents of the operations started, their id
+    public static final String KEY_OPERATION_ID = "operation_id";
+
+    private static final String DEVICE_INTERNAL = "internal";
+    private static final String DEVICE_ROOT = "/";
+
+    private static OperationScheduler instance;
+
+    private final Context context;
+    private final NotificationManager notificationManager;
+
+    private final PriorityQueue<Operation> pendingOperations = new PriorityQueue<>();
+    private final HashMap<Integer, Operation> runningOperations = new HashMap<>();
+
+    private int nextId = 0;
+
+    private OperationScheduler(Context context) {
+        this.context = context.getApplicationContext();
+        this.notificationManager = (NotificationManager) this.context
+                .getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    public static synchronized OperationScheduler getInstance(Context context) {
+        if (instance == null) instance = new OperationScheduler(context);
+        return instance;
+    }
+
+    /**
+     * Schedules an operation with default priority, see {@link #schedule(Intent, int)}
+     */
+    public void schedule(Intent intent) {
+        int priority = PRIORITY_NORMAL;
+        if (intent.getBooleanExtra(EncryptService.TAG_BROADCAST_RESULT, false)) {
+            // decrypting to open the file, the user is waiting
+            priority = PRIORITY_HIGH;
+        }
+
+        schedule(intent, priority);
+    }
+
+    /**
+     * Starts the operation right away if it's devices and service are free, queues it otherwise
+     *
+     * @param intent intent to start the service of the operation
+     * @param priority one of {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL}, {@link #PRIORITY_HIGH}
+     */
+    public synchronized void schedule(Intent intent, int priority) {
+        pendingOperations.add(new Operation(nextId++, intent, priority, findDevices(intent)));
+        startPendingOperations();
+    }
+
+    /**
+     * Frees the devices held by the operation, and starts the next ones
+     *
+     * @param operationId the {@link #KEY_OPERATION_ID} of the intent which started it
+     */
+    public synchronized void onOperationFinished(int operationId) {
+        if (runningOperations.remove(operationId) != null) startPendingOperations();
+    }
+
+    /**
+     * Frees the devices held by the operations of the service, and starts the next ones
+     *
+     * @param serviceClass the service which has stopped
+     */
+    public synchronized void onOperationFinished(Class serviceClass) {
+        boolean removed = false;
+        Iterator<Operation> iterator = runningOperations.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().serviceClass == serviceClass) {
+                iterator.remove();
+                removed = true;
+            }
+        }
+        if (removed) startPendingOperations();
+    }
+
+    private void startPendingOperations() {
+        ArrayList<Operation> startable = new ArrayList<>();
+        HashSet<String> busyDevices = new HashSet<>();
+        for (Operation operation : runningOperations.values()) busyDevices.addAll(operation.devices);
+
+        // walk the queue in priority order, an operation waiting for a device keeps it reserved
+        // so that lower priority operations can't overtake it there
+        PriorityQueue<Operation> ordered = new PriorityQueue<>(pendingOperations);
+        HashSet<Class> busyServices = new HashSet<>();
+        for (Operation operation : runningOperations.values()) {
+            if (!isConcurrent(operation.serviceClass)) busyServices.add(operation.serviceClass);
+        }
+        while (!ordered.isEmpty()) {
+            Operation operation = ordered.poll();
+            boolean free = !busyServices.contains(operation.serviceClass)
+                    && !containsAny(busyDevices, operation.devices);
+
+            if (free) startable.add(operation);
+            if (!isConcurrent(operation.serviceClass)) busyServices.add(operation.serviceClass);
+            busyDevices.addAll(operation.devices);
+        }
+
+        for (Operation operation : startable) {
+            pendingOperations.remove(operation);
+            runningOperations.put(operation.id, operation);
+            operation.intent.putExtra(KEY_OPERATION_ID, operation.id);
+            context.startService(operation.intent);
+        }
+
+        updateWaitingNotification();
+    }
+
+    private void updateWaitingNotification() {
+        if (pendingOperations.isEmpty()) {
+            notificationManager.cancel(ID_NOTIFICATION_WAIT);
+            return;
+        }
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context,
+                NotificationConstants.CHANNEL_NORMAL_ID)
+                .setContentTitle(context.getString(R.string.waiting_title))
+                .setContentText(context.getString(R.string.waiting_content))
+                .setAutoCancel(false)
+                .setSmallIcon(R.drawable.ic_all_inclusive_white_36dp)
+                .setProgress(0, 0, true);
+
+        NotificationConstants.setMetadata(context, builder);
+        notificationManager.notify(ID_NOTIFICATION_WAIT, builder.build());
+    }
+
+    /**
+     * @return whether the service runs several operations at once
+     */
+    private static boolean isConcurrent(Class serviceClass) {
+        return serviceClass == CopyService.class;
+    }
+
+    private static boolean containsAny(Set<String> set, Set<String> values) {
+        for (String value : values) {
+            if (set.contains(value)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the devices read or written by the operation from the extras of it's intent
+     */
+    private static Set<String> findDevices(Intent intent) {
+        HashSet<String> devices = new HashSet<>();
+        ComponentName component = intent.getComponent();
+        String className = component != null ? component.getClassName() : "";
+
+        if (className.equals(CopyService.class.getName())) {
+            ArrayList<HybridFileParcelable> sources = intent.getParcelableArrayListExtra(CopyService.TAG_COPY_SOURCES);
+            if (sources != null) {
+                for (HybridFileParcelable source : sources) devices.add(getDevice(source.getPath()));
+            }
+            devices.add(getDevice(intent.getStringExtra(CopyService.TAG_COPY_TARGET)));
+        } else if (className.equals(ZipService.class.getName())) {
+            ArrayList<HybridFileParcelable> sources = intent.getParcelableArrayListExtra(ZipService.KEY_COMPRESS_FILES);
+            if (sources != null) {
+                for (HybridFileParcelable source : sources) devices.add(getDevice(source.getPath()));
+            }
+            devices.add(getDevice(intent.getStringExtra(ZipService.KEY_COMPRESS_PATH)));
+        } else if (className.equals(ExtractService.class.getName())) {
+            devices.add(getDevice(intent.getStringExtra(ExtractService.KEY_PATH_ZIP)));
+            devices.add(getDevice(intent.getStringExtra(ExtractService.KEY_PATH_EXTRACT)));
+        } else if (className.equals(EncryptService.class.getName())) {
+            HybridFileParcelable source = intent.getParcelableExtra(EncryptService.TAG_SOURCE);
+            if (source != null) devices.add(getDevice(source.getPath()));
+            devices.add(getDevice(intent.getStringExtra(EncryptService.TAG_DECRYPT_PATH)));
+        }
+
+        devices.remove(null);
+        return devices;
+    }
+
+    /**
+     * Maps a path to the device storing it, eg. "smb://host", "otg:/", "/storage/ABCD-1234"
+     */
+    static String getDevice(String path) {
+        if (path == null) return null;
+
+        if (path.startsWith("smb://")) {
+            int end = path.indexOf('/', "smb://".length());
+            return end == -1 ? path : path.substring(0, end);
+        }
+
+        String[] prefixes = {OTGUtil.PREFIX_OTG, CloudHandler.CLOUD_PREFIX_BOX, CloudHandler.CLOUD_PREFIX_DROPBOX,
+                CloudHandler.CLOUD_PREFIX_GOOGLE_DRIVE, CloudHandler.CLOUD_PREFIX_ONE_DRIVE};
+        for (String prefix : prefixes) {
+            if (path.startsWith(prefix)) return prefix;
+        }
+
+        String internal = Environment.getExternalStorageDirectory().getPath();
+        if (path.startsWith(internal) || path.startsWith("/sdcard")) return DEVICE_INTERNAL;
+
+        if (path.startsWith("/storage/") || path.startsWith("/mnt/media_rw/")) {
+            // mount point of an sd card or usb drive, the segment after the parent directory
+            int start = path.indexOf('/', 1) + 1;
+            if (path.startsWith("/mnt/media_rw/")) start = path.indexOf('/', start) + 1;
+            int end = path.indexOf('/', start);
+            return end == -1 ? path : path.substring(0, end);
+        }
+
+        return DEVICE_ROOT;
+    }
+
+    private static class Operation implements Comparable<Operation> {
+        final int id;
+        final Intent intent;
+        final int priority;
+        final Set<String> devices;
+        final Class serviceClass;
+
+        Operation(int id, Intent intent, int priority, Set<String> devices) {
+            this.id = id;
+            this.intent = intent;
+            this.priority = priority;
+            this.devices = devices;
+
+            Class serviceClass = null;
+            try {
+                ComponentName component = intent.getComponent();
+                if (component != null) serviceClass = Class.forName(component.getClassName());
+            } catch (ClassNotFoundException e) {
+                e.printStackTrace();
+            }
+            this.serviceClass = serviceClass != null ? serviceClass : Operation.class;
+        }
+
+        @Override
+        public int compareTo(Operation other) {
+            // higher priority first, then in order of scheduling
+            if (priority != other.priority) return other.priority - priority;
+            return id - other.id;
+        }
+    }
+}
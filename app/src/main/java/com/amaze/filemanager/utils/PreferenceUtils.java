@@ -14,11 +14,26 @@ public class PreferenceUtils {
     public static final String KEY_CURRENT_TAB = "current_tab";
     public static final String KEY_ROOT = "rootmode";
     public static final String KEY_PATH_COMPRESS = "zippath";
+    public static final String KEY_COPY_WORKERS_FILE = "copy_workers_file";
+    public static final String KEY_COPY_WORKERS_OTG = "copy_workers_otg";
+    public static final String KEY_COPY_WORKERS_SMB = "copy_workers_smb";
+    public static final String KEY_COPY_CHUNK_SIZE_FILE = "copy_chunk_size_file";
+    public static final String KEY_COPY_CHUNK_SIZE_OTG = "copy_chunk_size_otg";
+    public static final String KEY_COPY_CHUNK_SIZE_SMB = "copy_chunk_size_smb";
+    public static final String KEY_COMPRESSION_LEVEL = "compression_level";
 
     public static final int DEFAULT_PRIMARY = 4;
     public static final int DEFAULT_ACCENT = 1;
     public static final int DEFAULT_ICON = -1;
     public static final int DEFAULT_CURRENT_TAB = 1;
+    public static final int DEFAULT_COPY_WORKERS_FILE = Math.min(4, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_COPY_WORKERS_OTG = 1;
+    public static final int DEFAULT_COPY_WORKERS_SMB = 3;
+    public static final long DEFAULT_COPY_CHUNK_SIZE_FILE = 16 * 1024 * 1024;
+    public static final long DEFAULT_COPY_CHUNK_SIZE_OTG = 0;
+    public static final long DEFAULT_COPY_CHUNK_SIZE_SMB = 0;
+    // index in R.array.compression_levels
+    public static final int DEFAULT_COMPRESSION_LEVEL = 2;
 
     public static int getStatusColor(String skin) {
         return darker(Color.parseColor(skin));
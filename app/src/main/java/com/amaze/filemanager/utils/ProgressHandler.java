@@ -14,25 +14,22 @@ import com.amaze.filemanager.fragments.ProcessViewerFragment;
 public class ProgressHandler {
 
     // total number of bytes to be processed
-    long totalSize = 0L;
+    private volatile long totalSize = 0L;
 
-    // total bytes written in process so far
-    long writtenSize = 0L;
+    // total bytes written in process so far, may be updated by several worker threads at once
+    private final StripedCounter writtenSize = new StripedCounter();
 
     // total number of source files to be processed
-    int sourceFiles = 0;
+    private final int sourceFiles;
 
     // number of source files processed so far
-    int sourceFilesProcessed = 0;
+    private volatile int sourceFilesProcessed = 0;
 
     // file name currently being processed
-    String fileName;
-
-    // current processing speed (bytes processed in 1000ms time)
-    int speedRaw = 0;
+    private volatile String fileName;
 
     // boolean manages the lifecycle of service and whether it should be canceled
-    private boolean isCancelled = false;
+    private volatile boolean isCancelled = false;
 
     // callback interface to interact with process viewer fragment and notification
     ProgressListener progressListener;
@@ -47,46 +44,80 @@ public class ProgressHandler {
     }
 
     /**
-     * publish progress after calculating the write length
+     * Adds to the number of bytes processed, lock free so it can be called from the worker
+     * threads for every buffer written
+     *
+     * @param count number of bytes processed
+     */
+    public void addWrittenLength(long count) {
+        writtenSize.add(count);
+    }
+
+    /**
+     * Reads the current state of the operation
      *
-     * @param newPosition the position of byte for file being processed
+     * @param previous the last snapshot taken, to compute the throughput, null for the first one
      */
-    public synchronized void addWrittenLength(long newPosition) {
+    public Snapshot takeSnapshot(Snapshot previous) {
+        long now = System.currentTimeMillis();
+        long written = writtenSize.sum();
+
+        int speed = 0;
+        if (previous != null && now > previous.time) {
+            speed = (int) ((written - previous.writtenSize) * 1000 / (now - previous.time));
+        }
 
-        this.speedRaw = (int) (newPosition - writtenSize);
-        this.writtenSize = newPosition;
+        return new Snapshot(now, fileName, sourceFilesProcessed, totalSize, written, speed);
+    }
+
+    /**
+     * Reads the state of a finished operation, the written size being the total size
+     */
+    public Snapshot takeFinalSnapshot(Snapshot previous) {
+        Snapshot snapshot = takeSnapshot(previous);
+        return new Snapshot(snapshot.time, snapshot.fileName, sourceFiles, snapshot.totalSize,
+                snapshot.totalSize, snapshot.speed);
+    }
 
-        progressListener.onProgressed(fileName, sourceFiles, sourceFilesProcessed,
-                totalSize, writtenSize, speedRaw);
+    /**
+     * publish progress from a snapshot taken by {@link #takeSnapshot(Snapshot)}
+     */
+    public void publish(Snapshot snapshot) {
+        progressListener.onProgressed(snapshot.fileName, sourceFiles, snapshot.sourceFilesProcessed,
+                snapshot.totalSize, snapshot.writtenSize, snapshot.speed);
     }
 
-    public synchronized void setFileName(String fileName) {
+    public void setFileName(String fileName) {
         this.fileName = fileName;
     }
 
-    public synchronized String getFileName() {
+    public String getFileName() {
         return this.fileName;
     }
 
-    public synchronized void setSourceFilesProcessed(int sourceFilesProcessed) {
+    public void setSourceFilesProcessed(int sourceFilesProcessed) {
         this.sourceFilesProcessed = sourceFilesProcessed;
     }
 
     // dynamically setting total size, useful in case files are compressed
-    public synchronized void setTotalSize(long totalSize) {
+    public void setTotalSize(long totalSize) {
         this.totalSize = totalSize;
     }
 
-    public synchronized void setCancelled(boolean isCancelled) {
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public void setCancelled(boolean isCancelled) {
         this.isCancelled = isCancelled;
     }
 
-    public synchronized boolean getCancelled() {
+    public boolean getCancelled() {
         return this.isCancelled;
     }
 
-    public synchronized long getWrittenSize() {
-        return writtenSize;
+    public long getWrittenSize() {
+        return writtenSize.sum();
     }
 
     public void setProgressListener(ProgressListener progressListener) {
@@ -110,4 +141,28 @@ public class ProgressHandler {
         void onProgressed(String fileName, int sourceFiles, int sourceProgress, long totalSize,
                           long writtenSize, int speed);
     }
+
+    /**
+     * Values of the progress read at one moment by the watcher
+     */
+    public static class Snapshot {
+        final long time;
+        public final String fileName;
+        public final int sourceFilesProcessed;
+        public final long totalSize;
+        public final long writtenSize;
+
+        // bytes processed per second since the previous snapshot
+        public final int speed;
+
+        Snapshot(long time, String fileName, int sourceFilesProcessed, long totalSize,
+                 long writtenSize, int speed) {
+            this.time = time;
+            this.fileName = fileName;
+            this.sourceFilesProcessed = sourceFilesProcessed;
+            this.totalSize = totalSize;
+            this.writtenSize = writtenSize;
+            this.speed = speed;
+        }
+    }
 }
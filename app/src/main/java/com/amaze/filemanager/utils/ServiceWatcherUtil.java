@@ -3,39 +3,23 @@ package com.amaze.filemanager.utils;
 /**
  * Created by vishal on 4/1/17.
  *
- * Helper class providing helper methods to manage Service startup and it's progress
- * Be advised - this class can only handle progress with one object at a time. Hence, class also provides
- * convenience methods to serialize the service startup.
+ * Helper class watching over the progress of a service operation, see {@link OperationScheduler}
+ * for the startup of the services.
  */
 
-import android.app.NotificationManager;
-import android.content.Context;
-import android.content.Intent;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.support.v4.app.NotificationCompat;
-
-import com.amaze.filemanager.R;
-import com.amaze.filemanager.ui.notifications.NotificationConstants;
-
-import java.util.ArrayList;
 
 public class ServiceWatcherUtil {
 
     private Handler handler;
-    private static HandlerThread handlerThread;
+    private HandlerThread watcherThread;
     private ProgressHandler progressHandler;
     long totalSize;
     private Runnable runnable;
 
-    private static ArrayList<Intent> pendingIntents = new ArrayList<>();
-
-    // position of byte in total byte size to be copied
-    public static long POSITION = 0L;
-
-    private static int HAULT_COUNTER = -1;
-
-    public static final int ID_NOTIFICATION_WAIT =  9248;
+    // last progress read by the watcher, used to compute the throughput
+    private ProgressHandler.Snapshot lastSnapshot;
 
     /**
      *
@@ -45,17 +29,16 @@ public class ServiceWatcherUtil {
     public ServiceWatcherUtil(ProgressHandler progressHandler, long totalSize) {
         this.progressHandler = progressHandler;
         this.totalSize = totalSize;
-        POSITION = 0L;
-        HAULT_COUNTER = -1;
 
-        handlerThread = new HandlerThread("service_progress_watcher");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
+        watcherThread = new HandlerThread("service_progress_watcher");
+        watcherThread.start();
+        handler = new Handler(watcherThread.getLooper());
     }
 
     /**
      * Watches over the service progress without interrupting the worker thread in respective services
-     * Method frees up all the resources and handlers after operation completes.
+     * Method frees up all the resources and handlers after operation completes, or when
+     * {@link #stopWatch()} is called by the service.
      */
     public void watch() {
         runnable = new Runnable() {
@@ -63,33 +46,21 @@ public class ServiceWatcherUtil {
             public void run() {
 
                 // we don't have a file name yet, wait for service to set
-                if (progressHandler.getFileName()==null) handler.postDelayed(this, 1000);
+                if (progressHandler.getFileName()==null) {
+                    handler.postDelayed(this, 1000);
+                    return;
+                }
 
-                progressHandler.addWrittenLength(POSITION);
+                lastSnapshot = progressHandler.takeSnapshot(lastSnapshot);
+                progressHandler.publish(lastSnapshot);
 
-                if (POSITION == totalSize || progressHandler.getCancelled()) {
+                if (lastSnapshot.writtenSize >= totalSize || progressHandler.getCancelled()) {
                     // process complete, free up resources
                     // we've finished the work or process cancelled
                     handler.removeCallbacks(this);
-                    handlerThread.quit();
+                    watcherThread.quit();
                     return;
                 }
-
-                if (POSITION == progressHandler.getWrittenSize()) {
-                    HAULT_COUNTER++;
-
-                    if (HAULT_COUNTER>10) {
-                        // we suspect the progress has been haulted for some reason, stop the watcher
-
-                        // workaround for decryption when we have a length retreived by
-                        // CipherInputStream less than the orginal stream, and hence the total size
-                        // we passed at the beginning is never reached
-                        progressHandler.addWrittenLength(totalSize);
-                        handler.removeCallbacks(this);
-                        handlerThread.quit();
-                        return;
-                    }
-                }
                 handler.postDelayed(this, 1000);
             }
         };
@@ -98,98 +69,23 @@ public class ServiceWatcherUtil {
     }
 
     /**
-     * Manually call runnable, before the delay. Fixes race condition which can arise when
-     * service has finished execution and stopping self, but the runnable is yet scheduled to be posted.
-     * Thus avoids posting any callback after service has stopped.
-     */
-    public void stopWatch() {
-        if (handlerThread.isAlive()) handler.post(runnable);
-    }
-
-    /**
-     * Convenience method to check whether another service is working in background
-     * If a service is found working (by checking {@link #handlerThread} for it's state)
-     * then we wait for an interval of 5 secs, before checking on it again.
+     * Stops the watcher and publishes the final progress from the calling thread, so that nothing
+     * is posted after the service has finished and stopped self.
      *
-     * Be advised - this method is not sure to start a new service, especially when app has been closed
-     * as there are higher chances for android system to GC the thread when it is running low on memory
-     *
-     * @param context
-     * @param intent
+     * The operation is reported as complete unless it was cancelled, as the bytes written
+     * can legitimately differ from the size estimated at start (eg. decryption, where the
+     * decrypted stream is shorter than the encrypted file).
      */
-    public static synchronized void runService(final Context context, final Intent intent) {
-
-        /*if (handlerThread==null || !handlerThread.isAlive()) {
-            // we're not bound, no need to proceed further and waste up resources
-            // start the service directly
-
-            *//**
-             * We can actually end up racing at this point with the {@link HandlerThread} started
-             * in {@link #init(Context)}. If older service has returned, we already have the runnable
-             * waiting to execute in #init, and user is in app, and starts another service, and
-             * as this block executes the {@link android.app.Service#onStartCommand(Intent, int, int)}
-             * we end up with a context switch to 'service_startup_watcher' in #init, it also starts
-             * a new service (as {@link #progressHandler} is not alive yet).
-             * Though chances are very slim, but even if this condition occurs, only the progress will
-             * be flawed, but the actual operation will go fine, due to android's native serial service
-             * execution. #nough' said!
-             *//*
-            context.startService(intent);
-            return;
-        }*/
-
-        if (pendingIntents.size()==0) {
-            init(context);
-        }
-        pendingIntents.add(intent);
+    public void stopWatch() {
+        if (!watcherThread.isAlive()) return;
 
-    }
+        handler.removeCallbacksAndMessages(null);
+        watcherThread.quit();
 
-    /**
-     * Helper method to {@link #runService(Context, Intent)}
-     * Starts the wait watcher thread if not already started.
-     * Halting condition depends on the state of {@link #handlerThread}
-     * @param context
-     */
-    private static synchronized void init(final Context context) {
-
-        final HandlerThread waitingThread = new HandlerThread("service_startup_watcher");
-        waitingThread.start();
-        final Handler handler = new Handler(waitingThread.getLooper());
-        final NotificationManager notificationManager = (NotificationManager)
-                context.getSystemService(Context.NOTIFICATION_SERVICE);
-        final NotificationCompat.Builder mBuilder=new NotificationCompat.Builder(context, NotificationConstants.CHANNEL_NORMAL_ID)
-                .setContentTitle(context.getString(R.string.waiting_title))
-                .setContentText(context.getString(R.string.waiting_content))
-                .setAutoCancel(false)
-                .setSmallIcon(R.drawable.ic_all_inclusive_white_36dp)
-                .setProgress(0, 0, true);
-
-        NotificationConstants.setMetadata(context, mBuilder);
-
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                if (handlerThread==null || !handlerThread.isAlive()) {
-                    // service is been finished, let's start this one
-                    // pop recent intent from pendingIntents
-                    context.startService(pendingIntents.remove(pendingIntents.size()-1));
-
-                    if (pendingIntents.size()==0) {
-                        // we've done all the work, free up resources (if not already killed by system)
-                        notificationManager.cancel(ID_NOTIFICATION_WAIT);
-                        handler.removeCallbacks(this);
-                        waitingThread.quit();
-                        return;
-                    } else {
-
-                        notificationManager.notify(ID_NOTIFICATION_WAIT, mBuilder.build());
-                    }
-                }
-                handler.postDelayed(this, 5000);
-            }
-        };
+        if (runnable == null || progressHandler.getFileName() == null) return;
 
-        handler.postDelayed(runnable, 0);
+        if (!progressHandler.getCancelled()) {
+            progressHandler.publish(progressHandler.takeFinalSnapshot(lastSnapshot));
+        }
     }
 }
@@ -0,0 +1,306 @@
+package com.amaze.filemanager.utils.SmbStreamer;
+
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocks of the media streamed from SMB shares and clouds, so that the bytes a player reads again
+ * (seeking back a few seconds, or going back and forth between the index at the end of a file
+ * and it's data) don't travel over the network again.
+ *
+ * Blocks are kept in memory; those evicted are written to the spill directory, if there's one,
+ * where they're kept until evicted again. Both are LRU. Blocks are fetched once: readers of a
+ * block being fetched wait for it, be it fetched for another reader or by {@link #prefetch}.
+ */
+public class BlockCache {
+
+    private static final String TAG = "BlockCache";
+
+    public static final int BLOCK_SIZE = 256 * 1024;
+
+    // name of the spill directory in the app's cache
+    public static final String SPILL_DIRECTORY = "stream_blocks";
+
+    private static final int MEMORY_SIZE = 8 * 1024 * 1024;
+    private static final int SPILL_SIZE = 64 * 1024 * 1024;
+
+    private static final int PREFETCH_THREADS = 2;
+
+    /**
+     * Where the bytes of a stream come from, reads may come from several threads
+     */
+    public interface Source {
+        /**
+         * @return the same id for the same bytes, whatever the instance
+         */
+        String getId();
+
+        /**
+         * Reads the bytes at the offset until the buffer is full or the source ends
+         *
+         * @return the number of bytes read, -1 at the end of the source
+         */
+        int read(long offset, byte[] buffer) throws IOException;
+    }
+
+    private static final LruCache<Key, byte[]> memory = new LruCache<Key, byte[]>(MEMORY_SIZE) {
+        @Override
+        protected int sizeOf(Key key, byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Key key, byte[] oldValue, byte[] newValue) {
+            if (evicted) spill(key, oldValue);
+        }
+    };
+
+    private static final LruCache<Key, SpilledBlock> spilled = new LruCache<Key, SpilledBlock>(SPILL_SIZE) {
+        @Override
+        protected int sizeOf(Key key, SpilledBlock value) {
+            return value.length;
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Key key, SpilledBlock oldValue, SpilledBlock newValue) {
+            if (newValue == null || !newValue.file.equals(oldValue.file)) oldValue.file.delete();
+        }
+    };
+
+    // blocks being fetched
+    private static final HashMap<Key, Fetch> fetching = new HashMap<>();
+
+    // short numbers for the sources' ids, naming their spilled blocks
+    private static final HashMap<String, Integer> sourceNumbers = new HashMap<>();
+
+    private static volatile File spillDirectory;
+
+    private static final ThreadPoolExecutor prefetcher;
+
+    static {
+        prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "stream_prefetch");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets the directory evicted blocks are written to, it's emptied as blocks spilled by another
+     * run of the app aren't known. Without one only blocks in memory are kept.
+     */
+    public static synchronized void setSpillDirectory(File directory) {
+        if (directory.equals(spillDirectory)) return;
+
+        spillDirectory = null;
+        spilled.evictAll();
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        } else if (!directory.mkdirs()) {
+            Log.w(TAG, "Can't create " + directory.getPath());
+            return;
+        }
+        spillDirectory = directory;
+    }
+
+    /**
+     * @return the block, shorter than {@link #BLOCK_SIZE} only at the end of the source, empty
+     * past it
+     */
+    public static byte[] getBlock(Source source, long index) throws IOException {
+        Key key = new Key(source.getId(), index);
+
+        // a fetch failing for another reader, maybe because it's source was closed, is tried again
+        for (int attempt = 0; ; attempt++) {
+            byte[] block = getCached(key);
+            if (block != null) return block;
+
+            Fetch task;
+            boolean own = false;
+            synchronized (fetching) {
+                task = fetching.get(key);
+                if (task == null || attempt > 0) {
+                    task = newFetch(source, key);
+                    own = true;
+                }
+            }
+            if (own) task.run();
+
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (own || attempt > 0) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches the blocks which aren't cached nor being fetched, in the background
+     *
+     * @param last index of the last block of the source
+     */
+    public static void prefetch(Source source, long from, int count, long last) {
+        for (long index = from; index < from + count && index <= last; index++) {
+            Key key = new Key(source.getId(), index);
+            if (memory.get(key) != null || spilled.get(key) != null) continue;
+
+            Fetch task;
+            synchronized (fetching) {
+                if (fetching.containsKey(key)) continue;
+                task = newFetch(source, key);
+            }
+            prefetcher.execute(task);
+        }
+    }
+
+    /**
+     * Must be called holding the lock of {@link #fetching}
+     */
+    private static Fetch newFetch(final Source source, final Key key) {
+        Fetch task = new Fetch(key, () -> {
+            byte[] block = new byte[BLOCK_SIZE];
+            int read = source.read(key.index * BLOCK_SIZE, block);
+            if (read < BLOCK_SIZE) block = Arrays.copyOf(block, Math.max(read, 0));
+            memory.put(key, block);
+            return block;
+        });
+        fetching.put(key, task);
+        return task;
+    }
+
+    private static byte[] getCached(Key key) {
+        byte[] block = memory.get(key);
+        if (block != null) return block;
+
+        SpilledBlock spilledBlock = spilled.get(key);
+        if (spilledBlock == null) return null;
+
+        block = new byte[spilledBlock.length];
+        try {
+            InputStream inputStream = new FileInputStream(spilledBlock.file);
+            try {
+                int position = 0, read;
+                while (position < block.length
+                        && (read = inputStream.read(block, position, block.length - position)) != -1) {
+                    position += read;
+                }
+                if (position < block.length) return null;
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            spilled.remove(key);
+            return null;
+        }
+
+        memory.put(key, block);
+        return block;
+    }
+
+    private static void spill(Key key, byte[] block) {
+        File directory = spillDirectory;
+        // blocks read back from the directory are still there
+        if (directory == null || block.length == 0 || spilled.get(key) != null) return;
+
+        int sourceNumber;
+        synchronized (sourceNumbers) {
+            Integer number = sourceNumbers.get(key.source);
+            if (number == null) {
+                number = sourceNumbers.size();
+                sourceNumbers.put(key.source, number);
+            }
+            sourceNumber = number;
+        }
+
+        File file = new File(directory, sourceNumber + "_" + key.index);
+        try {
+            OutputStream outputStream = new FileOutputStream(file);
+            try {
+                outputStream.write(block);
+            } finally {
+                outputStream.close();
+            }
+            spilled.put(key, new SpilledBlock(file, block.length));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to spill a block", e);
+            file.delete();
+        }
+    }
+
+    /**
+     * Leaves {@link #fetching} once done, unless it was replaced by another fetch of the block
+     */
+    private static class Fetch extends FutureTask<byte[]> {
+        private final Key key;
+
+        Fetch(Key key, Callable<byte[]> callable) {
+            super(callable);
+            this.key = key;
+        }
+
+        @Override
+        protected void done() {
+            synchronized (fetching) {
+                if (fetching.get(key) == this) fetching.remove(key);
+            }
+        }
+    }
+
+    private static class SpilledBlock {
+        final File file;
+        final int length;
+
+        SpilledBlock(File file, int length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    private static class Key {
+        final String source;
+        final long index;
+
+        Key(String source, long index) {
+            this.source = source;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return index == key.index && source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * source.hashCode() + (int) (index ^ (index >>> 32));
+        }
+    }
+}
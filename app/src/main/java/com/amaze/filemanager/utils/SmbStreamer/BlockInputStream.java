@@ -0,0 +1,78 @@
+package com.amaze.filemanager.utils.SmbStreamer;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a source from a position through the {@link BlockCache}.
+ *
+ * Once the stream is read sequentially, from one block to the next, the blocks after the one
+ * being read are prefetched, so that a playing media doesn't wait for the network. A stream
+ * reading a few bytes somewhere doesn't prefetch anything.
+ */
+public class BlockInputStream extends InputStream {
+
+    // blocks prefetched ahead of the one being read
+    private static final int PREFETCH_BLOCKS = 4;
+
+    private final BlockCache.Source source;
+    private final long length;
+    private long position;
+
+    private byte[] block;
+    private long blockIndex = -2;
+
+    /**
+     * @param length length of the source
+     */
+    public BlockInputStream(BlockCache.Source source, long position, long length) {
+        this.source = source;
+        this.position = position;
+        this.length = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (position >= length) return -1;
+
+        long index = position / BlockCache.BLOCK_SIZE;
+        if (index != blockIndex) {
+            if (index == blockIndex + 1) {
+                BlockCache.prefetch(source, index + 1, PREFETCH_BLOCKS, (length - 1) / BlockCache.BLOCK_SIZE);
+            }
+            block = BlockCache.getBlock(source, index);
+            blockIndex = index;
+        }
+
+        int offset = (int) (position - index * BlockCache.BLOCK_SIZE);
+        // the source ended before it's length
+        if (offset >= block.length) return -1;
+
+        int read = Math.min(len, block.length - offset);
+        System.arraycopy(block, offset, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        if (block == null || position / BlockCache.BLOCK_SIZE != blockIndex) return 0;
+        return Math.max(0, block.length - (int) (position - blockIndex * BlockCache.BLOCK_SIZE));
+    }
+}
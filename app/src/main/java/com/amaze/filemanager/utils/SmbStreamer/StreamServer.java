@@ -6,63 +6,48 @@ package com.amaze.filemanager.utils.SmbStreamer;
 import android.net.Uri;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Date;
-import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
-import java.util.StringTokenizer;
 import java.util.TimeZone;
-import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A simple, tiny, nicely embeddable HTTP 1.0 (partially 1.1) server in Java
+ * A simple, tiny, nicely embeddable HTTP 1.1 server in Java, serving media to players
  *
- * <p> NanoHTTPD version 1.24,
+ * <p> Derived from NanoHTTPD version 1.24,
  * Copyright &copy; 2001,2005-2011 Jarno Elonen (elonen@iki.fi, http://iki.fi/elonen/)
  * and Copyright &copy; 2010 Konstantinos Togias (info@ktogias.gr, http://ktogias.gr)
  *
  * <p><b>Features + limitations: </b><ul>
  *
- *    <li> Only one Java file </li>
- *    <li> Java 1.1 compatible </li>
  *    <li> Released as open source, Modified BSD licence </li>
- *    <li> No fixed config files, logging, authorization etc. (Implement yourself if you need them.) </li>
- *    <li> Supports parameter parsing of GET and POST methods </li>
- *    <li> Supports both dynamic content and file serving </li>
- *    <li> Supports file upload (since version 1.2, 2010) </li>
- *    <li> Supports partial content (streaming)</li>
- *    <li> Supports ETags</li>
+ *    <li> Sessions are handled by a bounded pool of threads, see {@link #MAX_SESSIONS} </li>
+ *    <li> Connections are kept alive between requests, players seeking don't reconnect;
+ *    an idle one gives it's thread up as soon as another connection waits for one </li>
+ *    <li> Supports partial content (streaming), only Content-Length bytes are sent </li>
+ *    <li> Request bodies are skipped, only GET and HEAD make sense </li>
  *    <li> Never caches anything </li>
- *    <li> Doesn't limit bandwidth, request time or simultaneous connections </li>
- *    <li> Default code serves files and shows all HTTP parameters and headers</li>
- *    <li> File server supports directory listing, index.html and index.htm</li>
- *    <li> File server supports partial content (streaming)</li>
- *    <li> File server supports ETags</li>
- *    <li> File server does the 301 redirection trick for directories without '/'</li>
- *    <li> File server supports simple skipping for files (continue download) </li>
- *    <li> File server serves also very long files without memory overhead </li>
- *    <li> Contains a built-in list of most common mime types </li>
  *    <li> All header names are converted lowercase so they don't vary between browsers/clients </li>
  *
  * </ul>
  *
  * <p><b>Ways to use: </b><ul>
  *
- *    <li> Run as a standalone app, serves files and shows requests</li>
  *    <li> Subclass serve() and embed to your own program </li>
- *    <li> Call serveFile() from serve() with your own base directory </li>
  *
  * </ul>
  *
@@ -77,15 +62,12 @@ public abstract class StreamServer {
     /**
      * Override this to customize the server.<p>
      *
-     * (By default, this delegates to serveFile() and allows directory listing.)
-     *
      * @param uri   Percent-decoded URI without parameters, for example "/index.cgi"
-     * @param method        "GET", "POST" etc.
-     * @param parms Parsed, percent decoded parameters from URI and, in case of POST, data.
-     * @param header        Header entries, percent decoded
+     * @param method        "GET", "HEAD" etc.
+     * @param header        Header entries, names in lowercase
      * @return HTTP response, see class Response for details
      */
-    public abstract Response serve( String uri, String method, Properties header, Properties parms, Properties files );
+    public abstract Response serve( String uri, String method, Map<String, String> header );
 
     /**
      * HTTP response.
@@ -126,7 +108,8 @@ public abstract class StreamServer {
 
         /**
          * Headers for the HTTP response. Use addHeader()
-         * to add lines.
+         * to add lines. A response with data should have a Content-Length,
+         * otherwise the connection is closed after it.
          */
         public Properties header = new Properties();
     }
@@ -154,25 +137,107 @@ public abstract class StreamServer {
             MIME_DEFAULT_BINARY = "application/octet-stream",
             MIME_XML = "text/xml";
 
+    /**
+     * Answers a request for the source, or the part of it in it's Range header, which is then
+     * where the source is opened
+     */
+    protected Response serveSource(StreamSource source, Map<String, String> header) throws IOException {
+        Response res;
+        long fileLen = source.length();
+
+        // bytes=start-end, bytes=start- or bytes=-suffix
+        long startFrom = -1;
+        long endAt = -1;
+        String range = header.get("range");
+        if (range != null) {
+            if (range.startsWith("bytes=")) {
+                range = range.substring("bytes=".length());
+                int minus = range.indexOf('-');
+                try {
+                    if (minus > 0) {
+                        startFrom = Long.parseLong(range.substring(0, minus).trim());
+                        if (minus < range.length() - 1)
+                            endAt = Long.parseLong(range.substring(minus + 1).trim());
+                    } else if (minus == 0) {
+                        startFrom = Math.max(0, fileLen - Long.parseLong(range.substring(1).trim()));
+                    }
+                } catch (NumberFormatException nfe) {
+                    startFrom = -1;
+                }
+            }
+        }
+        Log.d("Explorer", "Request: " + range + " from: " + startFrom + ", to: " + endAt);
+
+        // Change return code and add Content-Range header when skipping
+        // is requested
+        if (startFrom >= 0) {
+            if (startFrom >= fileLen) {
+                res = new Response(HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, null);
+                res.addHeader("Content-Range", "bytes */" + fileLen);
+            } else {
+                if (endAt < 0 || endAt >= fileLen)
+                    endAt = fileLen - 1;
+                long dataLen = Math.max(0, endAt - startFrom + 1);
+                Log.d("Explorer", "start=" + startFrom + ", endAt=" + endAt + ", newLen=" + dataLen);
+                // the file is opened there, nothing is skipped
+                source.moveTo(startFrom);
+
+                res = new Response(HTTP_PARTIALCONTENT, source.getMimeType(), source);
+                res.addHeader("Content-Length", "" + dataLen);
+                res.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt + "/" + fileLen);
+            }
+        } else {
+            source.reset();
+            res = new Response(HTTP_OK, source.getMimeType(), source);
+            res.addHeader("Content-Length", "" + fileLen);
+        }
+        return res;
+    }
+
     // ==================================================
     // Socket & server code
     // ==================================================
 
+    /**
+     * Sessions handled at the same time, players open a few connections at most; more wait for
+     * one of them to end
+     */
+    public static final int MAX_SESSIONS = 6;
+
+    // how long a kept alive connection waits for it's next request, and for the rest of a
+    // request once it started (ms)
+    private static final int KEEP_ALIVE_TIMEOUT = 15000;
+
+    // how often a connection waiting for it's next request checks for queued connections (ms)
+    private static final int IDLE_CHECK_INTERVAL = 250;
+
+    // Apache's default header limit is 8KB.
+    private static final int MAX_HEADER_SIZE = 8192;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * Starts a HTTP server to given port.<p>
      * Throws an IOException if the socket is already in use
      */
-
-    //private HTTPSession session;
     public StreamServer( int port, File wwwroot ) throws IOException {
         myTcpPort = port;
         this.myRootDir = wwwroot;
         myServerSocket = new ServerSocket( myTcpPort );
+
+        sessions = new ThreadPoolExecutor(MAX_SESSIONS, MAX_SESSIONS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "stream_session");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        sessions.allowCoreThreadTimeOut(true);
+
         myThread = new Thread(() -> {
             try {
                 while (true) {
                     Socket accept = myServerSocket.accept();
-                    new HTTPSession(accept);
+                    sessions.execute(new HTTPSession(accept));
                 }
             } catch (IOException ioe) {
             }
@@ -191,484 +256,241 @@ public abstract class StreamServer {
             myThread.join();
         } catch (IOException | InterruptedException e) {
         }
+        sessions.shutdownNow();
     }
 
     /**
-     * Handles one session, i.e. parses the HTTP request
-     * and returns the response.
+     * Handles one connection, i.e. parses the HTTP requests
+     * and returns the responses, for as long as it's kept alive.
      */
     private class HTTPSession implements Runnable {
-        private InputStream is;
         private final Socket socket;
 
+        // the current request line
+        private final byte[] lineBuffer = new byte[MAX_HEADER_SIZE];
+        private int headerSize;
+
         public HTTPSession(Socket s) {
             socket = s;
-            //mySocket = s;
-            Thread t = new Thread(this);
-            t.setDaemon(true);
-            t.start();
         }
 
         public void run() {
             try {
-                //openInputStream();
-                handleResponse(socket);
+                InputStream in = new BufferedInputStream(socket.getInputStream(), MAX_HEADER_SIZE);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+
+                while (awaitRequest(in) && handleRequest(in, out));
+            } catch (SocketTimeoutException e) {
+                // the player didn't come back
+            } catch (IOException e) {
+                // the player went away
             } finally {
-                if (is != null) {
-                    try {
-                        is.close();
-                        socket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }
-
-        private void handleResponse(Socket socket) {
-            try {
-                is = socket.getInputStream();
-                if (is == null) return;
-
-                // Read the first 8192 bytes.
-                // The full header should fit in here.
-                // Apache's default header limit is 8KB.
-                int bufsize = 8192;
-                byte[] buf = new byte[bufsize];
-                int rlen = is.read(buf, 0, bufsize);
-                if (rlen <= 0) return;
-
-                // Create a BufferedReader for parsing the header.
-                ByteArrayInputStream hbis = new ByteArrayInputStream(buf, 0, rlen);
-                BufferedReader hin = new BufferedReader(new InputStreamReader(hbis, "utf-8"));
-                Properties pre = new Properties();
-                Properties parms = new Properties();
-                Properties header = new Properties();
-                Properties files = new Properties();
-
-                // Decode the header into parms and header java properties
-                decodeHeader(hin, pre, parms, header);
-                Log.d("Explorer", pre.toString());
-                Log.d("Explorer", "Params: " + parms.toString());
-                Log.d("Explorer", "Header: " + header.toString());
-                String method = pre.getProperty("method");
-                String uri = pre.getProperty("uri");
-
-                long size = 0x7FFFFFFFFFFFFFFFL;
-                String contentLength = header.getProperty("content-length");
-                if (contentLength != null) {
-                    try {
-                        size = Integer.parseInt(contentLength);
-                    } catch (NumberFormatException ex) {
-                    }
-                }
-
-                // We are looking for the byte separating header from body.
-                // It must be the last byte of the first two sequential new lines.
-                int splitbyte = 0;
-                boolean sbfound = false;
-                while (splitbyte < rlen) {
-                    if (buf[splitbyte] == '\r' && buf[++splitbyte] == '\n' && buf[++splitbyte] == '\r' && buf[++splitbyte] == '\n') {
-                        sbfound = true;
-                        break;
-                    }
-                    splitbyte++;
-                }
-                splitbyte++;
-
-                // Write the part of body already read to ByteArrayOutputStream f
-                ByteArrayOutputStream f = new ByteArrayOutputStream();
-                if (splitbyte < rlen) f.write(buf, splitbyte, rlen - splitbyte);
-
-                // While Firefox sends on the first read all the data fitting
-                // our buffer, Chrome and Opera sends only the headers even if
-                // there is data for the body. So we do some magic here to find
-                // out whether we have already consumed part of body, if we
-                // have reached the end of the data to be sent or we should
-                // expect the first byte of the body at the next read.
-                if (splitbyte < rlen)
-                    size -= rlen - splitbyte + 1;
-                else if (!sbfound || size == 0x7FFFFFFFFFFFFFFFL)
-                    size = 0;
-
-                // Now read all the body and write it to f
-                buf = new byte[512];
-                while (rlen >= 0 && size > 0) {
-                    rlen = is.read(buf, 0, 512);
-                    size -= rlen;
-                    if (rlen > 0)
-                        f.write(buf, 0, rlen);
-                }
-
-                // Get the raw body as a byte []
-                byte[] fbuf = f.toByteArray();
-
-                // Create a BufferedReader for easily reading it as string.
-                ByteArrayInputStream bin = new ByteArrayInputStream(fbuf);
-                BufferedReader in = new BufferedReader(new InputStreamReader(bin));
-
-                // If the method is POST, there may be parameters
-                // in data section, too, read it:
-                if (method.equalsIgnoreCase("POST")) {
-                    String contentType = "";
-                    String contentTypeHeader = header.getProperty("content-type");
-                    StringTokenizer st = new StringTokenizer(contentTypeHeader, "; ");
-                    if (st.hasMoreTokens()) {
-                        contentType = st.nextToken();
-                    }
-
-                    if (contentType.equalsIgnoreCase("multipart/form-data")) {
-                        // Handle multipart/form-data
-                        if (!st.hasMoreTokens())
-                            sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
-                        String boundaryExp = st.nextToken();
-                        st = new StringTokenizer(boundaryExp, "=");
-                        if (st.countTokens() != 2)
-                            sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary syntax error. Usage: GET /example/file.html");
-                        st.nextToken();
-                        String boundary = st.nextToken();
-
-                        decodeMultipartData(boundary, fbuf, in, parms, files);
-                    } else {
-                        // Handle application/x-www-form-urlencoded
-                        String postLine = "";
-                        char pbuf[] = new char[512];
-                        int read = in.read(pbuf);
-                        while (read >= 0 && !postLine.endsWith("\r\n")) {
-                            postLine += String.valueOf(pbuf, 0, read);
-                            read = in.read(pbuf);
-                            if (Thread.interrupted()) {
-                                throw new InterruptedException();
-                            }
-                        }
-                        postLine = postLine.trim();
-                        decodeParms(postLine, parms);
-                    }
-                }
-
-                // Ok, now do the serve()
-                Response r = serve(uri, method, header, parms, files);
-                if (r == null)
-                    sendError(socket, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
-                else
-                    sendResponse(socket, r.status, r.mimeType, r.header, r.data);
-
-                in.close();
-            } catch (IOException ioe) {
                 try {
-                    sendError(socket, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
-                } catch (Throwable t) {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
-            } catch (InterruptedException ie) {
-                // Thrown by sendError, ignore and exit the thread.
             }
-
         }
 
         /**
-         * Decodes the sent headers and loads the data into
-         * java Properties' key - value pairs
-         **/
-        private void decodeHeader(BufferedReader in, Properties pre, Properties parms, Properties header)
-                throws InterruptedException {
-            try {
-                // Read the request line
-                String inLine = in.readLine();
-                if (inLine == null) return;
-                StringTokenizer st = new StringTokenizer(inLine);
-                if (!st.hasMoreTokens())
-                    sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
-
-                String method = st.nextToken();
-                pre.put("method", method);
-
-                if (!st.hasMoreTokens())
-                    sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
-
-                String uri = st.nextToken();
-
-                // Decode parameters from the URI
-                int qmi = uri.indexOf('?');
-                if (qmi >= 0) {
-                    decodeParms(uri.substring(qmi + 1), parms);
-                    uri = decodePercent(uri.substring(0, qmi));
-                } else uri = Uri.decode(uri);//decodePercent(uri);
-
-                // If there's another token, it's protocol version,
-                // followed by HTTP headers. Ignore version but parse headers.
-                // NOTE: this now forces header names lowercase since they are
-                // case insensitive and vary by client.
-                if (st.hasMoreTokens()) {
-                    String line = in.readLine();
-                    while (line != null && line.trim().length() > 0) {
-                        int p = line.indexOf(':');
-                        if (p >= 0)
-                            header.put(line.substring(0, p).trim().toLowerCase(), line.substring(p + 1).trim());
-                        line = in.readLine();
+         * Waits for the next request to arrive. Players seeking often open a new connection and
+         * leave the previous one open: an idle connection is closed as soon as another one is
+         * queued, instead of holding the thread until it times out.
+         *
+         * @return whether a request arrived
+         */
+        private boolean awaitRequest(InputStream in) throws IOException {
+            socket.setSoTimeout(IDLE_CHECK_INTERVAL);
+            long deadline = System.currentTimeMillis() + KEEP_ALIVE_TIMEOUT;
+            while (true) {
+                try {
+                    in.mark(1);
+                    if (in.read() == -1) return false;
+                    in.reset();
+                    break;
+                } catch (SocketTimeoutException e) {
+                    if (!sessions.getQueue().isEmpty() || System.currentTimeMillis() >= deadline) {
+                        return false;
                     }
                 }
-
-                pre.put("uri", uri);
-            } catch (IOException ioe) {
-                sendError(socket, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
             }
-        }
 
-        /**
-         * Decodes the Multipart Body data and put it
-         * into java Properties' key - value pairs.
-         **/
-        private void decodeMultipartData(String boundary, byte[] fbuf, BufferedReader in, Properties parms, Properties files)
-                throws InterruptedException {
-            try {
-                int[] bpositions = getBoundaryPositions(fbuf, boundary.getBytes());
-                int boundarycount = 1;
-                String mpline = in.readLine();
-                while (mpline != null) {
-                    if (mpline.indexOf(boundary) == -1)
-                        sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but next chunk does not start with boundary. Usage: GET /example/file.html");
-                    boundarycount++;
-                    Properties item = new Properties();
-                    mpline = in.readLine();
-                    while (mpline != null && mpline.trim().length() > 0) {
-                        int p = mpline.indexOf(':');
-                        if (p != -1)
-                            item.put(mpline.substring(0, p).trim().toLowerCase(), mpline.substring(p + 1).trim());
-                        mpline = in.readLine();
-                    }
-                    if (mpline != null) {
-                        String contentDisposition = item.getProperty("content-disposition");
-                        if (contentDisposition == null) {
-                            sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but no content-disposition info found. Usage: GET /example/file.html");
-                        }
-                        StringTokenizer st = new StringTokenizer(contentDisposition, "; ");
-                        Properties disposition = new Properties();
-                        while (st.hasMoreTokens()) {
-                            String token = st.nextToken();
-                            int p = token.indexOf('=');
-                            if (p != -1)
-                                disposition.put(token.substring(0, p).trim().toLowerCase(), token.substring(p + 1).trim());
-                        }
-                        String pname = disposition.getProperty("name");
-                        pname = pname.substring(1, pname.length() - 1);
-
-                        String value = "";
-                        if (item.getProperty("content-type") == null) {
-                            while (mpline != null && mpline.indexOf(boundary) == -1) {
-                                mpline = in.readLine();
-                                if (mpline != null) {
-                                    int d = mpline.indexOf(boundary);
-                                    if (d == -1)
-                                        value += mpline;
-                                    else
-                                        value += mpline.substring(0, d - 2);
-                                }
-                            }
-                        } else {
-                            if (boundarycount > bpositions.length)
-                                sendError(socket, HTTP_INTERNALERROR, "Error processing request");
-                            int offset = stripMultipartHeaders(fbuf, bpositions[boundarycount - 2]);
-                            String path = saveTmpFile(fbuf, offset, bpositions[boundarycount - 1] - offset - 4);
-                            files.put(pname, path);
-                            value = disposition.getProperty("filename");
-                            value = value.substring(1, value.length() - 1);
-                            do {
-                                mpline = in.readLine();
-                            } while (mpline != null && mpline.indexOf(boundary) == -1);
-                        }
-                        parms.put(pname, value);
-                    }
-                }
-            } catch (IOException ioe) {
-                sendError(socket, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
-            }
+            socket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+            return true;
         }
 
         /**
-         * Find the byte positions where multipart boundaries start.
-         **/
-        public int[] getBoundaryPositions(byte[] b, byte[] boundary) {
-            int matchcount = 0;
-            int matchbyte = -1;
-            Vector matchbytes = new Vector();
-            for (int i = 0; i < b.length; i++) {
-                if (b[i] == boundary[matchcount]) {
-                    if (matchcount == 0)
-                        matchbyte = i;
-                    matchcount++;
-                    if (matchcount == boundary.length) {
-                        matchbytes.addElement(matchbyte);
-                        matchcount = 0;
-                        matchbyte = -1;
-                    }
-                } else {
-                    i -= matchcount;
-                    matchcount = 0;
-                    matchbyte = -1;
-                }
+         * Reads a request and answers it
+         *
+         * @return whether the connection is kept alive for another request
+         */
+        private boolean handleRequest(InputStream in, OutputStream out) throws IOException {
+            headerSize = 0;
+            String requestLine = readLine(in);
+            // lines between requests are tolerated
+            while (requestLine != null && requestLine.length() == 0) requestLine = readLine(in);
+            if (requestLine == null) return false;
+
+            // METHOD URI VERSION
+            int methodEnd = requestLine.indexOf(' ');
+            int uriEnd = methodEnd == -1 ? -1 : requestLine.indexOf(' ', methodEnd + 1);
+            if (methodEnd <= 0) {
+                sendError(out, HTTP_BADREQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
+                return false;
             }
-            int[] ret = new int[matchbytes.size()];
-            for (int i = 0; i < ret.length; i++) {
-                ret[i] = (Integer) matchbytes.elementAt(i);
+            String method = requestLine.substring(0, methodEnd);
+            String uri = requestLine.substring(methodEnd + 1, uriEnd == -1 ? requestLine.length() : uriEnd).trim();
+            String version = uriEnd == -1 ? "HTTP/1.0" : requestLine.substring(uriEnd + 1).trim();
+            if (uri.length() == 0) {
+                sendError(out, HTTP_BADREQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
+                return false;
             }
-            return ret;
-        }
 
-        /**
-         * Retrieves the content of a sent file and saves it
-         * to a temporary file.
-         * The full path to the saved file is returned.
-         **/
-        private String saveTmpFile(byte[] b, int offset, int len) {
-            String path = "";
-            if (len > 0) {
-                String tmpdir = System.getProperty("java.io.tmpdir");
-                try {
-                    File temp = File.createTempFile("NanoHTTPD", "", new File(tmpdir));
-                    OutputStream fstream = new FileOutputStream(temp);
-                    fstream.write(b, offset, len);
-                    fstream.close();
-                    path = temp.getAbsolutePath();
-                } catch (Exception e) { // Catch exception if any
-                    System.err.println("Error: " + e.getMessage());
-                }
+            // NOTE: this forces header names lowercase since they are
+            // case insensitive and vary by client.
+            Map<String, String> header = new HashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                int p = line.indexOf(':');
+                if (p >= 0)
+                    header.put(line.substring(0, p).trim().toLowerCase(Locale.US), line.substring(p + 1).trim());
             }
-            return path;
-        }
+            if (line == null) return false;
 
+            skipBody(in, header.get("content-length"));
 
-        /**
-         * It returns the offset separating multipart file headers
-         * from the file's data.
-         **/
-        private int stripMultipartHeaders(byte[] b, int offset) {
-            int i = 0;
-            for (i = offset; i < b.length; i++) {
-                if (b[i] == '\r' && b[++i] == '\n' && b[++i] == '\r' && b[++i] == '\n')
-                    break;
+            int qmi = uri.indexOf('?');
+            if (qmi >= 0) uri = uri.substring(0, qmi);
+            uri = Uri.decode(uri);
+
+            String connection = header.get("connection");
+            boolean keepAlive = version.equals("HTTP/1.1") ?
+                    !"close".equalsIgnoreCase(connection) : "keep-alive".equalsIgnoreCase(connection);
+
+            Log.d("Explorer", method + " " + uri + " Header: " + header);
+
+            Response r = serve(uri, method, header);
+            if (r == null) {
+                sendError(out, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
+                return false;
             }
-            return i + 1;
+            return sendResponse(out, r, method.equalsIgnoreCase("HEAD"), keepAlive);
         }
 
         /**
-         * Decodes the percent encoding scheme. <br/>
-         * For example: "an+example%20string" -> "an example string"
+         * @return the line without it's line break, null at the end of the stream
          */
-        private String decodePercent(String str) throws InterruptedException {
-            try {
-                StringBuffer sb = new StringBuffer();
-                for (int i = 0; i < str.length(); i++) {
-                    char c = str.charAt(i);
-                    switch (c) {
-                        case '+':
-                            sb.append(' ');
-                            break;
-                        case '%':
-                            sb.append((char) Integer.parseInt(str.substring(i + 1, i + 3), 16));
-                            i += 2;
-                            break;
-                        default:
-                            sb.append(c);
-                            break;
-                    }
-                }
-                return sb.toString();
-            } catch (Exception e) {
-                sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Bad percent-encoding.");
-                return null;
+        private String readLine(InputStream in) throws IOException {
+            int length = 0;
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                if (headerSize++ == MAX_HEADER_SIZE) throw new IOException("Header too large");
+                lineBuffer[length++] = (byte) b;
             }
+            if (b == -1 && length == 0) return null;
+            if (length > 0 && lineBuffer[length - 1] == '\r') length--;
+            return new String(lineBuffer, 0, length, "ISO-8859-1");
         }
 
         /**
-         * Decodes parameters in percent-encoded URI-format
-         * ( e.g. "name=Jack%20Daniels&pass=Single%20Malt" ) and
-         * adds them to given Properties. NOTE: this doesn't support multiple
-         * identical keys due to the simplicity of Properties -- if you need multiples,
-         * you might want to replace the Properties with a Hashtable of Vectors or such.
+         * Skips the body of the request, so that the next request can be read
          */
-        private void decodeParms(String parms, Properties p)
-                throws InterruptedException {
-            if (parms == null)
+        private void skipBody(InputStream in, String contentLength) throws IOException {
+            if (contentLength == null) return;
+            long size;
+            try {
+                size = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
                 return;
-
-            StringTokenizer st = new StringTokenizer(parms, "&");
-            while (st.hasMoreTokens()) {
-                String e = st.nextToken();
-                int sep = e.indexOf('=');
-                if (sep >= 0)
-                    p.put(decodePercent(e.substring(0, sep)).trim(),
-                            decodePercent(e.substring(sep + 1)));
+            }
+            while (size > 0) {
+                long skipped = in.skip(size);
+                if (skipped <= 0) {
+                    if (in.read() == -1) return;
+                    skipped = 1;
+                }
+                size -= skipped;
             }
         }
 
         /**
-         * Returns an error message as a HTTP response and
-         * throws InterruptedException to stop further request processing.
+         * Returns an error message as a HTTP response, the connection is closed after it
          */
-        private void sendError(Socket socket, String status, String msg) throws InterruptedException {
-            sendResponse(socket, status, MIME_PLAINTEXT, null, null);
-            throw new InterruptedException();
+        private void sendError(OutputStream out, String status, String msg) throws IOException {
+            Response r = new Response(status, MIME_PLAINTEXT, null);
+            sendResponse(out, r, true, false);
         }
 
         /**
          * Sends given response to the socket.
+         *
+         * @param headOnly whether only the headers are sent, as asked by HEAD
+         * @return whether the connection is kept alive
          */
-        private void sendResponse(Socket socket, String status, String mime, Properties header, StreamSource data) {
-            try {
-                if (status == null)
-                    throw new Error("sendResponse(): Status can't be null.");
-
-                OutputStream out = socket.getOutputStream();
-                PrintWriter pw = new PrintWriter(out);
-                pw.print("HTTP/1.0 " + status + " \r\n");
-
-
-                if (mime != null)
-                    pw.print("Content-Type: " + mime + "\r\n");
-
-                if (header == null || header.getProperty("Date") == null)
-                    pw.print("Date: " + gmtFrmt.format(new Date()) + "\r\n");
-
-                if (header != null) {
-                    Enumeration e = header.keys();
-                    while (e.hasMoreElements()) {
-                        String key = (String) e.nextElement();
-                        String value = header.getProperty(key);
-                        pw.print(key + ": " + value + "\r\n");
-                    }
+        private boolean sendResponse(OutputStream out, Response r, boolean headOnly, boolean keepAlive)
+                throws IOException {
+            if (r.status == null)
+                throw new Error("sendResponse(): Status can't be null.");
+
+            long contentLength = r.data == null ? 0 : -1;
+            String lengthHeader = r.header.getProperty("Content-Length");
+            if (lengthHeader != null) {
+                try {
+                    contentLength = Long.parseLong(lengthHeader);
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
                 }
-
-                pw.print("\r\n");
-                pw.flush();
-
-
-                if (data != null) {
-                    //long pending = data.available();      // This is to support partial sends, see serveFile()
-                    data.open();
-                    byte[] buff = new byte[8192];
-                    int read = 0;
-                    while ((read = data.read(buff)) > 0) {
-                        //if(SolidExplorer.LOG)Log.d("Explorer", "Read: "+ read +", pending: "+ data.available());
-                        out.write(buff, 0, read);
-                    }
+            }
+            // the end of a response of unknown length is the end of the connection
+            if (contentLength < 0) keepAlive = false;
+
+            StringBuilder head = new StringBuilder(256);
+            head.append("HTTP/1.1 ").append(r.status).append("\r\n");
+            if (r.mimeType != null)
+                head.append("Content-Type: ").append(r.mimeType).append("\r\n");
+            if (r.header.getProperty("Date") == null) {
+                synchronized (gmtFrmt) {
+                    head.append("Date: ").append(gmtFrmt.format(new Date())).append("\r\n");
                 }
-                out.flush();
-                out.close();
-                if (data != null)
-                    data.close();
-
-            } catch (IOException ioe) {
-                // Couldn't write? No can do.
+            }
+            for (String key : r.header.stringPropertyNames()) {
+                head.append(key).append(": ").append(r.header.getProperty(key)).append("\r\n");
+            }
+            if (lengthHeader == null && contentLength == 0)
+                head.append("Content-Length: 0\r\n");
+            head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+            head.append("\r\n");
+            out.write(head.toString().getBytes("ISO-8859-1"));
+
+            if (r.data != null && !headOnly) {
+                r.data.open();
                 try {
-                    socket.close();
-                } catch (Throwable t) {
+                    byte[] buff = new byte[BUFFER_SIZE];
+                    long pending = contentLength;
+                    while (pending != 0) {
+                        int toRead = pending < 0 ? buff.length : (int) Math.min(buff.length, pending);
+                        int read = r.data.read(buff, 0, toRead);
+                        if (read <= 0) {
+                            // the data ended before it's length: the player can't tell
+                            if (pending > 0) return false;
+                            break;
+                        }
+                        out.write(buff, 0, read);
+                        if (pending > 0) pending -= read;
+                    }
+                } finally {
+                    r.data.close();
                 }
             }
+            out.flush();
+            return keepAlive;
         }
     }
 
     private int myTcpPort;
     private final ServerSocket myServerSocket;
+    private final ThreadPoolExecutor sessions;
     private Thread myThread;
     private File myRootDir;
 
@@ -10,6 +10,7 @@ import java.io.InputStream;
 
 import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
+import jcifs.smb.SmbRandomAccessFile;
 
 public class StreamSource {
 
@@ -19,6 +20,7 @@ public class StreamSource {
     protected String name;
     protected SmbFile file;
     InputStream input;
+    private SmbBlockSource blockSource;
     protected int bufferSize;
 
     public StreamSource() {}
@@ -58,23 +60,21 @@ public class StreamSource {
      * In the libs folder there is a library modified by me. If you want to use a stock one, you
      * have to set somehow the buffer size to be equal with http server's buffer size which is 8192.
      *
+     * The file is read from the position set by {@link #moveTo(long)} through the
+     * {@link BlockCache}, the share is only asked for the blocks which aren't cached.
+     *
      * @throws IOException
      */
     public void open() throws IOException {
-        try {
-            input = file.getInputStream();//new SmbFileInputStream(file, bufferSize, 1);
-            if(fp>0)
-                input.skip(fp);
-        } catch (Exception e) {
-            throw new IOException(e);
-        }
+        blockSource = new SmbBlockSource(file, len);
+        input = new BlockInputStream(blockSource, fp, len);
     }
     public int read(byte[] buff) throws IOException{
         return read(buff, 0, buff.length);
     }
     public int read(byte[] bytes, int start, int offs) throws IOException {
         int read =  input.read(bytes, start, offs);
-        fp += read;
+        if (read > 0) fp += read;
         return read;
     }
     public long moveTo(long position) throws IOException {
@@ -85,6 +85,7 @@ public class StreamSource {
     public void close() {
         try {
             input.close();
+            if (blockSource != null) blockSource.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -114,5 +115,46 @@ public class StreamSource {
         return bufferSize;
     }
 
+    /**
+     * Reads the blocks of the file, opened once for all the reads of the stream and the
+     * prefetches started by it
+     */
+    private static class SmbBlockSource implements BlockCache.Source {
+
+        private final SmbFile file;
+        private final String id;
+        private SmbRandomAccessFile randomAccessFile;
+        private boolean closed = false;
+
+        SmbBlockSource(SmbFile file, long length) {
+            this.file = file;
+            this.id = "smb:" + length + ":" + file.getPath();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public synchronized int read(long offset, byte[] buffer) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (randomAccessFile == null) randomAccessFile = new SmbRandomAccessFile(file, "r");
+
+            randomAccessFile.seek(offset);
+            int position = 0, read;
+            while (position < buffer.length
+                    && (read = randomAccessFile.read(buffer, position, buffer.length - position)) > 0) {
+                position += read;
+            }
+            return position == 0 ? -1 : position;
+        }
+
+        synchronized void close() throws IOException {
+            closed = true;
+            if (randomAccessFile != null) randomAccessFile.close();
+        }
+    }
+
 }
 
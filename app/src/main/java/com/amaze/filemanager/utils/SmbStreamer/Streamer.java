@@ -1,10 +1,8 @@
 package com.amaze.filemanager.utils.SmbStreamer;
 
-import android.util.Log;
-
 import java.io.File;
 import java.io.IOException;
-import java.util.Properties;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import jcifs.smb.SmbFile;
@@ -52,7 +50,7 @@ public class Streamer extends StreamServer {
     }
 
     @Override
-    public Response serve(String uri, String method, Properties header, Properties parms, Properties files) {
+    public Response serve(String uri, String method, Map<String, String> header) {
         Response res = null;
         try {
             SmbFile sourceFile = null;
@@ -70,53 +68,7 @@ public class Streamer extends StreamServer {
             if (sourceFile == null)
                 res = new Response(HTTP_NOTFOUND, MIME_PLAINTEXT, null);
             else {
-
-                long startFrom = 0;
-                long endAt = -1;
-                String range = header.getProperty("range");
-                if (range != null) {
-                    if (range.startsWith("bytes=")) {
-                        range = range.substring("bytes=".length());
-                        int minus = range.indexOf('-');
-                        try {
-                            if (minus > 0) {
-                                startFrom = Long.parseLong(range.substring(0, minus));
-                                endAt = Long.parseLong(range.substring(minus + 1));
-                            }
-                        } catch (NumberFormatException nfe) {
-                        }
-                    }
-                }
-                Log.d("Explorer", "Request: " + range + " from: " + startFrom + ", to: " + endAt);
-
-                // Change return code and add Content-Range header when skipping
-                // is requested
-                //source.open();
-                final StreamSource source = new StreamSource(sourceFile, length);
-                long fileLen = source.length();
-                if (range != null && startFrom > 0) {
-                    if (startFrom >= fileLen) {
-                        res = new Response(HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, null);
-                        res.addHeader("Content-Range", "bytes 0-0/" + fileLen);
-                    } else {
-                        if (endAt < 0)
-                            endAt = fileLen - 1;
-                        long newLen = fileLen - startFrom;
-                        if (newLen < 0)
-                            newLen = 0;
-                        Log.d("Explorer", "start=" + startFrom + ", endAt=" + endAt + ", newLen=" + newLen);
-                        final long dataLen = newLen;
-                        source.moveTo(startFrom);
-                        Log.d("Explorer", "Skipped " + startFrom + " bytes");
-
-                        res = new Response(HTTP_PARTIALCONTENT, source.getMimeType(), source);
-                        res.addHeader("Content-length", "" + dataLen);
-                    }
-                } else {
-                    source.reset();
-                    res = new Response(HTTP_OK, source.getMimeType(), source);
-                    res.addHeader("Content-Length", "" + fileLen);
-                }
+                res = serveSource(new StreamSource(sourceFile, length), header);
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
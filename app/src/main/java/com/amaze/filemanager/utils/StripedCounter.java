@@ -0,0 +1,39 @@
+package com.amaze.filemanager.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be incremented by many threads without contending on a single value,
+ * in the spirit of {@link java.util.concurrent.atomic.LongAdder} (which is only available from API 24).
+ *
+ * Each thread adds into one of several cells picked by it's id, {@link #sum()} adds up all the cells.
+ * The sum is not an atomic snapshot when writers are active, but it never goes backwards
+ * for a counter that is only incremented.
+ */
+public class StripedCounter {
+
+    // longs between two used cells, keeps each cell on it's own cache line
+    private static final int PADDING = 8;
+
+    private final int stripeMask;
+    private final AtomicLongArray cells;
+
+    public StripedCounter() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        stripeMask = stripes - 1;
+        cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    public void add(long value) {
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        cells.addAndGet(stripe * PADDING, value);
+    }
+
+    public long sum() {
+        long sum = 0L;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,179 @@
+package com.amaze.filemanager.utils;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the occurrences of a text, ignoring case, or of a regular expression in a
+ * {@link CharSequence} without copying it.
+ *
+ * Text is searched with Boyer-Moore-Horspool, comparing case folded characters the way
+ * {@link String#equalsIgnoreCase(String)} does. Occurrences may overlap, every one is reported.
+ */
+public class TextSearch {
+
+    public interface Listener {
+        /**
+         * @return false to stop the search
+         */
+        boolean onFound(int start, int end);
+    }
+
+    // the shift table is indexed by the low byte of the folded character
+    private static final int SHIFT_TABLE_SIZE = 256;
+
+    private final char[] query;
+    private final int[] shifts;
+    private final Pattern pattern;
+
+    /**
+     * @param regex whether the query is a {@link Pattern}
+     * @throws java.util.regex.PatternSyntaxException if the regular expression isn't valid
+     */
+    public TextSearch(String query, boolean regex) {
+        if (regex) {
+            this.pattern = Pattern.compile(query, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            this.query = null;
+            this.shifts = null;
+            return;
+        }
+
+        this.pattern = null;
+        this.query = new char[query.length()];
+        for (int i = 0; i < this.query.length; i++) {
+            this.query[i] = fold(query.charAt(i));
+        }
+
+        // characters sharing a low byte get the smallest of their shifts, which is always safe
+        int length = this.query.length;
+        shifts = new int[SHIFT_TABLE_SIZE];
+        Arrays.fill(shifts, Math.max(1, length));
+        for (int i = 0; i < length - 1; i++) {
+            shifts[this.query[i] & 0xff] = length - 1 - i;
+        }
+    }
+
+    public boolean isRegex() {
+        return pattern != null;
+    }
+
+    /**
+     * Length of every occurrence, or -1 for a regular expression
+     */
+    public int getLength() {
+        return query != null ? query.length : -1;
+    }
+
+    /**
+     * Reports, in order, the occurrences lying entirely between start and end of the text
+     */
+    public void find(CharSequence text, int start, int end, Listener listener) {
+        if (pattern != null) {
+            findPattern(text, start, end, listener);
+            return;
+        }
+
+        int length = query.length;
+        if (length == 0) return;
+
+        int last = length - 1;
+        for (int i = start; i + length <= end; ) {
+            char c = fold(text.charAt(i + last));
+
+            if (c == query[last]) {
+                int j = last - 1;
+                while (j >= 0 && fold(text.charAt(i + j)) == query[j]) j--;
+                if (j < 0 && !listener.onFound(i, i + length)) return;
+            }
+
+            i += shifts[c & 0xff];
+        }
+    }
+
+    private void findPattern(CharSequence text, int start, int end, Listener listener) {
+        Matcher matcher = pattern.matcher(text);
+        matcher.region(start, end);
+        while (matcher.find()) {
+            // empty matches (eg. "a*") can't be highlighted
+            if (matcher.end() > matcher.start() && !listener.onFound(matcher.start(), matcher.end())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Same folding as {@link String#regionMatches(boolean, int, String, int, int)}
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Offsets at which the lines of a text start, so that the line of an offset is found with
+     * a binary search instead of counting the line breaks before it
+     */
+    public static class LineIndex {
+
+        private int[] starts = new int[64];
+        private int count;
+
+        public LineIndex(CharSequence text) {
+            starts[count++] = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') add(i + 1);
+            }
+        }
+
+        /**
+         * @return the line of the offset, starting at 0
+         */
+        public int getLineNumber(int offset) {
+            int index = Arrays.binarySearch(starts, 0, count, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        /**
+         * Follows a change of the text, see {@link android.text.TextWatcher#onTextChanged(CharSequence, int, int, int)}
+         *
+         * @param text the text after the change
+         */
+        public void update(CharSequence text, int start, int before, int after) {
+            // lines starting after a removed line break
+            int removedStart = firstAfter(start), removedEnd = firstAfter(start + before);
+
+            int inserted = 0;
+            for (int i = start; i < start + after; i++) {
+                if (text.charAt(i) == '\n') inserted++;
+            }
+
+            int tail = count - removedEnd;
+            int newCount = removedStart + inserted + tail;
+            if (newCount > starts.length) starts = Arrays.copyOf(starts, Math.max(newCount, starts.length * 2));
+
+            System.arraycopy(starts, removedEnd, starts, removedStart + inserted, tail);
+            for (int i = removedStart + inserted; i < newCount; i++) {
+                starts[i] += after - before;
+            }
+
+            int line = removedStart;
+            for (int i = start; i < start + after; i++) {
+                if (text.charAt(i) == '\n') starts[line++] = i + 1;
+            }
+            count = newCount;
+        }
+
+        /**
+         * @return the index of the first line starting after the offset
+         */
+        private int firstAfter(int offset) {
+            int index = Arrays.binarySearch(starts, 0, count, offset);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+
+        private void add(int start) {
+            if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+            starts[count++] = start;
+        }
+    }
+}
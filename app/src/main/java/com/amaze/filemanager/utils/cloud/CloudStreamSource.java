@@ -10,19 +10,41 @@ import java.io.InputStream;
  */
 
 public class CloudStreamSource extends StreamSource {
+
+    /**
+     * The bytes of a cloud file, shared by the sources of all the requests for it
+     */
+    public interface Content {
+        /**
+         * @return the same id for the same file of the same account
+         */
+        String getId();
+
+        /**
+         * @return the bytes from the position on
+         */
+        InputStream open(long position) throws IOException;
+
+        /**
+         * Called once the file isn't streamed anymore
+         */
+        void release();
+    }
+
     protected String mime;
     protected long fp;
     protected long len;
     protected String name;
     protected int bufferSize;
+    private Content content;
     private InputStream inputStream;
 
-    public CloudStreamSource(String fileName, long length, InputStream inputStream) {
+    public CloudStreamSource(String fileName, long length, Content content) {
 
         fp = 0;
         len = length;
         this.name = fileName;
-        this.inputStream = inputStream;
+        this.content = content;
         bufferSize = 1024*60;
     }
 
@@ -54,19 +76,15 @@ public class CloudStreamSource extends StreamSource {
      * @throws IOException
      */
     public void open() throws IOException {
-        try {
-            if(fp>0)
-                inputStream.skip(fp);
-        } catch (Exception e) {
-            throw new IOException(e);
-        }
+        // from the position set by moveTo()
+        inputStream = content.open(fp);
     }
     public int read(byte[] buff) throws IOException{
         return read(buff, 0, buff.length);
     }
     public int read(byte[] bytes, int start, int offs) throws IOException {
         int read =  inputStream.read(bytes, start, offs);
-        fp += read;
+        if (read > 0) fp += read;
         return read;
     }
     public long moveTo(long position) throws IOException {
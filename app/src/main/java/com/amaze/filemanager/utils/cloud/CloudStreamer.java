@@ -1,32 +1,31 @@
 package com.amaze.filemanager.utils.cloud;
 
-import android.util.Log;
+import com.amaze.filemanager.utils.SmbStreamer.StreamServer;
+import com.cloudrail.si.interfaces.CloudStorage;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import jcifs.smb.SmbFile;
 
 /**
  * Created by Vishal on 30-04-2017.
+ *
+ * Every request is served from the content of the file, shared by all of them: either downloaded
+ * a range at a time, where the provider allows it, or downloaded once to the cache directory.
  */
-
-public class CloudStreamer extends CloudStreamServer {
+public class CloudStreamer extends StreamServer {
 
     public static final int PORT = 7871;
     public static final String URL = "http://127.0.0.1:" + PORT;
-    private InputStream inputStream;
+    private CloudStreamSource.Content content;
     private String fileName;
     long length = 0;
     private static CloudStreamer instance;
     private static Pattern pattern = Pattern.compile("^.*\\.(?i)(mp3|wma|wav|aac|ogg|m4a|flac|mp4|avi|mpg|mpeg|3gp|3gpp|mkv|flv|rmvb)$");
 
-    // private CBItem source;
-    // private String mime;
-
     protected CloudStreamer(int port) throws IOException {
         super(port, new File("."));
     }
@@ -45,71 +44,74 @@ public class CloudStreamer extends CloudStreamServer {
         return pattern.matcher(file.getName()).matches();
     }
 
-    public void setStreamSrc(InputStream inputStream, String fileName, long length) {
-        this.inputStream = inputStream;
+    /**
+     * Streams the file, the content of the file streamed before is released unless it's the
+     * same file
+     *
+     * @param path           path of the file in the account
+     * @param cacheDirectory where the file is downloaded if the account can't download ranges,
+     *                       only used for that
+     */
+    public synchronized void setStreamSrc(CloudStorage account, String path, String fileName, long length,
+                                          File cacheDirectory) throws IOException {
         this.fileName = fileName;
         this.length = length;
-    }
 
-    @Override
-    public CloudStreamServer.Response serve(String uri, String method, Properties header, Properties parms, Properties files) {
-        CloudStreamServer.Response res = null;
-        try {
+        String id = account.getClass().getSimpleName() + ":" + length + ":" + path;
+        if (content != null) {
+            if (content.getId().equals(id)) return;
+            content.release();
+            content = null;
+        } else {
+            // downloads left by another run of the app
+            File[] files = cacheDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) file.delete();
+            } else {
+                cacheDirectory.mkdirs();
+            }
+        }
 
-            if (inputStream == null)
-                res = new CloudStreamServer.Response(HTTP_NOTFOUND, MIME_PLAINTEXT, null);
-            else {
+        if (RangedDropboxContent.isSupported(account)) {
+            content = new RangedDropboxContent(id, account, path, length);
+        } else {
+            final DownloadedContent[] downloaded = new DownloadedContent[1];
+            downloaded[0] = new DownloadedContent(id, account, path, length, cacheDirectory,
+                    () -> release(downloaded[0]));
+            content = downloaded[0];
+        }
+    }
 
-                long startFrom = 0;
-                long endAt = -1;
-                String range = header.getProperty("range");
-                if (range != null) {
-                    if (range.startsWith("bytes=")) {
-                        range = range.substring("bytes=".length());
-                        int minus = range.indexOf('-');
-                        try {
-                            if (minus > 0) {
-                                startFrom = Long.parseLong(range.substring(0, minus));
-                                endAt = Long.parseLong(range.substring(minus + 1));
-                            }
-                        } catch (NumberFormatException nfe) {
-                        }
-                    }
-                }
-                Log.d("Explorer", "Request: " + range + " from: " + startFrom + ", to: " + endAt);
+    /**
+     * Releases the content, and forgets it if it's still the one streamed
+     */
+    private void release(CloudStreamSource.Content released) {
+        synchronized (this) {
+            if (content == released) content = null;
+        }
+        released.release();
+    }
 
-                // Change return code and add Content-Range header when skipping
-                // is requested
-                //source.open();
-                final CloudStreamSource source = new CloudStreamSource(fileName, length, inputStream);
-                long fileLen = source.length();
-                if (range != null && startFrom > 0) {
-                    if (startFrom >= fileLen) {
-                        res = new CloudStreamServer.Response(HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, null);
-                        res.addHeader("Content-Range", "bytes 0-0/" + fileLen);
-                    } else {
-                        if (endAt < 0)
-                            endAt = fileLen - 1;
-                        long newLen = fileLen - startFrom;
-                        if (newLen < 0)
-                            newLen = 0;
-                        Log.d("Explorer", "start=" + startFrom + ", endAt=" + endAt + ", newLen=" + newLen);
-                        final long dataLen = newLen;
-                        source.moveTo(startFrom);
-                        Log.d("Explorer", "Skipped " + startFrom + " bytes");
+    @Override
+    public Response serve(String uri, String method, Map<String, String> header) {
+        Response res = null;
+        CloudStreamSource.Content content;
+        String fileName;
+        long length;
+        synchronized (this) {
+            content = this.content;
+            fileName = this.fileName;
+            length = this.length;
+        }
 
-                        res = new CloudStreamServer.Response(HTTP_PARTIALCONTENT, source.getMimeType(), source);
-                        res.addHeader("Content-length", "" + dataLen);
-                    }
-                } else {
-                    source.reset();
-                    res = new CloudStreamServer.Response(HTTP_OK, source.getMimeType(), source);
-                    res.addHeader("Content-Length", "" + fileLen);
-                }
-            }
+        try {
+            if (content == null)
+                res = new Response(HTTP_NOTFOUND, MIME_PLAINTEXT, null);
+            else
+                res = serveSource(new CloudStreamSource(fileName, length, content), header);
         } catch (IOException ioe) {
             ioe.printStackTrace();
-            res = new CloudStreamServer.Response(HTTP_FORBIDDEN, MIME_PLAINTEXT, null);
+            res = new Response(HTTP_FORBIDDEN, MIME_PLAINTEXT, null);
         }
 
         res.addHeader("Accept-Ranges", "bytes"); // Announce that the file
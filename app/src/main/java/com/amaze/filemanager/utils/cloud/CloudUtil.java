@@ -13,11 +13,13 @@ import com.amaze.filemanager.R;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.database.CloudHandler;
 import com.amaze.filemanager.exceptions.CloudPluginException;
+import com.amaze.filemanager.exceptions.NotEnoughSpaceException;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.ui.icons.MimeTypes;
 import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.OnFileFound;
 import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.SmbStreamer.BlockCache;
 import com.cloudrail.si.interfaces.CloudStorage;
 import com.cloudrail.si.types.CloudMetaData;
 
@@ -33,6 +35,9 @@ import java.util.List;
 
 public class CloudUtil {
 
+    // name of the directory in the app's cache where the files of clouds without ranges are streamed from
+    private static final String STREAM_DIRECTORY = "cloud_stream";
+
     /**
      * @deprecated use getCloudFiles()
      */
@@ -124,7 +129,11 @@ public class CloudUtil {
 
         new Thread(() -> {
             try {
-                streamer.setStreamSrc(baseFile.getInputStream(activity), baseFile.getName(), baseFile.length(activity));
+                BlockCache.setSpillDirectory(new File(activity.getCacheDir(), BlockCache.SPILL_DIRECTORY));
+                CloudStorage account = DataUtils.getInstance().getAccount(serviceType);
+                streamer.setStreamSrc(account, CloudUtil.stripPath(serviceType, baseFile.getPath()),
+                        baseFile.getName(), baseFile.length(activity),
+                        new File(activity.getCacheDir(), STREAM_DIRECTORY));
                 activity.runOnUiThread(() -> {
                     try {
                         File file = new File(Uri.parse(CloudUtil.stripPath(serviceType, baseFile.getPath())).getPath());
@@ -143,6 +152,11 @@ public class CloudUtil {
                         e.printStackTrace();
                     }
                 });
+            } catch (NotEnoughSpaceException e) {
+                e.printStackTrace();
+                activity.runOnUiThread(() -> Toast.makeText(activity,
+                        activity.getResources().getString(R.string.in_safe),
+                        Toast.LENGTH_SHORT).show());
             } catch (Exception e) {
 
                 e.printStackTrace();
@@ -0,0 +1,238 @@
+package com.amaze.filemanager.utils.cloud;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.amaze.filemanager.exceptions.NotEnoughSpaceException;
+import com.cloudrail.si.interfaces.CloudStorage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * A cloud file downloaded once to the cache directory, for the providers which can only download
+ * whole files: a player seeking reads what was downloaded, waiting for the download to get there
+ * if it's ahead of it, instead of downloading the file again from the start.
+ *
+ * Once no stream of it was read for {@link #IDLE_TIMEOUT}, eg. the player was closed, the download
+ * stops and the owner is told to release it. The file is deleted once released.
+ */
+public class DownloadedContent implements CloudStreamSource.Content {
+
+    private static final String TAG = "DownloadedContent";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // time without any open stream after which the content is given up (ms)
+    private static final long IDLE_TIMEOUT = 60 * 1000;
+
+    // space left free after the download (bytes)
+    private static final long FREE_SPACE_MARGIN = 64 * 1024 * 1024;
+
+    private final String id;
+    private final long length;
+    private final File file;
+    private final Runnable onIdle;
+
+    // guarded by this
+    private long downloaded = 0;
+    private boolean finished = false, released = false;
+    // the download was given up before the end of the file, see #isIdle()
+    private boolean stopped = false;
+    private IOException error;
+    private int openStreams = 0;
+    private long lastUsed = System.currentTimeMillis();
+
+    /**
+     * Starts downloading the file, if there's space for it
+     *
+     * @param directory where the file is downloaded
+     * @param onIdle called from the download thread once the content isn't read anymore,
+     *               should release it
+     */
+    public DownloadedContent(String id, CloudStorage account, String path, long length, File directory,
+                             Runnable onIdle) throws IOException {
+        if (directory.getUsableSpace() < length + FREE_SPACE_MARGIN) {
+            throw new NotEnoughSpaceException("Not enough space to download " + path);
+        }
+
+        this.id = id;
+        this.length = length;
+        this.onIdle = onIdle;
+        this.file = File.createTempFile("stream", ".tmp", directory);
+
+        Thread thread = new Thread(() -> download(account, path), "cloud_download");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public InputStream open(long position) throws IOException {
+        InputStream inputStream = new DownloadedInputStream(position);
+        synchronized (this) {
+            openStreams++;
+            lastUsed = System.currentTimeMillis();
+        }
+        return inputStream;
+    }
+
+    @Override
+    public synchronized void release() {
+        released = true;
+        notifyAll();
+        file.delete();
+    }
+
+    private void download(CloudStorage account, String path) {
+        downloadUntilIdle(account, path);
+
+        // the file is kept for the streams to come, until there are none for a while
+        synchronized (this) {
+            try {
+                while (!released && !isIdle()) wait(IDLE_TIMEOUT / 4);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (released) return;
+        }
+        Log.d(TAG, "Not streamed anymore, releasing");
+        onIdle.run();
+    }
+
+    private void downloadUntilIdle(CloudStorage account, String path) {
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        try {
+            inputStream = account.download(path);
+            outputStream = new FileOutputStream(file);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                synchronized (this) {
+                    // the rest of the file isn't downloaded for nothing
+                    if (released) return;
+                    if (isIdle()) {
+                        stopped = true;
+                        return;
+                    }
+                    downloaded += read;
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            // CloudRail's errors aren't checked
+            fail(new IOException(e));
+        } finally {
+            close(inputStream);
+            close(outputStream);
+            synchronized (this) {
+                finished = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Must be called holding the lock
+     */
+    private boolean isIdle() {
+        return openStreams == 0 && System.currentTimeMillis() - lastUsed >= IDLE_TIMEOUT;
+    }
+
+    private synchronized void onStreamClosed() {
+        openStreams--;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    private synchronized void fail(IOException e) {
+        Log.w(TAG, "Download failed", e);
+        error = e;
+    }
+
+    /**
+     * Waits for the byte at the position to be downloaded
+     *
+     * @return the number of bytes downloaded from the position, 0 at the end of the file
+     */
+    private synchronized long waitFor(long position) throws IOException {
+        try {
+            while (downloaded <= position && !finished && !released) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (released) throw new IOException("Stream closed");
+        if (downloaded <= position && error != null) throw error;
+        // not the end of the file, a stream opened while the content is being released
+        if (downloaded <= position && stopped) throw new IOException("Download stopped");
+        return Math.max(0, downloaded - position);
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the downloaded file from a position
+     */
+    private class DownloadedInputStream extends InputStream {
+
+        private final RandomAccessFile randomAccessFile;
+        private long position;
+        private boolean closed = false;
+
+        DownloadedInputStream(long position) throws IOException {
+            this.randomAccessFile = new RandomAccessFile(file, "r");
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position >= length) return -1;
+
+            long available = waitFor(position);
+            if (available == 0) return -1;
+
+            randomAccessFile.seek(position);
+            int read = randomAccessFile.read(b, off, (int) Math.min(len, available));
+            if (read > 0) position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            randomAccessFile.close();
+            onStreamClosed();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.amaze.filemanager.utils.cloud;
+
+import com.amaze.filemanager.utils.SmbStreamer.BlockCache;
+import com.amaze.filemanager.utils.SmbStreamer.BlockInputStream;
+import com.cloudrail.si.interfaces.AdvancedRequestSupporter;
+import com.cloudrail.si.interfaces.CloudStorage;
+import com.cloudrail.si.services.Dropbox;
+import com.cloudrail.si.types.AdvancedRequestResponse;
+import com.cloudrail.si.types.AdvancedRequestSpecification;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * A Dropbox file read a block at a time, every block being a download of it's range, so that
+ * seeking anywhere in the file only downloads what's read from there.
+ *
+ * CloudRail's download() always starts at the beginning of the file: the ranges are asked for
+ * with an advanced request to Dropbox's download endpoint, which takes a path as CloudRail does.
+ * Reads aren't synchronized, the blocks prefetched by the {@link BlockCache} are downloaded in
+ * parallel.
+ */
+public class RangedDropboxContent implements CloudStreamSource.Content, BlockCache.Source {
+
+    private static final String DOWNLOAD_URL = "https://content.dropboxapi.com/2/files/download";
+
+    private static final int HTTP_OK = 200, HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final String id;
+    private final AdvancedRequestSupporter account;
+    private final String path;
+    private final long length;
+
+    public RangedDropboxContent(String id, CloudStorage account, String path, long length) {
+        this.id = id;
+        this.account = (AdvancedRequestSupporter) account;
+        this.path = path;
+        this.length = length;
+    }
+
+    public static boolean isSupported(CloudStorage account) {
+        return account instanceof Dropbox;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public InputStream open(long position) {
+        return new BlockInputStream(this, position, length);
+    }
+
+    @Override
+    public void release() {
+        // nothing is kept open between the downloads
+    }
+
+    @Override
+    public int read(long offset, byte[] buffer) throws IOException {
+        if (offset >= length) return -1;
+        long end = Math.min(offset + buffer.length, length) - 1;
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Dropbox-API-Arg", "{\"path\":\"" + escapeJson(path) + "\"}");
+        headers.put("Range", "bytes=" + offset + "-" + end);
+
+        AdvancedRequestSpecification request = new AdvancedRequestSpecification(DOWNLOAD_URL);
+        request.setMethod("POST");
+        request.setHeaders(headers);
+        request.disableBaseUrl();
+
+        InputStream inputStream;
+        try {
+            AdvancedRequestResponse response = account.advancedRequest(request);
+            if (response.getStatus() == HTTP_RANGE_NOT_SATISFIABLE) return -1;
+            inputStream = response.getBodyAsStream();
+
+            // the range was ignored, the whole file comes
+            if (response.getStatus() == HTTP_OK) skipFully(inputStream, offset);
+        } catch (RuntimeException e) {
+            // CloudRail's errors aren't checked
+            throw new IOException(e);
+        }
+
+        try {
+            int read = 0, count;
+            int wanted = (int) (end - offset + 1);
+            while (read < wanted && (count = inputStream.read(buffer, read, wanted - read)) > 0) {
+                read += count;
+            }
+            return read == 0 ? -1 : read;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static void skipFully(InputStream inputStream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                if (inputStream.read() == -1) return;
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * HTTP headers are ASCII: anything else is escaped as JSON allows
+     */
+    private static String escapeJson(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package com.amaze.filemanager.utils.files;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide pool of reusable I/O buffers, so that copy, compress, extract and hash loops don't
+ * allocate (and later collect) a new array for every file.
+ *
+ * Buffers come in power of two sizes between {@link #MIN_SIZE} and {@link #MAX_SIZE}. They're
+ * all backed by an array: the streams, ciphers and checksums they're used with, channel copies
+ * included, work on arrays.
+ * Every acquired buffer must be given back with {@link #release(ByteBuffer)}.
+ */
+public class BufferPool {
+
+    public static final int MIN_SIZE = 8 * 1024;
+    public static final int MAX_SIZE = 1024 * 1024;
+
+    // buffers kept per size, anything above is left to the GC
+    private static final int MAX_POOLED_PER_CLASS = 4;
+
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE)
+            - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+
+    private static final SizeClass[] heapBuffers = new SizeClass[SIZE_CLASSES];
+
+    static {
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            heapBuffers[i] = new SizeClass();
+        }
+    }
+
+    /**
+     * @param size minimum capacity, rounded up to the next power of two
+     * @return a cleared buffer backed by an array, see {@link ByteBuffer#array()}
+     */
+    public static ByteBuffer acquireHeap(int size) {
+        int sizeClass = getSizeClass(size);
+        ByteBuffer buffer = heapBuffers[sizeClass].poll();
+        if (buffer == null) buffer = ByteBuffer.allocate(getSize(sizeClass));
+        return buffer;
+    }
+
+    /**
+     * Gives back a buffer acquired from this pool, it mustn't be used afterwards
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+
+        int sizeClass = getSizeClass(buffer.capacity());
+        if (getSize(sizeClass) != buffer.capacity() || !buffer.hasArray()) return;   // not from the pool
+
+        buffer.clear();
+        heapBuffers[sizeClass].offer(buffer);
+    }
+
+    private static int getSizeClass(int size) {
+        int clamped = Math.max(MIN_SIZE, Math.min(MAX_SIZE, size));
+        int roundedUp = Integer.highestOneBit(clamped - 1) << 1;
+        return Integer.numberOfTrailingZeros(roundedUp) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    private static int getSize(int sizeClass) {
+        return MIN_SIZE << sizeClass;
+    }
+
+    private static class SizeClass {
+        private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        ByteBuffer poll() {
+            ByteBuffer buffer = buffers.poll();
+            if (buffer != null) count.decrementAndGet();
+            return buffer;
+        }
+
+        void offer(ByteBuffer buffer) {
+            if (count.incrementAndGet() > MAX_POOLED_PER_CLASS) {
+                count.decrementAndGet();
+                return;
+            }
+            buffers.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.amaze.filemanager.utils.files;
+
+import com.amaze.filemanager.utils.OpenMode;
+
+/**
+ * Picks the I/O buffer size of a transfer from the storage backends at both of it's ends,
+ * and grows it while doing so measurably improves the throughput.
+ *
+ * Local flash is happy with small buffers, while OTG, SMB and cloud transfers pay a round trip
+ * (USB transfer, network request) per read and need larger ones to keep the link busy.
+ *
+ * A strategy is meant for a single transfer on a single thread.
+ */
+public class BufferStrategy {
+
+    private static final int SIZE_LOCAL = 64 * 1024;
+    private static final int SIZE_OTG = 128 * 1024;
+    private static final int SIZE_SMB = 256 * 1024;
+    private static final int SIZE_CLOUD = 512 * 1024;
+
+    // bytes transferred between two throughput measurements, in buffers of the current size
+    private static final int BUFFERS_PER_WINDOW = 16;
+
+    // a bigger buffer is kept growing only if it was at least this much (in percent) faster
+    private static final int MIN_GAIN_PERCENT = 10;
+
+    private final int maxBufferSize;
+    private final int readAheadSize;
+    private int bufferSize;
+
+    private boolean growing = true;
+    private long windowStart = -1;
+    private long windowBytes = 0;
+    private long lastRate = 0;
+
+    private BufferStrategy(int bufferSize, int maxBufferSize, int readAheadSize) {
+        this.bufferSize = bufferSize;
+        this.maxBufferSize = maxBufferSize;
+        this.readAheadSize = readAheadSize;
+    }
+
+    /**
+     * @param source open mode of the file being read
+     * @param target open mode of the file being written
+     */
+    public static BufferStrategy forModes(OpenMode source, OpenMode target) {
+        int size = Math.max(getSize(source), getSize(target));
+
+        // local copies rarely gain from growing, remote ones are allowed to reach the pool maximum
+        int maxSize = size == SIZE_LOCAL ? SIZE_LOCAL * 4 : BufferPool.MAX_SIZE;
+
+        return new BufferStrategy(size, maxSize, size);
+    }
+
+    private static int getSize(OpenMode mode) {
+        if (mode == null) return SIZE_LOCAL;
+
+        switch (mode) {
+            case OTG:
+                return SIZE_OTG;
+            case SMB:
+                return SIZE_SMB;
+            case GDRIVE:
+            case DROPBOX:
+            case BOX:
+            case ONEDRIVE:
+                return SIZE_CLOUD;
+            default:
+                return SIZE_LOCAL;
+        }
+    }
+
+    /**
+     * @return size of the buffer to use for the next read
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return size for the buffered streams wrapping the source and target
+     */
+    public int getReadAheadSize() {
+        return readAheadSize;
+    }
+
+    /**
+     * Accounts a completed read/write, every few buffers the throughput is measured and the buffer
+     * doubled if the previous doubling paid off
+     *
+     * @param count number of bytes transferred
+     * @return true if {@link #getBufferSize()} has changed and the buffer should be re-acquired
+     */
+    public boolean onTransferred(int count) {
+        if (!growing) return false;
+
+        long now = System.nanoTime();
+        if (windowStart == -1) {
+            windowStart = now;
+            return false;
+        }
+
+        windowBytes += count;
+        if (windowBytes < (long) bufferSize * BUFFERS_PER_WINDOW) return false;
+
+        long elapsed = Math.max(1, now - windowStart);
+        long rate = windowBytes * 1000000000L / elapsed;
+
+        windowStart = now;
+        windowBytes = 0;
+
+        if (lastRate != 0 && rate * 100 < lastRate * (100 + MIN_GAIN_PERCENT)) {
+            // last growth didn't help, settle with the current size
+            growing = false;
+            return false;
+        }
+
+        lastRate = rate;
+        if (bufferSize >= maxBufferSize) {
+            growing = false;
+            return false;
+        }
+
+        bufferSize = Math.min(bufferSize * 2, maxBufferSize);
+        return true;
+    }
+}
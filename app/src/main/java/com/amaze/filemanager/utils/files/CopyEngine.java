@@ -0,0 +1,503 @@
+package com.amaze.filemanager.utils.files;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.amaze.filemanager.database.CopyJournalHandler;
+import com.amaze.filemanager.database.models.CopyJournalEntry;
+import com.amaze.filemanager.filesystem.FileUtil;
+import com.amaze.filemanager.filesystem.HybridFile;
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.PreferenceUtils;
+import com.amaze.filemanager.utils.ProgressHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Runs file copies of a single operation on a bounded pool of workers.
+ *
+ * Files are queued with {@link #submit(HybridFileParcelable, HybridFile, HybridFileParcelable)}
+ * by the thread walking the source tree (which also creates the directories, so a directory
+ * always exists before any of it's children are copied). Plain files above the chunk size of
+ * the {@link Config} are split into byte ranges, every range being copied by a worker
+ * with positional {@link FileChannel} reads and writes.
+ *
+ * Progress of all the workers is added to the {@link ProgressHandler} of the operation.
+ *
+ * With a {@link CopyJournalHandler} the engine records completed files, and for chunked files
+ * how much of their start is copied with a hash of every chunk in it, so that an interrupted job
+ * started again skips the completed files and continues the chunked ones once their copied start
+ * matches the hashes. Chunks are forced to the storage before being recorded.
+ * Files copied in one piece are restarted from the beginning.
+ */
+public class CopyEngine {
+
+    private static final String TAG = "CopyEngine";
+
+    // buffer used by each worker when copying a range of a chunked file, on the heap as the
+    // range is hashed from it
+    private static final int CHUNK_BUFFER_SIZE = 64 * 1024;
+
+    // completed files recorded in the journal at once, losing them only means copying them again
+    private static final int JOURNAL_BATCH_SIZE = 64;
+
+    private final Context context;
+    private final Config config;
+    private final ProgressHandler progressHandler;
+    private final ThreadPoolExecutor executor;
+
+    // bounds the number of jobs waiting in the queue, blocks the walker when workers are behind
+    private final Semaphore queueSlots;
+
+    // number of jobs submitted but not yet finished
+    private int pendingJobs = 0;
+    private final Object pendingLock = new Object();
+
+    // top level source files (as selected by the user) which couldn't be copied completely
+    private final ArrayList<HybridFileParcelable> failedFiles = new ArrayList<>();
+
+    // null when the job isn't journaled
+    private final CopyJournalHandler journal;
+    private final long jobId;
+    private final HashMap<String, CopyJournalEntry> journalEntries;
+    private final ArrayList<CopyJournalEntry> pendingJournalEntries = new ArrayList<>();
+
+    public CopyEngine(Context context, Config config, ProgressHandler progressHandler) {
+        this(context, config, progressHandler, null, -1);
+    }
+
+    /**
+     * @param journal journal to record the progress of the job in, and to resume it from
+     * @param jobId id of the job in the journal
+     */
+    public CopyEngine(Context context, Config config, ProgressHandler progressHandler,
+                      CopyJournalHandler journal, long jobId) {
+        this.context = context;
+        this.journal = journal;
+        this.jobId = jobId;
+        this.journalEntries = journal != null ? journal.getEntries(jobId) : new HashMap<>();
+        this.config = config;
+        this.progressHandler = progressHandler;
+        this.queueSlots = new Semaphore(config.workers * 4);
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "copy_worker_" + threadCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+
+        executor = new ThreadPoolExecutor(config.workers, config.workers, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the copy of a single file, blocks if too many jobs are already waiting
+     *
+     * @param sourceFile the file to copy, must not be a directory
+     * @param targetFile the file to create
+     * @param topLevelFile the file selected by the user which contains (or is) the source,
+     *                     it is reported as failed if this copy fails
+     */
+    public void submit(final HybridFileParcelable sourceFile, final HybridFile targetFile,
+                       final HybridFileParcelable topLevelFile) {
+
+        if (progressHandler.getCancelled()) return;
+
+        final long size = sourceFile.getSize();
+        CopyJournalEntry entry = journalEntries.get(targetFile.getPath());
+        if (entry != null && (entry.getSize() != size || entry.getDate() != sourceFile.getDate())) {
+            // source changed since it was journaled
+            entry = null;
+        }
+
+        if (entry != null && entry.isCompleted()
+                && targetFile.exists(context) && targetFile.length(context) == size) {
+            progressHandler.addWrittenLength(size);
+            return;
+        }
+
+        if (config.chunkSize > 0 && size > config.chunkSize && canCopyChunked(sourceFile, targetFile)) {
+            long chunkSize = config.chunkSize;
+            long[] copiedHashes = new long[0];
+            if (entry != null && entry.getOffset() > 0 && entry.getOffset() < size
+                    && prefixMatches(new File(targetFile.getPath()), entry)) {
+                // the rest is copied in chunks of the same size as those already copied
+                chunkSize = entry.getChunkSize();
+                copiedHashes = entry.getChunkHashes();
+            }
+
+            submitChunked(sourceFile, targetFile, topLevelFile, size, chunkSize, copiedHashes);
+            return;
+        }
+
+        enqueue(() -> {
+            try {
+                progressHandler.setFileName(sourceFile.getName());
+                new GenericCopyUtil(context, progressHandler).copy(sourceFile, targetFile);
+                if (!progressHandler.getCancelled()) {
+                    putJournalEntry(new CopyJournalEntry(targetFile.getPath(), size,
+                            sourceFile.getDate(), size, true), false);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Failed to copy " + sourceFile.getPath(), e);
+                addFailed(topLevelFile);
+            }
+        });
+    }
+
+    /**
+     * Blocks until every queued job has finished (or was skipped because of cancellation)
+     */
+    public void awaitCompletion() {
+        synchronized (pendingLock) {
+            while (pendingJobs > 0) {
+                try {
+                    pendingLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        flushJournal();
+    }
+
+    /**
+     * Stops the workers, jobs still in queue are dropped
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return top level source files which couldn't be copied completely
+     */
+    public synchronized ArrayList<HybridFileParcelable> getFailedFiles() {
+        return new ArrayList<>(failedFiles);
+    }
+
+    private synchronized void addFailed(HybridFileParcelable topLevelFile) {
+        if (!failedFiles.contains(topLevelFile)) failedFiles.add(topLevelFile);
+    }
+
+    /**
+     * Positional writes are only possible when both ends are plain files we can open directly,
+     * everything else (SAF, OTG, SMB, cloud) goes through streams in {@link GenericCopyUtil}
+     */
+    private boolean canCopyChunked(HybridFileParcelable sourceFile, HybridFile targetFile) {
+        if (sourceFile.getMode() != OpenMode.FILE || targetFile.getMode() != OpenMode.FILE) return false;
+
+        return FileUtil.isReadable(new File(sourceFile.getPath()))
+                && FileUtil.isWritable(new File(targetFile.getPath()));
+    }
+
+    /**
+     * Hashes every chunk of the copied start of the target, checking it against the journal
+     * before resuming the copy after it: the start may not all be on the storage (power loss),
+     * the missing parts then reading as zeros in the preallocated target
+     */
+    private boolean prefixMatches(File target, CopyJournalEntry entry) {
+        long offset = entry.getOffset(), chunkSize = entry.getChunkSize();
+        long[] hashes = entry.getChunkHashes();
+        if (chunkSize <= 0 || hashes.length != (offset + chunkSize - 1) / chunkSize
+                || target.length() < offset) {
+            return false;
+        }
+
+        ByteBuffer buffer = BufferPool.acquireHeap(CHUNK_BUFFER_SIZE);
+        try {
+            RandomAccessFile targetAccess = new RandomAccessFile(target, "r");
+            try {
+                byte[] bytes = buffer.array();
+                CRC32 crc32 = new CRC32();
+                for (int i = 0; i < hashes.length; i++) {
+                    if (progressHandler.getCancelled()) return false;
+
+                    long position = i * chunkSize, end = Math.min(position + chunkSize, offset);
+                    crc32.reset();
+                    targetAccess.seek(position);
+                    while (position < end) {
+                        int count = (int) Math.min(bytes.length, end - position);
+                        targetAccess.readFully(bytes, 0, count);
+                        crc32.update(bytes, 0, count);
+                        position += count;
+                    }
+                    if (crc32.getValue() != hashes[i]) return false;
+                }
+                return true;
+            } finally {
+                targetAccess.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to check copied part of " + target.getPath(), e);
+            return false;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * @param copiedHashes hashes of the chunks already copied at the start of the target
+     */
+    private void submitChunked(final HybridFileParcelable sourceFile, final HybridFile targetFile,
+                               final HybridFileParcelable topLevelFile, final long size,
+                               final long chunkSize, final long[] copiedHashes) {
+
+        final File source = new File(sourceFile.getPath());
+        final File target = new File(targetFile.getPath());
+
+        try {
+            // allocate the whole target beforehand so that ranges can be written in any order
+            RandomAccessFile targetAccess = new RandomAccessFile(target, "rw");
+            try {
+                targetAccess.setLength(size);
+            } finally {
+                targetAccess.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to allocate " + target.getPath(), e);
+            addFailed(topLevelFile);
+            return;
+        }
+
+        long resumeOffset = copiedHashes.length * chunkSize;
+        progressHandler.setFileName(sourceFile.getName());
+        progressHandler.addWrittenLength(resumeOffset);
+
+        final ChunkedFile chunkedFile = new ChunkedFile(size, chunkSize, copiedHashes);
+        for (long offset = resumeOffset; offset < size; offset += chunkSize) {
+            final long start = offset;
+            final long length = Math.min(chunkSize, size - offset);
+
+            enqueue(() -> {
+                try {
+                    long hash = copyRange(source, target, start, length);
+                    if (progressHandler.getCancelled()) return;
+
+                    long copied = chunkedFile.onChunkCopied(start, hash);
+                    if (copied != -1) {
+                        putJournalEntry(new CopyJournalEntry(targetFile.getPath(), size,
+                                sourceFile.getDate(), copied, copied == size, chunkSize,
+                                chunkedFile.getHashes(copied)), true);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to copy range " + start + " of " + source.getPath(), e);
+                    addFailed(topLevelFile);
+                }
+            });
+        }
+    }
+
+    /**
+     * Copies the range and forces it to the storage, so that it can be journaled as copied
+     *
+     * @return CRC32 of the range, -1 if cancelled
+     */
+    private long copyRange(File source, File target, long start, long length) throws IOException {
+        RandomAccessFile sourceAccess = new RandomAccessFile(source, "r");
+        RandomAccessFile targetAccess = new RandomAccessFile(target, "rw");
+        ByteBuffer buffer = BufferPool.acquireHeap(CHUNK_BUFFER_SIZE);
+        CRC32 crc32 = new CRC32();
+
+        try {
+            FileChannel inChannel = sourceAccess.getChannel();
+            FileChannel outChannel = targetAccess.getChannel();
+
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                if (progressHandler.getCancelled()) return -1;
+
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+                int read = inChannel.read(buffer, position);
+                if (read == -1) throw new IOException("Unexpected end of file at " + position);
+                crc32.update(buffer.array(), 0, read);
+
+                buffer.flip();
+                long writePosition = position;
+                while (buffer.hasRemaining()) {
+                    writePosition += outChannel.write(buffer, writePosition);
+                }
+
+                position += read;
+                progressHandler.addWrittenLength(read);
+            }
+
+            outChannel.force(false);
+            return crc32.getValue();
+        } finally {
+            BufferPool.release(buffer);
+            sourceAccess.close();
+            targetAccess.close();
+        }
+    }
+
+    /**
+     * Records the state of a file in the journal, if any
+     *
+     * @param flush whether to write it right away, instead of with the next batch
+     */
+    private void putJournalEntry(CopyJournalEntry entry, boolean flush) {
+        if (journal == null) return;
+
+        synchronized (pendingJournalEntries) {
+            pendingJournalEntries.add(entry);
+            if (flush || pendingJournalEntries.size() >= JOURNAL_BATCH_SIZE) flushJournal();
+        }
+    }
+
+    private void flushJournal() {
+        if (journal == null) return;
+
+        synchronized (pendingJournalEntries) {
+            try {
+                journal.putEntries(jobId, pendingJournalEntries);
+            } catch (RuntimeException e) {
+                // the journal is only an aid to resume, the copy itself goes on
+                Log.w(TAG, "Failed to update copy journal", e);
+            }
+            pendingJournalEntries.clear();
+        }
+    }
+
+    private void enqueue(final Runnable job) {
+        try {
+            queueSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        synchronized (pendingLock) {
+            pendingJobs++;
+        }
+
+        executor.execute(() -> {
+            try {
+                if (!progressHandler.getCancelled()) job.run();
+            } finally {
+                queueSlots.release();
+                synchronized (pendingLock) {
+                    pendingJobs--;
+                    pendingLock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Tracks which chunks of a file are copied and their hashes, to find how much of it's start
+     * is complete
+     */
+    private static class ChunkedFile {
+        private final long size, chunkSize;
+        private final boolean[] copied;
+        private final long[] hashes;
+        private int contiguous;
+
+        /**
+         * @param copiedHashes hashes of the chunks at the start of the file already copied
+         */
+        ChunkedFile(long size, long chunkSize, long[] copiedHashes) {
+            this.size = size;
+            this.chunkSize = chunkSize;
+
+            int chunks = (int) ((size + chunkSize - 1) / chunkSize);
+            this.copied = new boolean[chunks];
+            this.hashes = new long[chunks];
+
+            contiguous = copiedHashes.length;
+            Arrays.fill(copied, 0, contiguous, true);
+            System.arraycopy(copiedHashes, 0, hashes, 0, contiguous);
+        }
+
+        /**
+         * @param start offset of the chunk copied
+         * @return number of bytes copied from the start of the file, or -1 if unchanged
+         */
+        synchronized long onChunkCopied(long start, long hash) {
+            int chunk = (int) (start / chunkSize);
+            copied[chunk] = true;
+            hashes[chunk] = hash;
+
+            int previous = contiguous;
+            while (contiguous < copied.length && copied[contiguous]) contiguous++;
+            if (contiguous == previous) return -1;
+
+            return Math.min(size, contiguous * chunkSize);
+        }
+
+        /**
+         * @return hashes of the chunks in the first bytes of the file
+         */
+        synchronized long[] getHashes(long length) {
+            return Arrays.copyOf(hashes, (int) ((length + chunkSize - 1) / chunkSize));
+        }
+    }
+
+    /**
+     * Number of workers and the size above which files are split into ranges, for a storage type.
+     * Values can be overridden through {@link SharedPreferences}, see {@link PreferenceUtils}
+     */
+    public static class Config {
+
+        public final int workers;
+
+        // files larger than this are copied in ranges of this size, 0 disables chunking
+        public final long chunkSize;
+
+        public Config(int workers, long chunkSize) {
+            this.workers = Math.max(1, workers);
+            this.chunkSize = Math.max(0, chunkSize);
+        }
+
+        /**
+         * Finds the config for a copy between two storage types, the slower one decides.
+         * OTG devices don't benefit from concurrent access, and SMB/cloud targets
+         * have no positional writes, so only plain files get chunked.
+         */
+        public static Config forModes(Context context, OpenMode sourceMode, OpenMode targetMode) {
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+            if (sourceMode == OpenMode.OTG || targetMode == OpenMode.OTG) {
+                return new Config(preferences.getInt(PreferenceUtils.KEY_COPY_WORKERS_OTG,
+                        PreferenceUtils.DEFAULT_COPY_WORKERS_OTG),
+                        preferences.getLong(PreferenceUtils.KEY_COPY_CHUNK_SIZE_OTG,
+                                PreferenceUtils.DEFAULT_COPY_CHUNK_SIZE_OTG));
+            } else if (sourceMode == OpenMode.FILE && targetMode == OpenMode.FILE) {
+                return new Config(preferences.getInt(PreferenceUtils.KEY_COPY_WORKERS_FILE,
+                        PreferenceUtils.DEFAULT_COPY_WORKERS_FILE),
+                        preferences.getLong(PreferenceUtils.KEY_COPY_CHUNK_SIZE_FILE,
+                                PreferenceUtils.DEFAULT_COPY_CHUNK_SIZE_FILE));
+            } else {
+                // smb, cloud and mixed copies are latency bound, a few concurrent streams help
+                return new Config(preferences.getInt(PreferenceUtils.KEY_COPY_WORKERS_SMB,
+                        PreferenceUtils.DEFAULT_COPY_WORKERS_SMB),
+                        preferences.getLong(PreferenceUtils.KEY_COPY_CHUNK_SIZE_SMB,
+                                PreferenceUtils.DEFAULT_COPY_CHUNK_SIZE_SMB));
+            }
+        }
+    }
+}
@@ -16,7 +16,7 @@ import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.fragments.preference_fragments.PrefFrag;
 import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.ProgressHandler;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.OperationScheduler;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -24,6 +24,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
@@ -70,7 +71,7 @@ import javax.security.auth.x500.X500Principal;
  * We use buffered streams to process files, usage of NIO will probably mildly effect the performance.
  *
  * Be sure to use constructors to encrypt/decrypt files only, and to call service through
- * {@link ServiceWatcherUtil} and to initialize watchers beforehand
+ * {@link OperationScheduler} and to initialize watchers beforehand
  */
 
 public class CryptUtil {
@@ -85,6 +86,8 @@ public class CryptUtil {
 
     public static final String CRYPT_EXTENSION = ".aze";
 
+    private static final int BUFFER_SIZE = BufferStrategy.forModes(OpenMode.FILE, OpenMode.FILE).getBufferSize();
+
     private ProgressHandler progressHandler;
     private ArrayList<HybridFile> failedOps;
 
@@ -95,7 +98,7 @@ public class CryptUtil {
      * Make sure you're done with encrypting password for this file and map it with this file in database
      *
      * Be sure to use constructors to encrypt/decrypt files only, and to call service through
-     * {@link ServiceWatcherUtil} and to initialize watchers beforehand
+     * {@link OperationScheduler} and to initialize watchers beforehand
      *
      * @param context
      * @param sourceFile the file to encrypt
@@ -117,7 +120,7 @@ public class CryptUtil {
      * Make sure to decrypt and check user provided passwords beforehand from database
      *
      * Be sure to use constructors to encrypt/decrypt files only, and to call service through
-     * {@link ServiceWatcherUtil} and to initialize watchers beforehand
+     * {@link OperationScheduler} and to initialize watchers beforehand
      *
      * @param context
      * @param baseFile the encrypted file
@@ -169,8 +172,10 @@ public class CryptUtil {
                 return;
             }
 
+            int readAheadSize = BufferStrategy.forModes(sourceFile.getMode(), targetDirectory.getMode())
+                    .getReadAheadSize();
             BufferedInputStream inputStream = new BufferedInputStream(sourceFile.getInputStream(context),
-                    GenericCopyUtil.DEFAULT_BUFFER_SIZE);
+                    readAheadSize);
 
             HybridFile targetFile = new HybridFile(targetDirectory.getMode(),
                     targetDirectory.getPath(), sourceFile.getName().replace(CRYPT_EXTENSION, ""),
@@ -179,14 +184,14 @@ public class CryptUtil {
             progressHandler.setFileName(sourceFile.getName());
 
             BufferedOutputStream outputStream = new BufferedOutputStream(targetFile.getOutputStream(context),
-                    GenericCopyUtil.DEFAULT_BUFFER_SIZE);
+                    readAheadSize);
 
             if (progressHandler.getCancelled()) return;
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                aesDecrypt(inputStream, outputStream);
+                aesDecrypt(inputStream, outputStream, progressHandler);
             } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                rsaDecrypt(context, inputStream, outputStream);
+                rsaDecrypt(context, inputStream, outputStream, progressHandler);
             }
         }
     }
@@ -222,8 +227,10 @@ public class CryptUtil {
                 return;
             }
 
+            int readAheadSize = BufferStrategy.forModes(sourceFile.getMode(), targetDirectory.getMode())
+                    .getReadAheadSize();
             BufferedInputStream inputStream = new BufferedInputStream(sourceFile.getInputStream(context),
-                    GenericCopyUtil.DEFAULT_BUFFER_SIZE);
+                    readAheadSize);
 
             // succeed #CRYPT_EXTENSION at end of directory/file name
             HybridFile targetFile = new HybridFile(targetDirectory.getMode(),
@@ -233,14 +240,14 @@ public class CryptUtil {
             progressHandler.setFileName(sourceFile.getName());
 
             BufferedOutputStream outputStream = new BufferedOutputStream(targetFile.getOutputStream(context),
-                    GenericCopyUtil.DEFAULT_BUFFER_SIZE);
+                    readAheadSize);
 
             if (progressHandler.getCancelled()) return;
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                aesEncrypt(inputStream, outputStream);
+                aesEncrypt(inputStream, outputStream, progressHandler);
             } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                rsaEncrypt(context, inputStream, outputStream);
+                rsaEncrypt(context, inputStream, outputStream, progressHandler);
             }
         }
     }
@@ -278,10 +285,11 @@ public class CryptUtil {
      * Helper method to encrypt a file
      * @param inputStream stream associated with the file to be encrypted
      * @param outputStream stream associated with new output encrypted file
+     * @param progressHandler progress of the operation, bytes read are added to it
      */
     @RequiresApi(api = Build.VERSION_CODES.M)
-    private static void aesEncrypt(BufferedInputStream inputStream, BufferedOutputStream outputStream)
-            throws GeneralSecurityException, IOException {
+    private static void aesEncrypt(BufferedInputStream inputStream, BufferedOutputStream outputStream,
+                                   ProgressHandler progressHandler) throws GeneralSecurityException, IOException {
 
         Cipher cipher = Cipher.getInstance(ALGO_AES);
 
@@ -289,7 +297,8 @@ public class CryptUtil {
 
         cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(), gcmParameterSpec);
 
-        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+        ByteBuffer pooledBuffer = BufferPool.acquireHeap(BUFFER_SIZE);
+        byte[] buffer = pooledBuffer.array();
         int count;
 
         CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, cipher);
@@ -299,10 +308,11 @@ public class CryptUtil {
             while ((count = inputStream.read(buffer)) != -1) {
 
                 cipherOutputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
+                progressHandler.addWrittenLength(count);
             }
         } finally {
 
+            BufferPool.release(pooledBuffer);
             cipherOutputStream.flush();
             cipherOutputStream.close();
             inputStream.close();
@@ -313,10 +323,11 @@ public class CryptUtil {
      * Helper method to decrypt file
      * @param inputStream stream associated with encrypted file
      * @param outputStream stream associated with new output decrypted file
+     * @param progressHandler progress of the operation, bytes written are added to it
      */
     @RequiresApi(api = Build.VERSION_CODES.M)
-    private static void aesDecrypt(BufferedInputStream inputStream, BufferedOutputStream outputStream)
-            throws GeneralSecurityException, IOException {
+    private static void aesDecrypt(BufferedInputStream inputStream, BufferedOutputStream outputStream,
+                                   ProgressHandler progressHandler) throws GeneralSecurityException, IOException {
 
         Cipher cipher = Cipher.getInstance(ALGO_AES);
         GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(128, IV.getBytes());
@@ -324,7 +335,8 @@ public class CryptUtil {
         cipher.init(Cipher.DECRYPT_MODE, getSecretKey(), gcmParameterSpec);
         CipherInputStream cipherInputStream = new CipherInputStream(inputStream, cipher);
 
-        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+        ByteBuffer pooledBuffer = BufferPool.acquireHeap(BUFFER_SIZE);
+        byte[] buffer = pooledBuffer.array();
         int count;
 
         try {
@@ -332,10 +344,11 @@ public class CryptUtil {
             while ((count = cipherInputStream.read(buffer)) != -1) {
 
                 outputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
+                progressHandler.addWrittenLength(count);
             }
         } finally {
 
+            BufferPool.release(pooledBuffer);
             outputStream.flush();
             cipherInputStream.close();
             outputStream.close();
@@ -377,8 +390,8 @@ public class CryptUtil {
     }
 
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-    private static void rsaEncrypt(Context context, BufferedInputStream inputStream, BufferedOutputStream outputStream)
-            throws GeneralSecurityException, IOException {
+    private static void rsaEncrypt(Context context, BufferedInputStream inputStream, BufferedOutputStream outputStream,
+                                   ProgressHandler progressHandler) throws GeneralSecurityException, IOException {
 
         Cipher cipher = Cipher.getInstance(ALGO_AES, "BC");
         RSAKeygen keygen = new RSAKeygen(context);
@@ -386,7 +399,8 @@ public class CryptUtil {
         IvParameterSpec ivParameterSpec = new IvParameterSpec(IV.getBytes());
         cipher.init(Cipher.ENCRYPT_MODE, keygen.getSecretKey(), ivParameterSpec);
 
-        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+        ByteBuffer pooledBuffer = BufferPool.acquireHeap(BUFFER_SIZE);
+        byte[] buffer = pooledBuffer.array();
         int count;
 
         CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, cipher);
@@ -395,10 +409,11 @@ public class CryptUtil {
             while ((count = inputStream.read(buffer)) != -1) {
 
                 cipherOutputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
+                progressHandler.addWrittenLength(count);
             }
         } finally {
 
+            BufferPool.release(pooledBuffer);
             cipherOutputStream.flush();
             cipherOutputStream.close();
             inputStream.close();
@@ -407,7 +422,7 @@ public class CryptUtil {
 
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     private static void rsaDecrypt(Context context, BufferedInputStream inputStream,
-                                   BufferedOutputStream outputStream) throws GeneralSecurityException, IOException {
+                                   BufferedOutputStream outputStream, ProgressHandler progressHandler) throws GeneralSecurityException, IOException {
 
         Cipher cipher = Cipher.getInstance(ALGO_AES, "BC");
         RSAKeygen keygen = new RSAKeygen(context);
@@ -416,7 +431,8 @@ public class CryptUtil {
         cipher.init(Cipher.DECRYPT_MODE, keygen.getSecretKey(), ivParameterSpec);
         CipherInputStream cipherInputStream = new CipherInputStream(inputStream, cipher);
 
-        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+        ByteBuffer pooledBuffer = BufferPool.acquireHeap(BUFFER_SIZE);
+        byte[] buffer = pooledBuffer.array();
         int count;
 
         try {
@@ -424,10 +440,11 @@ public class CryptUtil {
             while ((count = cipherInputStream.read(buffer)) != -1) {
 
                 outputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
+                progressHandler.addWrittenLength(count);
             }
         } finally {
 
+            BufferPool.release(pooledBuffer);
             outputStream.flush();
             outputStream.close();
             cipherInputStream.close();
@@ -17,7 +17,7 @@ import com.amaze.filemanager.fragments.preference_fragments.PrefFrag;
 import com.amaze.filemanager.asynchronous.services.EncryptService;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
 import com.amaze.filemanager.utils.OpenMode;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.OperationScheduler;
 import com.amaze.filemanager.utils.provider.UtilitiesProviderInterface;
 
 import java.io.IOException;
@@ -48,7 +48,7 @@ public class EncryptDecryptUtils {
         cryptHandler.addEntry(encryptedEntry);
 
         // start the encryption process
-        ServiceWatcherUtil.runService(c, intent);
+        OperationScheduler.getInstance(c).schedule(intent);
     }
 
 
@@ -82,7 +82,7 @@ public class EncryptDecryptUtils {
                 new DecryptButtonCallbackInterface() {
                     @Override
                     public void confirm(Intent intent) {
-                        ServiceWatcherUtil.runService(main.getContext(), intent);
+                        OperationScheduler.getInstance(main.getContext()).schedule(intent);
                     }
 
                     @Override
@@ -0,0 +1,304 @@
+package com.amaze.filemanager.utils.files;
+
+import android.content.Context;
+import android.support.v4.util.LruCache;
+
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.OpenMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Computes several hashes of a file reading it only once.
+ *
+ * Every buffer read is given to all the hashes, large files have their hashes computed each on
+ * it's own thread: the buffers go through a small ring which the reader refills as soon as
+ * every hash is done with a buffer, so that reading isn't slowed down by the slowest hash.
+ *
+ * Results are cached by path, size and modification time.
+ */
+public class FileHasher {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA_1 = "SHA-1";
+    public static final String SHA_256 = "SHA-256";
+    public static final String SHA_512 = "SHA-512";
+    public static final String CRC_32 = "CRC32";
+
+    // files smaller than this are hashed on the reading thread
+    private static final long PARALLEL_SIZE = 16 * 1024 * 1024;
+
+    // buffers in the ring of a parallel hashing
+    private static final int RING_SIZE = 4;
+
+    // files hashed at the same time by hashAll()
+    private static final int BATCH_THREADS = 2;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final LruCache<String, String> cache = new LruCache<>(256);
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "file_hasher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public interface Listener {
+        /**
+         * @param hashes the hashes of the file in the order of the algorithms, null if it couldn't be read
+         */
+        void onFileHashed(HybridFileParcelable file, String[] hashes);
+    }
+
+    /**
+     * @return the cached hashes of the file, null if any of them isn't cached
+     */
+    public static String[] getCached(HybridFileParcelable file, String... algorithms) {
+        String[] hashes = new String[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            hashes[i] = cache.get(getKey(file, algorithms[i]));
+            if (hashes[i] == null) return null;
+        }
+        return hashes;
+    }
+
+    /**
+     * Computes the hashes of the file, as lower case hex strings, reading it once
+     *
+     * @param algorithms any of {@link #MD5}, {@link #SHA_1}, {@link #SHA_256}, {@link #SHA_512}, {@link #CRC_32}
+     */
+    public static String[] hash(Context context, HybridFileParcelable file, String... algorithms)
+            throws IOException, NoSuchAlgorithmException {
+        return compute(context, file, file.getSize() >= PARALLEL_SIZE, algorithms);
+    }
+
+    /**
+     * Hashes the files, a few at a time, calls the listener from the hashing threads
+     * as each file is done, blocks until all are
+     */
+    public static void hashAll(final Context context, final List<HybridFileParcelable> files,
+                               final Listener listener, final String... algorithms) throws InterruptedException {
+        // each file is hashed on a single thread, with a few of them read at the same time
+        final AtomicInteger next = new AtomicInteger();
+
+        Future[] workers = new Future[Math.min(BATCH_THREADS, files.size())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = executor.submit(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < files.size()) {
+                    if (Thread.currentThread().isInterrupted()) return;
+
+                    HybridFileParcelable file = files.get(index);
+                    String[] hashes = null;
+                    try {
+                        hashes = compute(context, file, false, algorithms);
+                    } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+                        // eg. a cloud provider's unchecked errors, only this file fails
+                        e.printStackTrace();
+                    }
+                    listener.onFileHashed(file, hashes);
+                }
+            });
+        }
+
+        try {
+            for (Future worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future worker : workers) {
+                worker.cancel(true);
+            }
+        }
+    }
+
+    private static String[] compute(Context context, HybridFileParcelable file, boolean parallel,
+                                 String... algorithms) throws IOException, NoSuchAlgorithmException {
+        String[] cached = getCached(file, algorithms);
+        if (cached != null) return cached;
+
+        Hash[] hashes = new Hash[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            hashes[i] = Hash.getInstance(algorithms[i]);
+        }
+
+        int bufferSize = BufferStrategy.forModes(file.getMode(), OpenMode.FILE).getBufferSize();
+        InputStream inputStream = file.getInputStream(context);
+        if (inputStream == null) throw new IOException("Cannot read " + file.getPath());
+
+        try {
+            if (parallel && hashes.length > 1) updateInParallel(inputStream, hashes, bufferSize);
+            else updateSequentially(inputStream, hashes, bufferSize);
+        } finally {
+            inputStream.close();
+        }
+
+        String[] results = new String[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            results[i] = toHex(hashes[i].digest());
+            cache.put(getKey(file, algorithms[i]), results[i]);
+        }
+        return results;
+    }
+
+    private static void updateSequentially(InputStream inputStream, Hash[] hashes, int bufferSize)
+            throws IOException {
+        ByteBuffer pooledBuffer = BufferPool.acquireHeap(bufferSize);
+        byte[] buffer = pooledBuffer.array();
+        try {
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                if (Thread.interrupted()) throw new InterruptedIOException();
+
+                for (Hash hash : hashes) {
+                    hash.update(buffer, length);
+                }
+            }
+        } finally {
+            BufferPool.release(pooledBuffer);
+        }
+    }
+
+    /**
+     * Reads the stream on the calling thread, each hash consumes the buffers on it's own thread
+     */
+    @SuppressWarnings("unchecked")
+    private static void updateInParallel(InputStream inputStream, final Hash[] hashes, int bufferSize) throws IOException {
+        final ByteBuffer[] pooledBuffers = new ByteBuffer[RING_SIZE];
+        final int[] lengths = new int[RING_SIZE];
+        // hashes which didn't consume a buffer yet
+        final AtomicInteger[] pending = new AtomicInteger[RING_SIZE];
+        final Semaphore free = new Semaphore(RING_SIZE);
+
+        for (int i = 0; i < RING_SIZE; i++) {
+            pooledBuffers[i] = BufferPool.acquireHeap(bufferSize);
+            pending[i] = new AtomicInteger();
+        }
+
+        // indexes of the buffers to consume, -1 once the stream ends
+        final ArrayBlockingQueue<Integer>[] queues = new ArrayBlockingQueue[hashes.length];
+        Future[] consumers = new Future[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            final ArrayBlockingQueue<Integer> queue = queues[i] = new ArrayBlockingQueue<>(RING_SIZE + 1);
+            final Hash hash = hashes[i];
+            consumers[i] = executor.submit(() -> {
+                int slot;
+                while ((slot = queue.take()) != -1) {
+                    hash.update(pooledBuffers[slot].array(), lengths[slot]);
+                    if (pending[slot].decrementAndGet() == 0) free.release();
+                }
+                return null;
+            });
+        }
+
+        try {
+            for (int slot = 0; ; slot = (slot + 1) % RING_SIZE) {
+                free.acquire();
+
+                int length = inputStream.read(pooledBuffers[slot].array());
+                if (length == -1) {
+                    free.release();
+                    break;
+                }
+
+                lengths[slot] = length;
+                pending[slot].set(hashes.length);
+                for (ArrayBlockingQueue<Integer> queue : queues) {
+                    queue.put(slot);
+                }
+            }
+
+            for (ArrayBlockingQueue<Integer> queue : queues) {
+                queue.put(-1);
+            }
+            for (Future consumer : consumers) {
+                consumer.get();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future consumer : consumers) {
+                consumer.cancel(true);
+            }
+            // buffers still used by a cancelled consumer are left to the GC
+            if (free.tryAcquire(RING_SIZE)) {
+                for (ByteBuffer buffer : pooledBuffers) {
+                    BufferPool.release(buffer);
+                }
+            }
+        }
+    }
+
+    private static String getKey(HybridFileParcelable file, String algorithm) {
+        return algorithm + "|" + file.getSize() + "|" + file.getDate() + "|" + file.getPath();
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * A {@link MessageDigest} or a {@link CRC32}
+     */
+    private static abstract class Hash {
+
+        static Hash getInstance(String algorithm) throws NoSuchAlgorithmException {
+            if (CRC_32.equals(algorithm)) {
+                final CRC32 crc32 = new CRC32();
+                return new Hash() {
+                    @Override
+                    void update(byte[] buffer, int length) {
+                        crc32.update(buffer, 0, length);
+                    }
+
+                    @Override
+                    byte[] digest() {
+                        long value = crc32.getValue();
+                        return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+                    }
+                };
+            }
+
+            final MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+            return new Hash() {
+                @Override
+                void update(byte[] buffer, int length) {
+                    messageDigest.update(buffer, 0, length);
+                }
+
+                @Override
+                byte[] digest() {
+                    return messageDigest.digest();
+                }
+            };
+        }
+
+        abstract void update(byte[] buffer, int length);
+
+        abstract byte[] digest();
+    }
+}
@@ -21,22 +21,67 @@ package com.amaze.filemanager.utils.files;
 
 import com.amaze.filemanager.adapters.data.LayoutElementParcelable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts listings by name, last modified, size or type, with the directories on top, at the bottom
+ * or mixed with the files.
+ *
+ * {@link #sort(List)} computes the sort key of every element once (the case folded name, the
+ * extension, the date or size) and sorts the keys with a comparator specific to the sort mode,
+ * on several threads for large lists. {@link #compare(LayoutElementParcelable, LayoutElementParcelable)}
+ * gives the same order but computes the keys on every call.
+ *
+ * Names are compared ignoring case, or in natural order where runs of digits compare by their
+ * numeric value ("file2" before "file10").
+ *
+ * Directories have no size nor type: sorting by either with directories mixed with the files
+ * lists the directories, by name, before the files.
+ */
 public class FileListSorter implements Comparator<LayoutElementParcelable> {
 
+    // lists at least this large are sorted on several threads
+    private static final int PARALLEL_SORT_SIZE = 20000;
+
+    private static final int SORT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        executor = new ThreadPoolExecutor(SORT_THREADS, SORT_THREADS, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "file_list_sorter"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
     private int dirsOnTop = 0;
     private int asc = 1;
     private int sort = 0;
+    private boolean natural = false;
+
+    private final Comparator<Key> keyComparator;
 
     public FileListSorter(int dir, int sort, int asc) {
+        this(dir, sort, asc, false);
+    }
+
+    /**
+     * @param natural whether names are compared in natural order
+     */
+    public FileListSorter(int dir, int sort, int asc, boolean natural) {
         this.dirsOnTop = dir;
         this.asc = asc;
         this.sort = sort;
-    }
+        this.natural = natural;
 
-    private boolean isDirectory(LayoutElementParcelable path) {
-        return path.isDirectory;
+        keyComparator = createKeyComparator();
     }
 
     /**
@@ -48,85 +93,260 @@ public class FileListSorter implements Comparator<LayoutElementParcelable> {
      */
     @Override
     public int compare(LayoutElementParcelable file1, LayoutElementParcelable file2) {
+        return keyComparator.compare(createKey(file1), createKey(file2));
+    }
 
-        /*File f1;
-
-        if(!file1.hasSymlink()) {
+    /**
+     * Sorts the list in place, the sort is stable
+     */
+    public void sort(List<LayoutElementParcelable> list) {
+        Key[] keys = new Key[list.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = createKey(list.get(i));
+        }
 
-            f1=new File(file1.getDesc());
+        if (keys.length >= PARALLEL_SORT_SIZE && SORT_THREADS > 1) {
+            parallelSort(keys);
         } else {
-            f1=new File(file1.getSymlink());
+            Arrays.sort(keys, keyComparator);
         }
 
-        File f2;
+        for (int i = 0; i < keys.length; i++) {
+            list.set(i, keys[i].element);
+        }
+    }
 
-        if(!file2.hasSymlink()) {
+    /**
+     * Merges two lists sorted with this sorter into a new sorted list. On equal elements the ones
+     * of the first list come first, so merging stably sorted batches in the order they were
+     * listed gives the same order as a single stable sort of the whole listing.
+     */
+    public ArrayList<LayoutElementParcelable> merge(List<LayoutElementParcelable> first,
+                                                    List<LayoutElementParcelable> second) {
+        ArrayList<LayoutElementParcelable> merged = new ArrayList<>(first.size() + second.size());
+        int i = 0, j = 0;
+
+        Key firstKey = i < first.size() ? createKey(first.get(i)) : null;
+        Key secondKey = j < second.size() ? createKey(second.get(j)) : null;
+        while (firstKey != null && secondKey != null) {
+            if (keyComparator.compare(firstKey, secondKey) <= 0) {
+                merged.add(first.get(i++));
+                firstKey = i < first.size() ? createKey(first.get(i)) : null;
+            } else {
+                merged.add(second.get(j++));
+                secondKey = j < second.size() ? createKey(second.get(j)) : null;
+            }
+        }
 
-            f2=new File(file2.getDesc());
-        } else {
-            f2=new File(file1.getSymlink());
-        }*/
+        merged.addAll(first.subList(i, first.size()));
+        merged.addAll(second.subList(j, second.size()));
+        return merged;
+    }
 
-        if (dirsOnTop == 0) {
-            if (isDirectory(file1) && !isDirectory(file2)) {
-                return -1;
+    /**
+     * Sorts slices of the keys on every thread, then merges them
+     */
+    private void parallelSort(Key[] keys) {
+        int slices = SORT_THREADS;
+        int[] bounds = new int[slices + 1];
+        for (int i = 0; i <= slices; i++) {
+            bounds[i] = (int) ((long) keys.length * i / slices);
+        }
 
+        ArrayList<Future<?>> futures = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            final int from = bounds[i], to = bounds[i + 1];
+            futures.add(executor.submit(() -> Arrays.sort(keys, from, to, keyComparator)));
+        }
 
-            } else if (isDirectory(file2) && !isDirectory(file1)) {
-                return 1;
+        try {
+            for (Future<?> future : futures) {
+                future.get();
             }
-        } else if (dirsOnTop == 1) {
-            if (isDirectory(file1) && !isDirectory(file2)) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
 
-                return 1;
-            } else if (isDirectory(file2) && !isDirectory(file1)) {
-                return -1;
+        // merges neighbouring slices until one is left, the left one first on equal keys
+        Key[] source = keys, destination = new Key[keys.length];
+        for (int width = 1; width < slices; width *= 2) {
+            for (int i = 0; i < slices; i += 2 * width) {
+                int from = bounds[i];
+                int middle = bounds[Math.min(i + width, slices)];
+                int to = bounds[Math.min(i + 2 * width, slices)];
+                mergeSlices(source, from, middle, to, destination);
             }
+            Key[] swap = source;
+            source = destination;
+            destination = swap;
         }
 
-        if (sort == 0) {
+        if (source != keys) System.arraycopy(source, 0, keys, 0, keys.length);
+    }
+
+    private void mergeSlices(Key[] source, int from, int middle, int to, Key[] destination) {
+        int i = from, j = middle, k = from;
+        while (i < middle && j < to) {
+            if (keyComparator.compare(source[i], source[j]) <= 0) destination[k++] = source[i++];
+            else destination[k++] = source[j++];
+        }
+        System.arraycopy(source, i, destination, k, middle - i);
+        k += middle - i;
+        System.arraycopy(source, j, destination, k, to - j);
+    }
 
-            // sort by name
-            return asc * file1.title.compareToIgnoreCase(file2.title);
-        } else if (sort == 1) {
+    private Key createKey(LayoutElementParcelable element) {
+        int group = 0;
+        if (dirsOnTop == 0) group = element.isDirectory ? 0 : 1;
+        else if (dirsOnTop == 1) group = element.isDirectory ? 1 : 0;
 
-            // sort by last modified
-            return asc * Long.valueOf(file1.date).compareTo(file2.date);
-        } else if (sort == 2) {
+        long value = 0;
+        if (sort == 1) value = element.date;
+        else if (sort == 2) value = element.longSize;
 
-            // sort by size
-            if (!file1.isDirectory && !file2.isDirectory) {
+        // names aren't compared when sorting by date
+        String name = sort != 1 ? foldCase(element.title) : null;
+        String extension = sort == 3 && !element.isDirectory ? getExtension(element.title) : null;
 
-                return asc * Long.valueOf(file1.longSize).compareTo(file2.longSize);
-            } else {
+        return new Key(element, group, name, extension, value);
+    }
+
+    /**
+     * @return a comparator of the keys for the sort mode
+     */
+    private Comparator<Key> createKeyComparator() {
+        switch (sort) {
+            case 0:
+                // sort by name
+                return (key1, key2) -> {
+                    if (key1.group != key2.group) return key1.group - key2.group;
+                    return asc * compareNames(key1.name, key2.name);
+                };
+            case 1:
+                // sort by last modified
+                return (key1, key2) -> {
+                    if (key1.group != key2.group) return key1.group - key2.group;
+                    return asc * compareLongs(key1.value, key2.value);
+                };
+            case 2:
+                // sort by size, directories by name
+                return (key1, key2) -> {
+                    if (key1.group != key2.group) return key1.group - key2.group;
+                    if (key1.element.isDirectory != key2.element.isDirectory) {
+                        return key1.element.isDirectory ? -1 : 1;
+                    }
+                    if (!key1.element.isDirectory) {
+                        return asc * compareLongs(key1.value, key2.value);
+                    }
+                    return compareNames(key1.name, key2.name);
+                };
+            case 3:
+                // sort by type, then name, directories by name
+                return (key1, key2) -> {
+                    if (key1.group != key2.group) return key1.group - key2.group;
+                    if (key1.element.isDirectory != key2.element.isDirectory) {
+                        return key1.element.isDirectory ? -1 : 1;
+                    }
+                    if (!key1.element.isDirectory) {
+                        int result = asc * key1.extension.compareTo(key2.extension);
+                        if (result == 0) return asc * compareNames(key1.name, key2.name);
+                        return result;
+                    }
+                    return compareNames(key1.name, key2.name);
+                };
+            default:
+                return (key1, key2) -> key1.group - key2.group;
+        }
+    }
+
+    private int compareNames(String name1, String name2) {
+        return natural ? compareNatural(name1, name2) : name1.compareTo(name2);
+    }
 
-                return file1.title.compareToIgnoreCase(file2.title);
+    /**
+     * Compares case folded names, runs of digits by their value
+     */
+    private static int compareNatural(String name1, String name2) {
+        int length1 = name1.length(), length2 = name2.length();
+        int i = 0, j = 0;
+
+        while (i < length1 && j < length2) {
+            char c1 = name1.charAt(i), c2 = name2.charAt(j);
+
+            if (isDigit(c1) && isDigit(c2)) {
+                // leading zeros don't change the value
+                while (i < length1 && name1.charAt(i) == '0') i++;
+                while (j < length2 && name2.charAt(j) == '0') j++;
+
+                int end1 = i, end2 = j;
+                while (end1 < length1 && isDigit(name1.charAt(end1))) end1++;
+                while (end2 < length2 && isDigit(name2.charAt(end2))) end2++;
+
+                // the longer number is larger, numbers as long compare digit by digit
+                if (end1 - i != end2 - j) return (end1 - i) - (end2 - j);
+                for (; i < end1; i++, j++) {
+                    if (name1.charAt(i) != name2.charAt(j)) return name1.charAt(i) - name2.charAt(j);
+                }
+                continue;
             }
 
-        } else if(sort ==3) {
+            if (c1 != c2) return c1 - c2;
+            i++;
+            j++;
+        }
 
-            // sort by type
-            if(!file1.isDirectory && !file2.isDirectory) {
+        if (length1 - i != length2 - j) return (length1 - i) - (length2 - j);
+        // equal values written differently ("01" and "1")
+        return name1.compareTo(name2);
+    }
 
-                final String ext_a = getExtension(file1.title);
-                final String ext_b = getExtension(file2.title);
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 
+    private static int compareLongs(long x, long y) {
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
 
-                final int res = asc*ext_a.compareTo(ext_b);
-                if (res == 0) {
-                    return asc * file1.title.compareToIgnoreCase(file2.title);
-                }
-                return res;
-            } else {
-                return  file1.title.compareToIgnoreCase(file2.title);
+    /**
+     * Folds the case of the name as {@link String#compareToIgnoreCase(String)} does, so that
+     * comparing folded names gives the same order
+     */
+    private static String foldCase(String name) {
+        char[] chars = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            if (folded != c) {
+                if (chars == null) chars = name.toCharArray();
+                chars[i] = folded;
             }
         }
-        return 0;
-
+        return chars != null ? new String(chars) : name;
     }
 
     private static String getExtension(String a) {
         return a.substring(a.lastIndexOf(".") + 1).toLowerCase();
     }
 
+    private static class Key {
+        final LayoutElementParcelable element;
+        // 0 for the elements which come first
+        final int group;
+        final String name, extension;
+        // date or size
+        final long value;
+
+        Key(LayoutElementParcelable element, int group, String name, String extension, long value) {
+            this.element = element;
+            this.group = group;
+            this.name = name;
+            this.extension = extension;
+            this.value = value;
+        }
+    }
+
 }
@@ -51,6 +51,7 @@ import com.amaze.filemanager.activities.DatabaseViewerActivity;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
 import com.amaze.filemanager.fragments.preference_fragments.PrefFrag;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
 import com.amaze.filemanager.ui.icons.Icons;
@@ -70,11 +71,8 @@ import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
 import com.googlecode.concurrenttrees.radix.node.concrete.voidvalue.VoidValue;
 
 import java.io.File;
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.LinkedList;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -85,22 +83,11 @@ import jcifs.smb.SmbFile;
  */
 public class FileUtils {
 
+    /**
+     * @see FolderSizeCalculator#getSize(File, OnProgressUpdate)
+     */
     public static long folderSize(File directory, OnProgressUpdate<Long> updateState) {
-        long length = 0;
-        try {
-            for (File file:directory.listFiles()) {
-                if (file.isFile())
-                    length += file.length();
-                else
-                    length += folderSize(file, null); //null because updateState would be called for children dirs
-
-                if(updateState != null)
-                    updateState.onUpdate(length);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return length;
+        return FolderSizeCalculator.getSize(directory, updateState);
     }
 
     public static long folderSize(HybridFile directory, OnProgressUpdate<Long> updateState) {
@@ -165,6 +152,22 @@ public class FileUtils {
         return totalBytes;
     }
 
+    /**
+     * Helper method to calculate source files size, listing local directories again instead of
+     * using their cached sizes, which can be too small: for checks which must not underestimate it
+     */
+    public static long getExactTotalBytes(ArrayList<HybridFileParcelable> files, Context context) {
+        long totalBytes = 0L;
+        for (HybridFileParcelable file : files) {
+            if (file.getMode() == OpenMode.FILE && file.isDirectory(context)) {
+                totalBytes += FolderSizeCalculator.getSize(new File(file.getPath()), null, false);
+            } else {
+                totalBytes += getBaseFileSize(file, context);
+            }
+        }
+        return totalBytes;
+    }
+
     private static long getBaseFileSize(HybridFileParcelable baseFile, Context context) {
         if (baseFile.isDirectory(context)) {
             return baseFile.folderSize(context);
@@ -660,8 +663,7 @@ public class FileUtils {
         if (defaultHandler && f.getName().toLowerCase().endsWith(".zip") ||
                 f.getName().toLowerCase().endsWith(".jar") ||
                 f.getName().toLowerCase().endsWith(".rar")||
-                f.getName().toLowerCase().endsWith(".tar") ||
-                f.getName().toLowerCase().endsWith(".tar.gz")) {
+                CompressedHelper.isTar(f.getName().toLowerCase())) {
             GeneralDialogCreation.showArchiveDialog(f, m);
         } else if(f.getName().toLowerCase().endsWith(".apk")) {
             GeneralDialogCreation.showPackageDialog(sharedPrefs, f, m);
@@ -810,66 +812,11 @@ public class FileUtils {
     /**
      * We're parsing a line returned from a stdout of shell.
      * @param line must be the line returned from a 'ls' command
+     * @return the file with it's name as path, null if the line isn't one of a file
+     * @see LsParser
      */
     public static HybridFileParcelable parseName(String line) {
-        boolean linked = false;
-        StringBuilder name = new StringBuilder();
-        StringBuilder link = new StringBuilder();
-        String size = "-1";
-        String date = "";
-        String[] array = line.split(" ");
-        if(array.length<6)return null;
-        for (String anArray : array) {
-            if (anArray.contains("->") && array[0].startsWith("l")) {
-                linked = true;
-            }
-        }
-        int p = getColonPosition(array);
-        if(p!=-1){
-            date = array[p - 1] + " | " + array[p];
-            size = array[p - 2];}
-        if (!linked) {
-            for (int i = p + 1; i < array.length; i++) {
-                name.append(" ").append(array[i]);
-            }
-            name = new StringBuilder(name.toString().trim());
-        } else {
-            int q = getLinkPosition(array);
-            for (int i = p + 1; i < q; i++) {
-                name.append(" ").append(array[i]);
-            }
-            name = new StringBuilder(name.toString().trim());
-            for (int i = q + 1; i < array.length; i++) {
-                link.append(" ").append(array[i]);
-            }
-        }
-        long Size = (size==null || size.trim().length()==0)?-1:Long.parseLong(size);
-        if(date.trim().length()>0) {
-            ParsePosition pos = new ParsePosition(0);
-            SimpleDateFormat simpledateformat = new SimpleDateFormat("yyyy-MM-dd | HH:mm");
-            Date stringDate = simpledateformat.parse(date, pos);
-            HybridFileParcelable baseFile=new HybridFileParcelable(name.toString(),array[0],stringDate.getTime(),Size,true);
-            baseFile.setLink(link.toString());
-            return baseFile;
-        }else {
-            HybridFileParcelable baseFile= new HybridFileParcelable(name.toString(),array[0],new File("/").lastModified(),Size,true);
-            baseFile.setLink(link.toString());
-            return baseFile;
-        }
-    }
-
-    private static int getLinkPosition(String[] array){
-        for(int i=0;i<array.length;i++){
-            if(array[i].contains("->"))return i;
-        }
-        return  0;
-    }
-
-    private static int getColonPosition(String[] array){
-        for(int i=0;i<array.length;i++){
-            if(array[i].contains(":"))return i;
-        }
-        return  -1;
+        return LsParser.parse(line);
     }
 
     public static ArrayList<Boolean[]> parse(String permLine) {
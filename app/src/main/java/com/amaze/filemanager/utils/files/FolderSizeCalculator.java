@@ -0,0 +1,174 @@
+package com.amaze.filemanager.utils.files;
+
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.amaze.filemanager.utils.OnProgressUpdate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes the size of local directory trees on several threads, every directory being listed
+ * by a task of it's own, shared by the properties dialogs, copy preparations and storage charts.
+ *
+ * The size of the files directly in each directory is cached with the directory's modification
+ * time, which changes whenever a file is created, deleted or renamed in it. A tree already
+ * measured only needs a stat of each of it's directories to be measured again. Files growing or
+ * shrinking don't change the time of their directory, an explicit refresh should
+ * {@link #invalidate(String)} it, and sizes which must not be underestimated (free space checks)
+ * are measured without the cache.
+ */
+public class FolderSizeCalculator {
+
+    private static final String TAG = "FolderSizeCalculator";
+
+    // directories whose sizes are kept
+    private static final int CACHE_SIZE = 20000;
+
+    // the longest between two progress updates (ms)
+    private static final long UPDATE_INTERVAL = 100;
+
+    private static final LruCache<String, Directory> cache = new LruCache<>(CACHE_SIZE);
+
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        executor = new ThreadPoolExecutor(workers, workers, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "folder_size");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param updateState called on the calling thread with the size found so far, about
+     *                    every {@link #UPDATE_INTERVAL} ms, may be null
+     * @return the size of the files in the directory and it's subdirectories
+     */
+    public static long getSize(File directory, OnProgressUpdate<Long> updateState) {
+        return getSize(directory, updateState, true);
+    }
+
+    /**
+     * @param useCache whether the cached sizes of directories not modified since can be used,
+     *                 otherwise every directory is listed again
+     * @see #getSize(File, OnProgressUpdate)
+     */
+    public static long getSize(File directory, OnProgressUpdate<Long> updateState, boolean useCache) {
+        Calculation calculation = new Calculation(useCache);
+        calculation.submit(directory);
+
+        try {
+            while (!calculation.await(UPDATE_INTERVAL)) {
+                if (updateState != null) updateState.onUpdate(calculation.size.get());
+            }
+        } catch (InterruptedException e) {
+            // the size found so far
+            calculation.cancelled = true;
+            Thread.currentThread().interrupt();
+        }
+
+        return calculation.size.get();
+    }
+
+    /**
+     * Drops the cached size of the files directly in the directory
+     */
+    public static void invalidate(String path) {
+        cache.remove(path);
+    }
+
+    private static class Calculation {
+
+        private final AtomicLong size = new AtomicLong();
+        private final boolean useCache;
+
+        // directories queued or being listed
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private volatile boolean cancelled = false;
+
+        Calculation(boolean useCache) {
+            this.useCache = useCache;
+        }
+
+        /**
+         * @return true once every directory is measured
+         */
+        synchronized boolean await(long timeout) throws InterruptedException {
+            if (pending.get() != 0) wait(timeout);
+            return pending.get() == 0;
+        }
+
+        void submit(final File directory) {
+            pending.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    if (!cancelled) measure(directory);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Failed to measure " + directory.getPath(), e);
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        synchronized (this) {
+                            notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        private void measure(File directory) {
+            String path = directory.getPath();
+            long lastModified = directory.lastModified();
+
+            Directory cached = useCache ? cache.get(path) : null;
+            if (cached == null || cached.lastModified != lastModified || lastModified == 0) {
+                cached = list(directory, lastModified);
+                if (cached == null) return;
+                cache.put(path, cached);
+            }
+
+            size.addAndGet(cached.filesSize);
+            for (String subdirectory : cached.subdirectories) {
+                submit(new File(directory, subdirectory));
+            }
+        }
+
+        private static Directory list(File directory, long lastModified) {
+            File[] files = directory.listFiles();
+            if (files == null) return null;
+
+            long filesSize = 0;
+            ArrayList<String> subdirectories = new ArrayList<>();
+            for (File file : files) {
+                if (file.isFile()) filesSize += file.length();
+                else if (file.isDirectory()) subdirectories.add(file.getName());
+            }
+
+            return new Directory(lastModified, filesSize,
+                    subdirectories.toArray(new String[subdirectories.size()]));
+        }
+    }
+
+    private static class Directory {
+        final long lastModified;
+        // size of the files directly in the directory
+        final long filesSize;
+        final String[] subdirectories;
+
+        Directory(long lastModified, long filesSize, String[] subdirectories) {
+            this.lastModified = lastModified;
+            this.filesSize = filesSize;
+            this.subdirectories = subdirectories;
+        }
+    }
+}
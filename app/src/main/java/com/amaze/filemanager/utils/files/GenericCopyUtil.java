@@ -5,15 +5,13 @@ import android.content.Context;
 import android.support.v4.provider.DocumentFile;
 import android.util.Log;
 
-import com.amaze.filemanager.R;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.FileUtil;
-import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.OTGUtil;
 import com.amaze.filemanager.utils.OpenMode;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
 import com.cloudrail.si.interfaces.CloudStorage;
 
@@ -24,11 +22,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
 
 /**
  * Created by vishal on 26/10/16.
@@ -41,25 +36,29 @@ public class GenericCopyUtil {
     private HybridFileParcelable mSourceFile;
     private HybridFile mTargetFile;
     private Context mContext;   // context needed to find the DocumentFile in otg/sd card
+    private ProgressHandler progressHandler;
+    private BufferStrategy bufferStrategy;
     private DataUtils dataUtils = DataUtils.getInstance();
     public static final String PATH_FILE_DESCRIPTOR = "/proc/self/fd/";
 
     public static final int DEFAULT_BUFFER_SIZE =  8192;
 
-    public GenericCopyUtil(Context context) {
+    // maximum bytes moved by a single channel to channel transfer
+    private static final long TRANSFER_SLICE_SIZE = 8 * 1024 * 1024;
+
+    public GenericCopyUtil(Context context, ProgressHandler progressHandler) {
         this.mContext = context;
+        this.progressHandler = progressHandler;
     }
 
     /**
      * Starts copy of file
      * Supports : {@link File}, {@link jcifs.smb.SmbFile}, {@link DocumentFile}, {@link CloudStorage}
-     * @param lowOnMemory defines whether system is running low on memory, in which case we'll switch to
-     *                    using streams instead of channel which maps the who buffer in memory.
-     *                    TODO: Use buffers even on low memory but don't map the whole file to memory but
-     *                          parts of it, and transfer each part instead.
+     * Files are never mapped whole in memory, transfers are done in slices of at most
+     * {@link #TRANSFER_SLICE_SIZE} bytes, so memory usage doesn't depend on the file size.
      * @throws IOException
      */
-    private void startCopy(boolean lowOnMemory) throws IOException {
+    private void startCopy() throws IOException {
 
         FileInputStream inputStream = null;
         FileOutputStream outputStream = null;
@@ -78,35 +77,35 @@ public class GenericCopyUtil {
                         mContext, false);
 
                 bufferedInputStream = new BufferedInputStream(contentResolver
-                        .openInputStream(documentSourceFile.getUri()), DEFAULT_BUFFER_SIZE);
+                        .openInputStream(documentSourceFile.getUri()), bufferStrategy.getReadAheadSize());
             } else if (mSourceFile.isSmb()) {
 
                 // source is in smb
-                bufferedInputStream = new BufferedInputStream(mSourceFile.getInputStream(mContext), DEFAULT_BUFFER_SIZE);
+                bufferedInputStream = new BufferedInputStream(mSourceFile.getInputStream(mContext), bufferStrategy.getReadAheadSize());
             } else if (mSourceFile.isDropBoxFile()) {
 
                 CloudStorage cloudStorageDropbox = dataUtils.getAccount(OpenMode.DROPBOX);
                 bufferedInputStream = new BufferedInputStream(cloudStorageDropbox
                         .download(CloudUtil.stripPath(OpenMode.DROPBOX,
-                                mSourceFile.getPath())));
+                                mSourceFile.getPath())), bufferStrategy.getReadAheadSize());
             } else if (mSourceFile.isBoxFile()) {
 
                 CloudStorage cloudStorageBox = dataUtils.getAccount(OpenMode.BOX);
                 bufferedInputStream = new BufferedInputStream(cloudStorageBox
                         .download(CloudUtil.stripPath(OpenMode.BOX,
-                                mSourceFile.getPath())));
+                                mSourceFile.getPath())), bufferStrategy.getReadAheadSize());
             } else if (mSourceFile.isGoogleDriveFile()) {
 
                 CloudStorage cloudStorageGdrive = dataUtils.getAccount(OpenMode.GDRIVE);
                 bufferedInputStream = new BufferedInputStream(cloudStorageGdrive
                         .download(CloudUtil.stripPath(OpenMode.GDRIVE,
-                                mSourceFile.getPath())));
+                                mSourceFile.getPath())), bufferStrategy.getReadAheadSize());
             } else if (mSourceFile.isOneDriveFile()) {
 
                 CloudStorage cloudStorageOnedrive = dataUtils.getAccount(OpenMode.ONEDRIVE);
                 bufferedInputStream = new BufferedInputStream(cloudStorageOnedrive
                         .download(CloudUtil.stripPath(OpenMode.ONEDRIVE,
-                                mSourceFile.getPath())));
+                                mSourceFile.getPath())), bufferStrategy.getReadAheadSize());
             } else {
 
                 // source file is neither smb nor otg; getting a channel from direct file instead of stream
@@ -116,10 +115,10 @@ public class GenericCopyUtil {
                     if (mTargetFile.isOneDriveFile()
                             || mTargetFile.isDropBoxFile()
                             || mTargetFile.isGoogleDriveFile()
-                            || mTargetFile.isBoxFile()
-                            || lowOnMemory) {
+                            || mTargetFile.isBoxFile()) {
                         // our target is cloud, we need a stream not channel
-                        bufferedInputStream = new BufferedInputStream(new FileInputStream(file));
+                        bufferedInputStream = new BufferedInputStream(new FileInputStream(file),
+                                bufferStrategy.getReadAheadSize());
                     } else {
 
                         inChannel = new RandomAccessFile(file, "r").getChannel();
@@ -130,7 +129,7 @@ public class GenericCopyUtil {
                             mSourceFile.isDirectory(), mContext);
 
                     bufferedInputStream = new BufferedInputStream(contentResolver
-                            .openInputStream(documentSourceFile.getUri()), DEFAULT_BUFFER_SIZE);
+                            .openInputStream(documentSourceFile.getUri()), bufferStrategy.getReadAheadSize());
                 }
             }
 
@@ -144,10 +143,10 @@ public class GenericCopyUtil {
                         mContext, true);
 
                 bufferedOutputStream = new BufferedOutputStream(contentResolver
-                        .openOutputStream(documentTargetFile.getUri()), DEFAULT_BUFFER_SIZE);
+                        .openOutputStream(documentTargetFile.getUri()), bufferStrategy.getReadAheadSize());
             } else if (mTargetFile.isSmb()) {
 
-                bufferedOutputStream = new BufferedOutputStream(mTargetFile.getOutputStream(mContext), DEFAULT_BUFFER_SIZE);
+                bufferedOutputStream = new BufferedOutputStream(mTargetFile.getOutputStream(mContext), bufferStrategy.getReadAheadSize());
             } else if (mTargetFile.isDropBoxFile()) {
                 // API doesn't support output stream, we'll upload the file directly
                 CloudStorage cloudStorageDropbox = dataUtils.getAccount(OpenMode.DROPBOX);
@@ -213,19 +212,14 @@ public class GenericCopyUtil {
                 File file = new File(mTargetFile.getPath());
                 if (FileUtil.isWritable(file)) {
 
-                    if (lowOnMemory) {
-                        bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(file));
-                    } else {
-
-                        outChannel = new RandomAccessFile(file, "rw").getChannel();
-                    }
+                    outChannel = new RandomAccessFile(file, "rw").getChannel();
                 } else {
                     ContentResolver contentResolver = mContext.getContentResolver();
                     DocumentFile documentTargetFile = FileUtil.getDocumentFile(file,
                             mTargetFile.isDirectory(), mContext);
 
                     bufferedOutputStream = new BufferedOutputStream(contentResolver
-                            .openOutputStream(documentTargetFile.getUri()), DEFAULT_BUFFER_SIZE);
+                            .openOutputStream(documentTargetFile.getUri()), bufferStrategy.getReadAheadSize());
                 }
             }
 
@@ -243,13 +237,6 @@ public class GenericCopyUtil {
             e.printStackTrace();
             Log.d(getClass().getSimpleName(), "I/O Error!");
             throw new IOException();
-        } catch (OutOfMemoryError e) {
-            e.printStackTrace();
-
-            // we ran out of memory to map the whole channel, let's switch to streams
-            AppConfig.toast(mContext, mContext.getResources().getString(R.string.copy_low_memory));
-
-            startCopy(true);
         } finally {
 
             try {
@@ -275,126 +262,99 @@ public class GenericCopyUtil {
 
         this.mSourceFile = sourceFile;
         this.mTargetFile = targetFile;
+        this.bufferStrategy = BufferStrategy.forModes(sourceFile.getMode(), targetFile.getMode());
 
-        startCopy(false);
+        startCopy();
     }
 
     private void copyFile(BufferedInputStream bufferedInputStream, FileChannel outChannel)
             throws IOException {
 
-        MappedByteBuffer byteBuffer = outChannel.map(FileChannel.MapMode.READ_WRITE, 0,
-                mSourceFile.getSize());
-        int count = 0;
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        while (count != -1) {
-
-            count = bufferedInputStream.read(buffer);
-            if (count!=-1) {
-
-                byteBuffer.put(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
+        ByteBuffer buffer = BufferPool.acquireHeap(bufferStrategy.getBufferSize());
+        try {
+            long position = 0;
+            int count;
+            while ((count = bufferedInputStream.read(buffer.array(), 0, buffer.capacity())) != -1) {
+
+                buffer.clear();
+                buffer.limit(count);
+                while (buffer.hasRemaining()) {
+                    position += outChannel.write(buffer, position);
+                }
+                progressHandler.addWrittenLength(count);
+                buffer = growBuffer(buffer, count);
             }
+
+            // target might have existed and been longer than source
+            outChannel.truncate(position);
+        } finally {
+            BufferPool.release(buffer);
         }
     }
 
     private void copyFile(FileChannel inChannel, FileChannel outChannel) throws IOException {
 
-        //MappedByteBuffer inByteBuffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, inChannel.size());
-        //MappedByteBuffer outByteBuffer = outChannel.map(FileChannel.MapMode.READ_WRITE, 0, inChannel.size());
+        long size = inChannel.size();
+        long position = 0;
+        while (position < size) {
+            if (progressHandler.getCancelled()) return;
+
+            // let the kernel move each slice, without mapping or copying it through our heap
+            long transferred = inChannel.transferTo(position,
+                    Math.min(TRANSFER_SLICE_SIZE, size - position), outChannel);
+            if (transferred <= 0) break;    // source got shorter while copying
 
-        ReadableByteChannel inByteChannel = new CustomReadableByteChannel(inChannel);
-        outChannel.transferFrom(inByteChannel, 0, mSourceFile.getSize());
+            position += transferred;
+            progressHandler.addWrittenLength(transferred);
+        }
+
+        outChannel.truncate(position);
     }
 
     private void copyFile(BufferedInputStream bufferedInputStream, BufferedOutputStream bufferedOutputStream)
             throws IOException {
-        int count = 0;
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-
-        while (count != -1) {
-
-            count = bufferedInputStream.read(buffer);
-            if (count!=-1) {
+        ByteBuffer buffer = BufferPool.acquireHeap(bufferStrategy.getBufferSize());
+        try {
+            int count;
+            while ((count = bufferedInputStream.read(buffer.array(), 0, buffer.capacity())) != -1) {
 
-                bufferedOutputStream.write(buffer, 0 , count);
-                ServiceWatcherUtil.POSITION+=count;
+                bufferedOutputStream.write(buffer.array(), 0, count);
+                progressHandler.addWrittenLength(count);
+                buffer = growBuffer(buffer, count);
             }
+            bufferedOutputStream.flush();
+        } finally {
+            BufferPool.release(buffer);
         }
-        bufferedOutputStream.flush();
     }
 
     private void copyFile(FileChannel inChannel, BufferedOutputStream bufferedOutputStream)
             throws IOException {
-        MappedByteBuffer inBuffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, mSourceFile.getSize());
-
-        int count = -1;
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        while (inBuffer.hasRemaining() && count != 0) {
-
-            int tempPosition = inBuffer.position();
 
-            try {
-
-                // try normal way of getting bytes
-                ByteBuffer tempByteBuffer = inBuffer.get(buffer);
-                count = tempByteBuffer.position() - tempPosition;
-            } catch (BufferUnderflowException exception) {
-                exception.printStackTrace();
-
-                // not enough bytes left in the channel to read, iterate over each byte and store
-                // in the buffer
-
-                // reset the counter bytes
-                count = 0;
-                for (int i=0; i<buffer.length && inBuffer.hasRemaining(); i++) {
-                    buffer[i] = inBuffer.get();
-                    count++;
-                }
-            }
-
-            if (count != -1) {
+        ByteBuffer buffer = BufferPool.acquireHeap(bufferStrategy.getBufferSize());
+        try {
+            int count;
+            while ((count = inChannel.read(buffer)) != -1) {
 
-                bufferedOutputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION = inBuffer.position();
+                bufferedOutputStream.write(buffer.array(), 0, count);
+                progressHandler.addWrittenLength(count);
+                buffer = growBuffer(buffer, count);
+                buffer.clear();
             }
-
+            bufferedOutputStream.flush();
+        } finally {
+            BufferPool.release(buffer);
         }
-        bufferedOutputStream.flush();
     }
 
     /**
-     * Inner class responsible for getting a {@link ReadableByteChannel} from the input channel
-     * and to watch over the read progress
+     * Lets the {@link BufferStrategy} measure the transfer, and swaps the buffer for a bigger one
+     * when it decides to grow
      */
-    private class CustomReadableByteChannel implements ReadableByteChannel {
-
-        ReadableByteChannel byteChannel;
+    private ByteBuffer growBuffer(ByteBuffer buffer, int count) {
+        if (!bufferStrategy.onTransferred(count)) return buffer;
 
-        CustomReadableByteChannel(ReadableByteChannel byteChannel) {
-            this.byteChannel = byteChannel;
-        }
-
-        @Override
-        public int read(ByteBuffer dst) throws IOException {
-            int bytes;
-            if (((bytes = byteChannel.read(dst))>0)) {
-
-                ServiceWatcherUtil.POSITION += bytes;
-                return bytes;
-
-            }
-            return 0;
-        }
-
-        @Override
-        public boolean isOpen() {
-            return byteChannel.isOpen();
-        }
-
-        @Override
-        public void close() throws IOException {
-
-            byteChannel.close();
-        }
+        BufferPool.release(buffer);
+        return BufferPool.acquireHeap(bufferStrategy.getBufferSize());
     }
 }
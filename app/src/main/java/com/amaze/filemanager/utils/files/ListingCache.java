@@ -0,0 +1,150 @@
+package com.amaze.filemanager.utils.files;
+
+import android.support.v4.util.LruCache;
+
+import com.amaze.filemanager.adapters.data.LayoutElementParcelable;
+import com.amaze.filemanager.utils.OpenMode;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * In memory cache of the sorted listings of local directories, so that going back to a directory
+ * or switching tabs doesn't list and stat every file again.
+ *
+ * A listing is reused only while the directory's modification time is unchanged (any file
+ * created, deleted or renamed in it changes it), the directory's {@link
+ * com.amaze.filemanager.filesystem.CustomFileObserver} invalidates it as well. Changes to the
+ * contents of a file don't touch the directory, an explicit refresh should {@link #invalidate(String)}.
+ *
+ * Listings are keyed by path, open mode and the sort and hidden file settings they were made with,
+ * the cache is limited by an estimate of the memory used by the listings.
+ */
+public class ListingCache {
+
+    // share of the app's heap the cache may use
+    private static final int HEAP_FRACTION = 16;
+
+    // rough size of an element, without it's strings
+    private static final int ELEMENT_OVERHEAD = 160;
+
+    // modification times may be rounded to 2 seconds (FAT), a listing made this soon
+    // after the last modification might miss a change with the same time
+    private static final long MTIME_GRANULARITY = 2000;
+
+    private static ListingCache instance;
+
+    private final LruCache<String, Listing> listings;
+
+    private ListingCache() {
+        int maxSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+
+        listings = new LruCache<String, Listing>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Listing listing) {
+                return listing.size;
+            }
+        };
+    }
+
+    public static synchronized ListingCache getInstance() {
+        if (instance == null) instance = new ListingCache();
+        return instance;
+    }
+
+    /**
+     * @return the cached listing if the directory didn't change since it was made, null otherwise
+     */
+    public Listing get(String path, OpenMode openMode, int dirsOnTop, int sortBy, int asc,
+                       boolean naturalSort, boolean showHidden) {
+        if (!isCacheable(openMode)) return null;
+
+        String key = getKey(path, openMode, dirsOnTop, sortBy, asc, naturalSort, showHidden);
+        Listing listing = listings.get(key);
+        if (listing == null) return null;
+
+        if (new File(path).lastModified() != listing.lastModified) {
+            listings.remove(key);
+            return null;
+        }
+
+        return listing;
+    }
+
+    /**
+     * Caches a complete listing, the list is copied
+     *
+     * @param openMode the mode the listing was requested with
+     * @param listedMode the mode the directory was actually listed in, eg. root for a file path
+     * @param listTime when the listing was started, see {@link System#currentTimeMillis()}
+     */
+    public void put(String path, OpenMode openMode, int dirsOnTop, int sortBy, int asc,
+                    boolean naturalSort, boolean showHidden,
+                    OpenMode listedMode, ArrayList<LayoutElementParcelable> elements,
+                    int folderCount, int fileCount, long listTime) {
+        if (!isCacheable(openMode)) return;
+
+        long lastModified = new File(path).lastModified();
+        if (lastModified == 0 || listTime - lastModified < MTIME_GRANULARITY) return;
+
+        listings.put(getKey(path, openMode, dirsOnTop, sortBy, asc, naturalSort, showHidden),
+                new Listing(listedMode, elements, folderCount, fileCount, lastModified));
+    }
+
+    /**
+     * Drops every listing of the path, whatever the settings it was made with
+     */
+    public void invalidate(String path) {
+        String suffix = "|" + path;
+        for (String key : listings.snapshot().keySet()) {
+            if (key.endsWith(suffix)) listings.remove(key);
+        }
+    }
+
+    private static boolean isCacheable(OpenMode openMode) {
+        // only local directories have a modification time that can be checked cheaply
+        return openMode == OpenMode.FILE || openMode == OpenMode.ROOT;
+    }
+
+    private static String getKey(String path, OpenMode openMode, int dirsOnTop, int sortBy, int asc,
+                                 boolean naturalSort, boolean showHidden) {
+        return openMode.ordinal() + "|" + dirsOnTop + "|" + sortBy + "|" + asc + "|" + naturalSort
+                + "|" + showHidden + "|" + path;
+    }
+
+    public static class Listing {
+        public final OpenMode openMode;
+        private final ArrayList<LayoutElementParcelable> elements;
+        public final int folderCount, fileCount;
+        private final long lastModified;
+        private final int size;
+
+        private Listing(OpenMode openMode, ArrayList<LayoutElementParcelable> elements, int folderCount,
+                        int fileCount, long lastModified) {
+            this.openMode = openMode;
+            this.elements = new ArrayList<>(elements);
+            this.folderCount = folderCount;
+            this.fileCount = fileCount;
+            this.lastModified = lastModified;
+
+            int size = 0;
+            for (LayoutElementParcelable element : elements) {
+                size += ELEMENT_OVERHEAD + 2 * (length(element.title) + length(element.desc)
+                        + length(element.permissions) + length(element.symlink) + length(element.size)
+                        + length(element.date1));
+            }
+            this.size = Math.max(1, size);
+        }
+
+        /**
+         * @return a copy of the listing, which can be modified
+         */
+        public ArrayList<LayoutElementParcelable> getElements() {
+            return new ArrayList<>(elements);
+        }
+
+        private static int length(String string) {
+            return string != null ? string.length() : 0;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.amaze.filemanager.utils.files;
+
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+
+import java.util.Calendar;
+
+/**
+ * Parses the lines of 'ls -l' in a single pass over their characters, without splitting them.
+ *
+ * Understands the dates of toybox and toolbox:
+ * drwxr-xr-x  2 root root 4096 2018-01-01 12:00 name
+ * and busybox, which gives the year instead of the time for old files:
+ * drwxr-xr-x    2 root     root          4096 Jan  1 12:00 name
+ * -rw-r--r--    1 root     root           512 Jan  1  2017 name
+ *
+ * The fields before the name are found by their position around the date, the name being the
+ * rest of the line, up to the " -> " of a link.
+ */
+public class LsParser {
+
+    // fields looked at, up to the first of the name: the date can come after a device's
+    // major and minor, or after a missing size
+    private static final int MAX_FIELDS = 12;
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun",
+            "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    private static final String LINK_ARROW = " -> ";
+
+    // a busybox date without year more than this in the future is from last year (ms)
+    private static final long FUTURE_MARGIN = 24 * 60 * 60 * 1000;
+
+    private static final ThreadLocal<Calendar> calendar = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return Calendar.getInstance();
+        }
+    };
+
+    /**
+     * @param line a line of 'ls -l'
+     * @return the file, with the name as path, null if the line isn't one of a file
+     */
+    public static HybridFileParcelable parse(String line) {
+        int[] starts = new int[MAX_FIELDS], ends = new int[MAX_FIELDS];
+        int count = 0, length = line.length();
+        for (int i = 0; count < MAX_FIELDS; count++) {
+            while (i < length && line.charAt(i) == ' ') i++;
+            if (i == length) break;
+            starts[count] = i;
+            while (i < length && line.charAt(i) != ' ') i++;
+            ends[count] = i;
+        }
+        if (count < 2) return null;
+
+        long date = -1;
+        int dateField = -1, nameField = -1;
+        for (int f = 1; f + 2 < count && date == -1; f++) {
+            if (ends[f] - starts[f] == 10 && ends[f + 1] - starts[f + 1] == 5) {
+                // yyyy-MM-dd HH:mm
+                date = parseIsoDate(line, starts[f], starts[f + 1]);
+                nameField = f + 2;
+            } else if (f + 3 < count && ends[f] - starts[f] == 3) {
+                // MMM d HH:mm or MMM d yyyy
+                date = parseBusyboxDate(line, starts[f], starts[f + 1], ends[f + 1], starts[f + 2], ends[f + 2]);
+                nameField = f + 3;
+            }
+            if (date != -1) dateField = f;
+        }
+        if (date == -1) return null;
+
+        // a device has it's major and minor instead of a size
+        boolean device = dateField > 2 && line.charAt(ends[dateField - 2] - 1) == ',';
+        long size = dateField > 1 && !device ? parseNumber(line, starts[dateField - 1], ends[dateField - 1]) : -1;
+        String permission = line.substring(starts[0], ends[0]);
+
+        int nameStart = starts[nameField], nameEnd = length;
+        String link = "";
+        int arrow = permission.startsWith("l") ? line.indexOf(LINK_ARROW, nameStart) : -1;
+        if (arrow != -1) {
+            link = line.substring(arrow + LINK_ARROW.length());
+            nameEnd = arrow;
+        }
+        while (nameEnd > nameStart && line.charAt(nameEnd - 1) == ' ') nameEnd--;
+
+        HybridFileParcelable baseFile = new HybridFileParcelable(line.substring(nameStart, nameEnd),
+                permission, date, size, true);
+        baseFile.setLink(link);
+        return baseFile;
+    }
+
+    /**
+     * @return the time, -1 if the fields aren't yyyy-MM-dd and HH:mm
+     */
+    private static long parseIsoDate(String line, int date, int time) {
+        if (line.charAt(date + 4) != '-' || line.charAt(date + 7) != '-') return -1;
+
+        int year = parseDigits(line, date, 4);
+        int month = parseDigits(line, date + 5, 2);
+        int day = parseDigits(line, date + 8, 2);
+        int minutes = parseTime(line, time);
+        if (year == -1 || month < 1 || month > 12 || day == -1 || minutes == -1) return -1;
+
+        return toMillis(year, month - 1, day, minutes);
+    }
+
+    /**
+     * @return the time, -1 if the fields aren't a month, a day and either HH:mm or a year
+     */
+    private static long parseBusyboxDate(String line, int monthStart, int dayStart, int dayEnd,
+                                         int timeStart, int timeEnd) {
+        int month = -1;
+        for (int m = 0; m < MONTHS.length && month == -1; m++) {
+            if (line.regionMatches(monthStart, MONTHS[m], 0, 3)) month = m;
+        }
+        int day = dayEnd - dayStart <= 2 ? parseDigits(line, dayStart, dayEnd - dayStart) : -1;
+        if (month == -1 || day == -1) return -1;
+
+        if (timeEnd - timeStart == 4) {
+            int year = parseDigits(line, timeStart, 4);
+            return year == -1 ? -1 : toMillis(year, month, day, 0);
+        }
+
+        int minutes = timeEnd - timeStart == 5 ? parseTime(line, timeStart) : -1;
+        if (minutes == -1) return -1;
+
+        // recent files, of this year unless that's in the future
+        long now = System.currentTimeMillis();
+        Calendar c = calendar.get();
+        c.setTimeInMillis(now);
+        int year = c.get(Calendar.YEAR);
+        long time = toMillis(year, month, day, minutes);
+        return time > now + FUTURE_MARGIN ? toMillis(year - 1, month, day, minutes) : time;
+    }
+
+    /**
+     * @return the minutes of HH:mm, -1 if it isn't
+     */
+    private static int parseTime(String line, int start) {
+        if (line.charAt(start + 2) != ':') return -1;
+        int hours = parseDigits(line, start, 2), minutes = parseDigits(line, start + 3, 2);
+        return hours == -1 || minutes == -1 ? -1 : hours * 60 + minutes;
+    }
+
+    private static long toMillis(int year, int month, int day, int minutes) {
+        Calendar c = calendar.get();
+        c.clear();
+        c.set(year, month, day, minutes / 60, minutes % 60);
+        return c.getTimeInMillis();
+    }
+
+    /**
+     * @return the value of the digits, -1 if there's anything else
+     */
+    private static int parseDigits(String line, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long parseNumber(String line, int start, int end) {
+        if (end - start > 18) return -1;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
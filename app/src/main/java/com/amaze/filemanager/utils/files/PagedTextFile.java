@@ -0,0 +1,437 @@
+package com.amaze.filemanager.utils.files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A text file too large to be held in an {@link android.widget.EditText}, edited a page at a time.
+ *
+ * The file is read through a memory mapped window which slides over it, it's split in pages of
+ * about {@link #PAGE_SIZE} bytes ending at a line break, indexed once when the file is opened.
+ * Edits are kept as a piece table: the document is a list of pieces of either the file or an
+ * append only buffer of the text added, the file isn't touched until {@link #save()}.
+ *
+ * Saving writes the whole document to a file next to the original and renames it over it, so that
+ * a failed save leaves the file as it was. Where no file can be created next to it the document is
+ * written to the temp directory first and copied over the file; if that copy fails the document
+ * is read from the temp file from then on, which is kept, so that nothing is lost and saving can
+ * be tried again.
+ *
+ * Text is read and written as UTF-8, the methods are synchronized so that the file can be saved
+ * on a background thread. Saving can take long: the page count, the line counts and whether the
+ * document is modified or being saved are kept in volatile fields, read without waiting for it.
+ */
+public class PagedTextFile {
+
+    // files larger than this are edited in pages
+    public static final long LARGE_FILE_SIZE = 2 * 1024 * 1024;
+
+    private static final int PAGE_SIZE = 256 * 1024;
+    private static final int WINDOW_SIZE = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File tempDirectory;
+
+    // the file the pieces of the original text are read from, the file itself unless a copy
+    // over it failed
+    private File source;
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private long fileLength;
+
+    private MappedByteBuffer window;
+    private long windowStart, windowEnd;
+
+    private final ArrayList<Piece> pieces = new ArrayList<>();
+    private byte[] added = new byte[BUFFER_SIZE];
+    private int addedLength;
+
+    // start of every page in the document and it's number of line breaks, the line counts
+    // are replaced rather than changed, the array being read without the lock
+    private long[] pageStarts = new long[16];
+    private volatile int[] pageLines = new int[16];
+    private volatile int pageCount;
+
+    private volatile boolean modified, saving;
+
+    /**
+     * Opens and indexes the file, call from a background thread
+     *
+     * @param tempDirectory where the document is written while saving, if it can't be next to
+     *                      the file
+     */
+    public PagedTextFile(File file, File tempDirectory) throws IOException {
+        this.file = file;
+        this.tempDirectory = tempDirectory;
+
+        open(file);
+        index();
+    }
+
+    public static boolean isLarge(File file) {
+        return file.length() > LARGE_FILE_SIZE;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the number of the first line of the page, starting at 1
+     */
+    public int getFirstLine(int page) {
+        int[] lines = pageLines;
+        int line = 1;
+        for (int i = 0; i < page; i++) {
+            line += lines[i];
+        }
+        return line;
+    }
+
+    public int getLineCount(int page) {
+        return pageLines[page];
+    }
+
+    public synchronized String readPage(int page) throws IOException {
+        long start = pageStarts[page];
+        byte[] bytes = new byte[(int) (getPageEnd(page) - start)];
+        read(start, bytes, bytes.length);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Replaces the text of the page, the following pages move accordingly
+     */
+    public synchronized void replacePage(int page, String text) {
+        byte[] bytes = text.getBytes(UTF_8);
+        long start = pageStarts[page], length = getPageEnd(page) - start;
+
+        replace(start, length, bytes);
+
+        long delta = bytes.length - length;
+        for (int i = page + 1; i < pageCount; i++) {
+            pageStarts[i] += delta;
+        }
+
+        int lines = 0;
+        for (byte b : bytes) {
+            if (b == '\n') lines++;
+        }
+        int[] updatedLines = pageLines.clone();
+        updatedLines[page] = lines;
+        pageLines = updatedLines;
+
+        modified = source != file || pieces.size() != 1 || !pieces.get(0).original
+                || pieces.get(0).length != fileLength;
+    }
+
+    /**
+     * @return whether the document differs from the file
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * @return whether {@link #save()} is running, reading and editing pages wait for it
+     */
+    public boolean isSaving() {
+        return saving;
+    }
+
+    /**
+     * Writes the document to the file, call from a background thread
+     */
+    public void save() throws IOException {
+        saving = true;
+        try {
+            synchronized (this) {
+                write();
+            }
+        } finally {
+            saving = false;
+        }
+    }
+
+    private void write() throws IOException {
+        if (!modified) return;
+
+        long length = getLength();
+
+        File temp;
+        boolean next = true;
+        try {
+            temp = File.createTempFile("edit", ".tmp", file.getParentFile());
+        } catch (IOException e) {
+            temp = File.createTempFile("edit", ".tmp", tempDirectory);
+            next = false;
+        }
+
+        try {
+            FileOutputStream outputStream = new FileOutputStream(temp);
+            try {
+                copy(0, length, outputStream);
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            // nothing was touched
+            temp.delete();
+            throw e;
+        }
+
+        if (next) {
+            // the file still opened is the replaced one, it's read until the rename is done
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Can't replace " + file.getPath());
+            }
+            reopen(file);
+            return;
+        }
+
+        try {
+            copyOver(temp, file, length);
+        } catch (IOException e) {
+            // the file is partly overwritten, the document is only whole in the temp file now
+            reopen(temp);
+            modified = true;
+            throw new IOException("Saving failed, the document is kept in " + temp.getPath(), e);
+        }
+        temp.delete();
+        reopen(file);
+    }
+
+    /**
+     * Reads the document from a file of it's content, the pages are still where they were
+     */
+    private void reopen(File newSource) throws IOException {
+        File previous = source;
+        close();
+        pieces.clear();
+        addedLength = 0;
+        open(newSource);
+        modified = false;
+
+        if (previous != file && previous != newSource) previous.delete();
+    }
+
+    private static void copyOver(File from, File to, long length) throws IOException {
+        InputStream inputStream = new FileInputStream(from);
+        try {
+            RandomAccessFile outputFile = new RandomAccessFile(to, "rw");
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputFile.write(buffer, 0, read);
+                }
+                outputFile.setLength(length);
+                outputFile.getFD().sync();
+            } finally {
+                outputFile.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    public synchronized void close() {
+        window = null;
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void open(File source) throws IOException {
+        // only read, saving writes another file
+        this.source = source;
+        randomAccessFile = new RandomAccessFile(source, "r");
+        channel = randomAccessFile.getChannel();
+        fileLength = channel.size();
+
+        pieces.add(new Piece(true, 0, fileLength));
+    }
+
+    /**
+     * Splits the file in pages ending at a line break after {@link #PAGE_SIZE} bytes
+     */
+    private void index() throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long pageStart = 0;
+        int lines = 0;
+
+        for (long position = 0; position < fileLength; ) {
+            int length = (int) Math.min(buffer.length, fileLength - position);
+            readOriginal(position, buffer, 0, length);
+
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] != '\n') continue;
+
+                lines++;
+                long next = position + i + 1;
+                if (next - pageStart >= PAGE_SIZE && next < fileLength) {
+                    addPage(pageStart, lines);
+                    pageStart = next;
+                    lines = 0;
+                }
+            }
+
+            position += length;
+        }
+
+        addPage(pageStart, lines);
+    }
+
+    private void addPage(long start, int lines) {
+        // only while indexing, before the file is shared with other threads
+        if (pageCount == pageStarts.length) {
+            pageStarts = Arrays.copyOf(pageStarts, pageCount * 2);
+            pageLines = Arrays.copyOf(pageLines, pageCount * 2);
+        }
+        pageStarts[pageCount] = start;
+        pageLines[pageCount] = lines;
+        pageCount++;
+    }
+
+    private long getPageEnd(int page) {
+        return page + 1 < pageCount ? pageStarts[page + 1] : getLength();
+    }
+
+    private long getLength() {
+        long length = 0;
+        for (Piece piece : pieces) {
+            length += piece.length;
+        }
+        return length;
+    }
+
+    /**
+     * Replaces length bytes of the document at start
+     */
+    private void replace(long start, long length, byte[] bytes) {
+        int first = split(start);
+        int last = split(start + length);
+        pieces.subList(first, last).clear();
+
+        if (bytes.length > 0) {
+            if (addedLength + bytes.length > added.length) {
+                added = Arrays.copyOf(added, Math.max(addedLength + bytes.length, added.length * 2));
+            }
+            System.arraycopy(bytes, 0, added, addedLength, bytes.length);
+            pieces.add(first, new Piece(false, addedLength, bytes.length));
+            addedLength += bytes.length;
+        }
+    }
+
+    /**
+     * Splits the piece containing the position of the document, if it doesn't start there
+     *
+     * @return the index of the piece starting at the position
+     */
+    private int split(long position) {
+        long start = 0;
+        for (int i = 0; i < pieces.size(); i++) {
+            Piece piece = pieces.get(i);
+            if (position == start) return i;
+
+            if (position < start + piece.length) {
+                long head = position - start;
+                pieces.set(i, new Piece(piece.original, piece.offset, head));
+                pieces.add(i + 1, new Piece(piece.original, piece.offset + head, piece.length - head));
+                return i + 1;
+            }
+
+            start += piece.length;
+        }
+        return pieces.size();
+    }
+
+    /**
+     * Reads length bytes of the document from start
+     */
+    private void read(long start, byte[] destination, int length) throws IOException {
+        long pieceStart = 0;
+        int read = 0;
+        for (Piece piece : pieces) {
+            if (read == length) break;
+
+            long pieceEnd = pieceStart + piece.length;
+            long position = start + read;
+            if (position < pieceEnd) {
+                long skip = position - pieceStart;
+                int count = (int) Math.min(length - read, piece.length - skip);
+
+                if (piece.original) {
+                    readOriginal(piece.offset + skip, destination, read, count);
+                } else {
+                    System.arraycopy(added, (int) (piece.offset + skip), destination, read, count);
+                }
+                read += count;
+            }
+
+            pieceStart = pieceEnd;
+        }
+    }
+
+    private void copy(long start, long end, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (long position = start; position < end; ) {
+            int length = (int) Math.min(buffer.length, end - position);
+            read(position, buffer, length);
+            outputStream.write(buffer, 0, length);
+            position += length;
+        }
+    }
+
+    /**
+     * Reads bytes of the file, moving the mapped window if they're outside of it
+     */
+    private void readOriginal(long offset, byte[] destination, int destinationOffset, int length)
+            throws IOException {
+        while (length > 0) {
+            if (window == null || offset < windowStart || offset >= windowEnd) {
+                windowStart = offset;
+                windowEnd = Math.min(fileLength, offset + WINDOW_SIZE);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            }
+
+            int count = (int) Math.min(length, windowEnd - offset);
+            window.position((int) (offset - windowStart));
+            window.get(destination, destinationOffset, count);
+
+            offset += count;
+            destinationOffset += count;
+            length -= count;
+        }
+    }
+
+    private static class Piece {
+        // whether the piece is part of the file or of the added text
+        final boolean original;
+        final long offset, length;
+
+        Piece(boolean original, long offset, long length) {
+            this.original = original;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.amaze.filemanager.utils.files;
+
+import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.ProgressHandler;
+
+import org.apache.commons.compress.archivers.zip.ScatterZipOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes files to a zip deflating them on several threads, as commons-compress'
+ * ParallelScatterZipCreator does, with a choice of compression level.
+ *
+ * Each thread deflates the files it's given to a scatter file of it's own, in the temp directory.
+ * Once every file is deflated the scatter files are copied one after the other to the zip,
+ * without being inflated again.
+ *
+ * Stored files only need a CRC, they're written directly to the zip on the calling thread, as
+ * are the files of a single thread. The zip being a stream, the CRC and size of a stored file
+ * have to be written before it: it's read once to compute them.
+ */
+public class ParallelZipCreator {
+
+    // the compression level of entries which aren't compressed
+    public static final int STORED = -2;
+
+    private final ZipArchiveOutputStream target;
+    private final int level;
+    private final File tempDirectory;
+    private final ProgressHandler progressHandler;
+    private final int bufferSize;
+
+    private final ExecutorService executor;
+    private final ArrayList<Future<Void>> futures = new ArrayList<>();
+
+    // scatter files in the order they were created, written by a single thread each
+    private final ArrayList<File> scatterFiles = new ArrayList<>();
+    private final ArrayList<ScatterZipOutputStream> scatterStreams = new ArrayList<>();
+    private final ThreadLocal<ScatterZipOutputStream> threadScatterStream = new ThreadLocal<>();
+
+    /**
+     * @param level {@link #STORED}, {@link Deflater#DEFAULT_COMPRESSION} or 0 to 9
+     * @param progressHandler receives the bytes read from the files and their names
+     */
+    public ParallelZipCreator(ZipArchiveOutputStream target, int threads, int level,
+                              File tempDirectory, ProgressHandler progressHandler) {
+        this.target = target;
+        this.level = level;
+        this.tempDirectory = tempDirectory;
+        this.progressHandler = progressHandler;
+        this.bufferSize = BufferStrategy.forModes(OpenMode.FILE, OpenMode.FILE).getBufferSize();
+
+        if (level == STORED) {
+            target.setMethod(ZipEntry.STORED);
+        } else {
+            target.setMethod(ZipEntry.DEFLATED);
+            target.setLevel(level);
+        }
+
+        executor = threads > 1 && level != STORED ?
+                Executors.newFixedThreadPool(threads, runnable -> new Thread(runnable, "zip_deflate")) : null;
+    }
+
+    /**
+     * Queues the file, or writes it if the zip is written on the calling thread
+     *
+     * @param name name of the entry in the zip
+     */
+    public void addFile(final File file, final String name) throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(file, name);
+        entry.setMethod(level == STORED ? ZipEntry.STORED : ZipEntry.DEFLATED);
+
+        if (executor == null) {
+            write(file, entry);
+            return;
+        }
+
+        futures.add(executor.submit(() -> {
+            if (progressHandler.getCancelled()) return null;
+
+            progressHandler.setFileName(file.getName());
+            final InputStream inputStream = new ProgressInputStream(new FileInputStream(file), progressHandler);
+            try {
+                getScatterStream().addArchiveEntry(
+                        ZipArchiveEntryRequest.createZipArchiveEntryRequest(entry, () -> inputStream));
+            } finally {
+                inputStream.close();
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Waits for the files queued to be deflated and writes them to the zip, the zip
+     * itself isn't finished
+     */
+    public void writeQueued() throws IOException {
+        if (executor == null) return;
+
+        try {
+            executor.shutdown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+            if (progressHandler.getCancelled()) return;
+            for (ScatterZipOutputStream scatterStream : scatterStreams) {
+                scatterStream.writeTo(target);
+            }
+        } catch (InterruptedException e) {
+            progressHandler.setCancelled(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops the threads and deletes the scatter files
+     */
+    public void close() {
+        if (executor == null) return;
+
+        executor.shutdownNow();
+        synchronized (scatterStreams) {
+            for (ScatterZipOutputStream scatterStream : scatterStreams) {
+                try {
+                    scatterStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (File scatterFile : scatterFiles) {
+                scatterFile.delete();
+            }
+        }
+    }
+
+    private void write(File file, ZipArchiveEntry entry) throws IOException {
+        if (progressHandler.getCancelled()) return;
+
+        progressHandler.setFileName(file.getName());
+        ByteBuffer pooledBuffer = BufferPool.acquireHeap(bufferSize);
+        byte[] buffer = pooledBuffer.array();
+        try {
+            if (level == STORED) {
+                CRC32 crc = new CRC32();
+                long size = 0;
+                InputStream inputStream = new FileInputStream(file);
+                try {
+                    int length;
+                    while ((length = inputStream.read(buffer)) != -1) {
+                        crc.update(buffer, 0, length);
+                        size += length;
+                    }
+                } finally {
+                    inputStream.close();
+                }
+                entry.setSize(size);
+                entry.setCrc(crc.getValue());
+            }
+
+            InputStream inputStream = new FileInputStream(file);
+            target.putArchiveEntry(entry);
+            try {
+                int length;
+                while ((length = inputStream.read(buffer)) != -1) {
+                    target.write(buffer, 0, length);
+                    progressHandler.addWrittenLength(length);
+                }
+            } finally {
+                inputStream.close();
+                target.closeArchiveEntry();
+            }
+        } finally {
+            BufferPool.release(pooledBuffer);
+        }
+    }
+
+    private ScatterZipOutputStream getScatterStream() throws IOException {
+        ScatterZipOutputStream scatterStream = threadScatterStream.get();
+        if (scatterStream == null) {
+            File scatterFile = File.createTempFile("scatter", ".tmp", tempDirectory);
+            scatterStream = ScatterZipOutputStream.fileBased(scatterFile, level);
+            threadScatterStream.set(scatterStream);
+
+            synchronized (scatterStreams) {
+                scatterFiles.add(scatterFile);
+                scatterStreams.add(scatterStream);
+            }
+        }
+        return scatterStream;
+    }
+}
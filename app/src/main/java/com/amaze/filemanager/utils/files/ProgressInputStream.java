@@ -0,0 +1,45 @@
+package com.amaze.filemanager.utils.files;
+
+import android.support.annotation.NonNull;
+
+import com.amaze.filemanager.utils.ProgressHandler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Adds the bytes read from the stream to the written length of a {@link ProgressHandler}, for
+ * operations whose progress is measured by what they read, such as extracting a compressed tar
+ * or deflating files.
+ */
+public class ProgressInputStream extends FilterInputStream {
+
+    private final ProgressHandler progressHandler;
+
+    public ProgressInputStream(InputStream in, ProgressHandler progressHandler) {
+        super(in);
+        this.progressHandler = progressHandler;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) progressHandler.addWrittenLength(1);
+        return b;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) progressHandler.addWrittenLength(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) progressHandler.addWrittenLength(skipped);
+        return skipped;
+    }
+}
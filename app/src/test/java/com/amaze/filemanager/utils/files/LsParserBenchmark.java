@@ -0,0 +1,65 @@
+package com.amaze.filemanager.utils.files;
+
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+
+import org.junit.Test;
+
+/**
+ * Times {@link LsParser} against the parser it replaced on a large listing of toybox lines,
+ * checking on the way that they agree. The times are printed, not asserted.
+ */
+public class LsParserBenchmark {
+
+    private static final int LINES = 20000;
+    private static final int WARMUP_RUNS = 5, RUNS = 10;
+
+    @Test
+    public void compareWithLegacyParser() {
+        String[] lines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = LsParserTest.TOYBOX_LINES[i % LsParserTest.TOYBOX_LINES.length]
+                    .replace("2018-01-01", String.format("2018-%02d-%02d", i % 12 + 1, i % 28 + 1)) + i;
+        }
+
+        for (String line : lines) {
+            LsParserTest.assertSameFile(line, LegacyLsParser.parse(line), LsParser.parse(line));
+        }
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            runLegacy(lines);
+            runNew(lines);
+        }
+
+        long legacy = 0, parser = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            runLegacy(lines);
+            legacy += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            runNew(lines);
+            parser += System.nanoTime() - start;
+        }
+
+        System.out.println(String.format("%d lines: legacy %.1f ms, LsParser %.1f ms",
+                LINES, legacy / 1e6 / RUNS, parser / 1e6 / RUNS));
+    }
+
+    private static int runLegacy(String[] lines) {
+        int count = 0;
+        for (String line : lines) {
+            HybridFileParcelable file = LegacyLsParser.parse(line);
+            if (file != null) count++;
+        }
+        return count;
+    }
+
+    private static int runNew(String[] lines) {
+        int count = 0;
+        for (String line : lines) {
+            HybridFileParcelable file = LsParser.parse(line);
+            if (file != null) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,127 @@
+package com.amaze.filemanager.utils.files;
+
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class LsParserTest {
+
+    static final String[] TOYBOX_LINES = {
+            "drwxrwx--x 3 root sdcard_rw 4096 2018-01-01 12:00 Android",
+            "-rw-rw---- 1 root sdcard_rw 1048576 2017-12-31 23:59 music.mp3",
+            "-rw-rw---- 1 root sdcard_rw 0 2018-02-28 00:00 name with spaces.txt",
+            "lrwxrwxrwx 1 root root 21 2018-01-01 12:00 sdcard -> /storage/self/primary",
+            "lrwxrwxrwx 1 root root 7 2016-06-15 08:30 a link -> to a file",
+    };
+
+    @Test
+    public void parsesToyboxDates() {
+        HybridFileParcelable file = LsParser.parse(TOYBOX_LINES[0]);
+        assertNotNull(file);
+        assertEquals("Android", file.getPath());
+        assertEquals("drwxrwx--x", file.getPermission());
+        assertEquals(4096, file.getSize());
+        assertEquals(time(2018, Calendar.JANUARY, 1, 12, 0), file.getDate());
+        assertEquals("", file.getLink());
+    }
+
+    @Test
+    public void keepsSpacesInNames() {
+        HybridFileParcelable file = LsParser.parse(TOYBOX_LINES[2]);
+        assertNotNull(file);
+        assertEquals("name with spaces.txt", file.getPath());
+        assertEquals(0, file.getSize());
+    }
+
+    @Test
+    public void parsesLinks() {
+        HybridFileParcelable file = LsParser.parse(TOYBOX_LINES[3]);
+        assertNotNull(file);
+        assertEquals("sdcard", file.getPath());
+        assertEquals("/storage/self/primary", file.getLink());
+
+        file = LsParser.parse(TOYBOX_LINES[4]);
+        assertNotNull(file);
+        assertEquals("a link", file.getPath());
+        assertEquals("to a file", file.getLink());
+    }
+
+    @Test
+    public void onlyLinksHaveTargets() {
+        HybridFileParcelable file = LsParser.parse("-rw-r--r-- 1 root root 3 2018-01-01 12:00 a -> b");
+        assertNotNull(file);
+        assertEquals("a -> b", file.getPath());
+        assertEquals("", file.getLink());
+    }
+
+    @Test
+    public void parsesBusyboxRecentDates() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, -1);
+        int month = calendar.get(Calendar.MONTH), day = calendar.get(Calendar.DAY_OF_MONTH);
+        String[] months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+        HybridFileParcelable file = LsParser.parse("drwxr-xr-x    2 root     root          4096 "
+                + months[month] + " " + (day < 10 ? " " : "") + day + " 12:00 system");
+        assertNotNull(file);
+        assertEquals("system", file.getPath());
+        assertEquals(4096, file.getSize());
+        assertEquals(time(calendar.get(Calendar.YEAR), month, day, 12, 0), file.getDate());
+    }
+
+    @Test
+    public void parsesBusyboxYears() {
+        HybridFileParcelable file = LsParser.parse("-rw-r--r--    1 root     root           512 Jan  1  2017 old file");
+        assertNotNull(file);
+        assertEquals("old file", file.getPath());
+        assertEquals(512, file.getSize());
+        assertEquals(time(2017, Calendar.JANUARY, 1, 0, 0), file.getDate());
+    }
+
+    @Test
+    public void parsesDevices() {
+        HybridFileParcelable file = LsParser.parse("crw-rw-rw- 1 root root 1, 3 2018-01-01 12:00 null");
+        assertNotNull(file);
+        assertEquals("null", file.getPath());
+        assertEquals(-1, file.getSize());
+    }
+
+    @Test
+    public void ignoresLinesWithoutDate() {
+        assertNull(LsParser.parse("total 24"));
+        assertNull(LsParser.parse(""));
+        assertNull(LsParser.parse("ls: /data/secret: Permission denied"));
+    }
+
+    @Test
+    public void agreesWithLegacyParserOnToyboxLines() {
+        for (String line : TOYBOX_LINES) {
+            HybridFileParcelable expected = LegacyLsParser.parse(line);
+            HybridFileParcelable actual = LsParser.parse(line);
+            assertSameFile(line, expected, actual);
+        }
+    }
+
+    static void assertSameFile(String line, HybridFileParcelable expected, HybridFileParcelable actual) {
+        assertNotNull(line, actual);
+        assertEquals(line, expected.getPath(), actual.getPath());
+        assertEquals(line, expected.getPermission(), actual.getPermission());
+        assertEquals(line, expected.getSize(), actual.getSize());
+        assertEquals(line, expected.getDate(), actual.getDate());
+        // the legacy parser kept the space after the arrow
+        assertEquals(line, expected.getLink().trim(), actual.getLink());
+    }
+
+    private static long time(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}